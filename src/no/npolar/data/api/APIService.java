@@ -12,7 +12,17 @@ import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import no.npolar.data.api.util.APIUtil;
+import no.npolar.data.api.util.QueryParams;
+import no.npolar.data.api.util.JSONStreamReader;
 import org.opencms.json.JSONArray;
 import org.opencms.json.JSONException;
 import org.opencms.json.JSONObject;
@@ -21,6 +31,17 @@ import org.opencms.json.JSONObject;
 /**
  * Base class for accessing the Norwegian Polar Institute Data Centre API / web
  * service.
+ * <p>
+ * A service instance holds both its configuration - the base URL, the preset 
+ * (default and unmodifiable) parameters and the locale - and the state of the 
+ * last query issued via {@link #doQuery(java.util.Map)}. Such instances must 
+ * not be shared between threads.
+ * <p>
+ * Alternatively, configure the instance once, and then issue queries via 
+ * {@link #query(java.util.Map)} or {@link #doQueryAsync(java.util.Map)}: These 
+ * methods leave the instance untouched and return a {@link QueryResult} per 
+ * query, so that a single instance (e.g. one per locale) can be shared by all 
+ * request threads.
  * 
  * @author Paul-Inge Flakstad, Norwegian Polar Institute
  */
@@ -348,6 +369,31 @@ public abstract class APIService implements APIServiceInterface {
     /** The default locale to use when generating language-specific content. */
     public static final String DEFAULT_LOCALE_NAME = "en";
     
+    /** The default time (in milliseconds) that cached service responses are considered fresh. */
+    public static final long DEFAULT_CACHE_TTL = 5 * 60 * 1000;
+    
+    /** 
+     * The time (in milliseconds) that cached responses from this service are 
+     * considered fresh. 
+     * 
+     * @see APIUtil#getResponseCache() 
+     */
+    protected long cacheTtl = DEFAULT_CACHE_TTL;
+    
+    /** The maximum number of threads in the default executor for asynchronous requests. */
+    public static final int DEFAULT_ASYNC_THREADS = 8;
+    
+    /** 
+     * The executor that issues asynchronous requests, shared by all services. 
+     * Created on demand, unless set explicitly.
+     * 
+     * @see #doQueryAsync(java.util.Map) 
+     */
+    private static volatile ExecutorService asyncExecutor = null;
+    
+    /** Flag indicating whether or not {@link #asyncExecutor} is the default executor, created (and owned) by this class. */
+    private static boolean asyncExecutorIsDefault = false;
+    
     /**
      * The (parameter) prefix for filters. 
      * @deprecated Use {@link Param#MOD_FILTER} instead.
@@ -503,137 +549,547 @@ public abstract class APIService implements APIServiceInterface {
         return this;
     }
     /**
-     * Requests the URL currently defined in {@link #serviceUrl}, and stores the 
-     * response (or rather, its <code>feed</code> object) before passing it to
-     * {@link #parseResults(org.opencms.json.JSONObject)}.
+     * Queries the service using the given parameters, handing each entry to 
+     * the given handler as soon as it has been read from the response.
+     * <p>
+     * Use this instead of {@link #doQuery(java.util.Map)} for potentially 
+     * large result sets (e.g. <code>limit=all</code>): The response is parsed 
+     * while it is being read, and only one entry at a time is held in memory.
+     * <p>
+     * Pagination details and facets are stored just like with 
+     * {@link #doQuery(java.util.Map)}, but the entries are <strong>not</strong> 
+     * stored: {@link #getEntries()} will return <code>null</code> afterwards. 
+     * The response is never cached.
+     * 
+     * @param params The parameters to use in the query.
+     * @param handler The handler that will receive each entry.
+     * @return This instance, updated.
+     * @throws java.io.UnsupportedEncodingException
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws JSONException
+     * @throws InstantiationException 
+     * @see EntryHandler
+     */
+    public APIServiceInterface doQuery(Map<String, String[]> params, EntryHandler handler) 
+            throws java.io.UnsupportedEncodingException, 
+            MalformedURLException, 
+            IOException, 
+            JSONException, 
+            InstantiationException {
+        
+        addParameters(params);
+        
+        serviceUrl = getServiceBaseURL().concat("?").concat( prepareParameters() );
+        
+        makeRequest(handler);
+        
+        return this;
+    }
+    
+    /**
+     * Sets the executor to use for asynchronous requests, for all services.
+     * <p>
+     * Typically invoked once, at application startup, e.g. to use a bounded 
+     * thread pool. The caller is responsible for shutting down the executor.
+     * 
+     * @param executor The executor to use. If <code>null</code>, the default executor is used.
+     * @see #getAsyncExecutor() 
+     */
+    public static void setAsyncExecutor(ExecutorService executor) {
+        synchronized (APIService.class) {
+            if (asyncExecutorIsDefault) {
+                asyncExecutor.shutdown();
+            }
+            asyncExecutor = executor;
+            asyncExecutorIsDefault = false;
+        }
+    }
+    
+    /**
+     * Shuts down the default executor for asynchronous requests, if it has 
+     * been created.
+     * <p>
+     * Should be invoked when the application stops (e.g. from a 
+     * <code>ServletContextListener</code> when the webapp is undeployed), so 
+     * that no threads are left behind. Pending requests are allowed to 
+     * complete. A new default executor is created if asynchronous requests 
+     * are issued afterwards.
+     * <p>
+     * An executor that was {@link #setAsyncExecutor(java.util.concurrent.ExecutorService) set} 
+     * explicitly is not shut down - that is up to the caller.
+     */
+    public static void shutdownAsyncExecutor() {
+        synchronized (APIService.class) {
+            if (asyncExecutorIsDefault) {
+                asyncExecutor.shutdown();
+                asyncExecutor = null;
+                asyncExecutorIsDefault = false;
+            }
+        }
+    }
+    
+    /**
+     * Gets the executor used for asynchronous requests, creating the default 
+     * executor if necessary.
      * <p>
+     * Unless another executor has been {@link #setAsyncExecutor(java.util.concurrent.ExecutorService) set}, 
+     * this is a pool of at most {@link #DEFAULT_ASYNC_THREADS} (daemon) 
+     * threads, which are created as needed and stopped when idle. Requests 
+     * beyond that are queued. See also {@link #shutdownAsyncExecutor()}.
+     * 
+     * @return The executor used for asynchronous requests.
+     */
+    public static ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            synchronized (APIService.class) {
+                if (asyncExecutor == null) {
+                    asyncExecutor = createDefaultAsyncExecutor();
+                    asyncExecutorIsDefault = true;
+                }
+            }
+        }
+        return asyncExecutor;
+    }
+    
+    /**
+     * Creates the default executor for asynchronous requests.
+     * 
+     * @return A new executor.
+     * @see #getAsyncExecutor() 
+     */
+    private static ExecutorService createDefaultAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                DEFAULT_ASYNC_THREADS, 
+                DEFAULT_ASYNC_THREADS, 
+                60, 
+                TimeUnit.SECONDS, 
+                new LinkedBlockingQueue<Runnable>(), 
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "npolar-api-async");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }
+        );
+        // Stop idle threads, so an idle application holds none
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    /**
+     * Queries the service using the given parameters, without modifying this 
+     * instance.
+     * <p>
+     * Unlike {@link #doQuery(java.util.Map)}, the given parameters are 
+     * <strong>not</strong> added to this instance, and the entries, pagination 
+     * details and facets are available only via the returned query result. 
+     * This method can therefore be invoked by multiple threads at once, e.g. 
+     * on a single service instance that is kept for the lifetime of the 
+     * application - as long as its preset (default and unmodifiable) 
+     * parameters are not modified after it has been shared.
+     * <p>
+     * Any given parameter that is also a preset parameter is ignored.
+     * 
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @return The query result.
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws JSONException 
+     * @see #doQueryAsync(java.util.Map) 
+     */
+    public QueryResult query(Map<String, String[]> params) 
+            throws MalformedURLException, IOException, JSONException {
+        Map<String, String[]> presets = snapshotPresetParameters();
+        return request(composeServiceUrl(params, presets), null, presets.keySet(), cacheTtl).build();
+    }
+    
+    /**
+     * Queries the service asynchronously, using the given parameters.
+     * <p>
+     * The request is issued on the {@link #getAsyncExecutor() asynchronous 
+     * executor}. Like {@link #query(java.util.Map)}, it does 
+     * <strong>not</strong> modify this instance, so that several requests can 
+     * be issued in parallel - e.g. one per service used on a page - using 
+     * shared service instances.
+     * 
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @return The pending query result.
+     * @see #doQueryAsync(java.util.Map, java.util.concurrent.ExecutorService) 
+     */
+    public Future<QueryResult> doQueryAsync(Map<String, String[]> params) {
+        return doQueryAsync(params, getAsyncExecutor());
+    }
+    
+    /**
+     * Queries the service asynchronously, using the given parameters and 
+     * executor.
+     * 
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @param executor The executor that should issue the request.
+     * @return The pending query result.
+     * @see #doQueryAsync(java.util.Map) 
+     */
+    public Future<QueryResult> doQueryAsync(Map<String, String[]> params, ExecutorService executor) {
+        // Take a snapshot of everything the request needs, so that this 
+        // instance can be modified while the request is pending
+        Map<String, String[]> presets = snapshotPresetParameters();
+        final String url = composeServiceUrl(params, presets);
+        final Set<String> presetKeys = presets.keySet();
+        final long ttl = cacheTtl;
+        
+        return executor.submit(new Callable<QueryResult>() {
+            @Override
+            public QueryResult call() throws Exception {
+                return request(url, null, presetKeys, ttl).build();
+            }
+        });
+    }
+    
+    /**
+     * Iterates over all entries matching the given parameters, reading them 
+     * from the service one page at a time.
+     * <p>
+     * Use this instead of a query with <code>limit=all</code> (see 
+     * {@link ParamVal#RESULTS_LIMIT_NO_LIMIT}) for large result sets: The 
+     * next page is fetched while the current one is being consumed, and only 
+     * those two pages are held in memory. Facets are not requested.
+     * <p>
+     * Like {@link #query(java.util.Map)}, this method does not modify this 
+     * instance.
+     * 
+     * @param <T> The entry type, e.g. {@link Publication}.
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @param pageSize The number of entries per page.
+     * @param factory The factory that creates typed entries.
+     * @return An iterator over all entries matching the given parameters.
+     * @see PagedIterator
+     */
+    public <T extends APIEntry> PagedIterator<T> iterate(Map<String, String[]> params, int pageSize, PagedIterator.EntryFactory<T> factory) {
+        Map<String, String[]> presets = snapshotPresetParameters();
+        return new PagedIterator<T>(
+                composePageUrl(params, presets, pageSize), 
+                factory, 
+                presets.keySet(), 
+                cacheTtl, 
+                getAsyncExecutor()
+        );
+    }
+    
+    /**
+     * Iterates over all entries matching the given parameters, reading them 
+     * from the service one page at a time, and creating the typed entries 
+     * for each page at once.
+     * <p>
+     * Like {@link #iterate(java.util.Map, int, no.npolar.data.api.PagedIterator.EntryFactory)}, 
+     * but the typed entries are created as soon as the page has been read, 
+     * in the background. Use this when creating the typed entries involves 
+     * further requests that are best made for an entire page at once.
+     * 
+     * @param <T> The entry type, e.g. {@link Publication}.
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @param pageSize The number of entries per page.
+     * @param factory The factory that creates the typed entries on each page.
+     * @return An iterator over all entries matching the given parameters.
+     * @see PagedIterator
+     */
+    public <T extends APIEntry> PagedIterator<T> iteratePages(Map<String, String[]> params, int pageSize, PagedIterator.PageFactory<T> factory) {
+        Map<String, String[]> presets = snapshotPresetParameters();
+        return new PagedIterator<T>(
+                composePageUrl(params, presets, pageSize), 
+                factory, 
+                presets.keySet(), 
+                cacheTtl, 
+                getAsyncExecutor()
+        );
+    }
+    
+    /**
+     * Composes the full service URL for the first page of a paged iteration.
+     * 
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @param presets The preset parameters.
+     * @param pageSize The number of entries per page.
+     * @return The full service URL for the first page.
+     */
+    private String composePageUrl(Map<String, String[]> params, Map<String, String[]> presets, int pageSize) {
+        Map<String, String[]> pageParams = new HashMap<String, String[]>(presets);
+        pageParams.put(Param.FACETS, toParamVal(ParamVal.FACETS_NONE));
+        pageParams.put(Param.START_AT, toParamVal("0"));
+        pageParams.put(Param.RESULTS_LIMIT, toParamVal(String.valueOf(pageSize)));
+        return composeServiceUrl(params, pageParams);
+    }
+    
+    /**
+     * Gets a copy of the preset (default and unmodifiable) parameters.
+     * <p>
+     * Synchronized with the methods that modify the preset parameters.
+     * 
+     * @return A copy of the preset parameters.
+     * @see #getPresetParameters() 
+     * @see #makeDefaultParameter(java.lang.String, java.lang.String[]) 
+     */
+    private synchronized Map<String, String[]> snapshotPresetParameters() {
+        return getPresetParameters();
+    }
+    
+    /**
+     * Composes the full service URL for a query with the given parameters, 
+     * without modifying this instance.
+     * 
+     * @param params The parameters to use in the query. Can be <code>null</code>.
+     * @param presets The preset parameters, which take precedence over the given parameters.
+     * @return The full service URL.
+     * @see #getMasterParameterMap() 
+     */
+    private String composeServiceUrl(Map<String, String[]> params, Map<String, String[]> presets) {
+        // order is important here! (we don't want to overwrite the defaults / unmodifiables)
+        Map<String, String[]> tmp = new HashMap<String, String[]>();
+        if (params != null) {
+            tmp.putAll(params);
+        }
+        tmp.putAll(presets);
+        return getServiceBaseURL().concat("?").concat( getParameterString(tmp) );
+    }
+    
+    /**
+     * Requests the URL currently defined in {@link #serviceUrl}, and parses 
+     * the response, storing its entries.
      * 
      * @throws MalformedURLException
      * @throws IOException
      * @throws JSONException 
+     * @see #makeRequest(no.npolar.data.api.EntryHandler) 
      */
     private void makeRequest() 
             throws MalformedURLException, IOException, JSONException {
+        makeRequest(null);
+    }
+    
+    /**
+     * Requests the URL currently defined in {@link #serviceUrl}, and parses 
+     * the response while it is being read.
+     * <p>
+     * The response is never held in memory in its entirety. Each entry is 
+     * either handed to the given handler, or - if no handler is given - 
+     * stored in {@link #entries}.
+     * <p>
+     * The pagination details read so far are set on this instance before the 
+     * first entry is handed to the handler, and all details are set once the 
+     * response has been read.
+     * 
+     * @param handler The handler that will receive each entry, or <code>null</code> to store the entries.
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws JSONException 
+     * @see #request(java.lang.String, no.npolar.data.api.EntryHandler, java.util.Set, long) 
+     */
+    private void makeRequest(final EntryHandler handler) 
+            throws MalformedURLException, IOException, JSONException {
         //System.out.println("makeRequest using " + serviceUrl );
-        // We're expecting a response in JSON format
-        String jsonFeed = APIUtil.httpResponseAsString(serviceUrl);
-        JSONObject json = new JSONObject(jsonFeed).getJSONObject(Key.FEED);
-        parseResults(json);
+        final QueryResult.Builder result = new QueryResult.Builder(serviceUrl);
+        EntryHandler h = null;
+        if (handler != null) {
+            h = new EntryHandler() {
+                private boolean resultSet = false;
+                @Override
+                public void handle(JSONObject entry) throws JSONException {
+                    if (!resultSet) {
+                        // Make e.g. getTotalResults() valid inside the handler
+                        setResult(result);
+                        resultSet = true;
+                    }
+                    handler.handle(entry);
+                }
+            };
+        }
+        request(result, h, getPresetParameters().keySet(), cacheTtl);
+        setResult(result);
+    }
+    
+    /**
+     * Sets the state of this instance from the given (possibly partial) result.
+     * 
+     * @param result The result.
+     */
+    private void setResult(QueryResult.Builder result) {
+        entries = result.entries;
+        totalResults = result.totalResults;
+        itemsPerPage = result.itemsPerPage;
+        startIndex = result.startIndex;
+        self = result.self;
+        indexNoFirstPageItem = result.indexNoFirstPageItem;
+        indexNoLastPageItem = result.indexNoLastPageItem;
+        pageUriNext = result.pageUriNext;
+        pageUriPrev = result.pageUriPrev;
+        querySearchTime = result.querySearchTime;
+        query = result.query;
+        filterSets = result.filterSets;
     }
     
     /**
-     * Parses the given feed, which is expected to represent a query response 
-     * from the Data Centre.
+     * Requests the given URL, and parses the response while it is being read.
+     * <p>
+     * Touches no instance state, and can therefore be invoked from any 
+     * thread - e.g. by a {@link PagedIterator}.
+     * <p>
+     * When a handler is given, the response cache is bypassed: Such responses 
+     * are typically large, and copying them to the cache would defeat the 
+     * purpose of streaming them.
      * 
-     * @param feed The feed to parse, expected to be the object with key {@link Key.FEED} in a Data Centre query response.
+     * @param url The URL to request.
+     * @param handler The handler that will receive each entry, or <code>null</code> to collect the entries.
+     * @param presetKeys The keys of the preset parameters, to be removed from filter URLs.
+     * @param ttl The time (in milliseconds) that a cached response is considered fresh. Ignored if a handler is given.
+     * @return The parsed response.
      * @throws MalformedURLException
      * @throws IOException
      * @throws JSONException 
+     * @see #parseFeed(no.npolar.data.api.util.JSONStreamReader, no.npolar.data.api.EntryHandler, no.npolar.data.api.QueryResult.Builder, java.util.Set) 
      */
-    private void parseResults(JSONObject feed) throws JSONException {
-        try { 
-            JSONObject opensearch = feed.getJSONObject(Key.OPENSEARCH);
-            try { totalResults = opensearch.getInt(Key.OPENSEARCH_TOTAL_RESULTS); } catch (Exception innerE) { totalResults = -1; }
-            try { itemsPerPage = opensearch.getInt(Key.OPENSEARCH_ITEMS_PER_PAGE); } catch (Exception innerE) { itemsPerPage = -1; }
-            try { startIndex = opensearch.getInt(Key.OPENSEARCH_START_INDEX); } catch (Exception innerE) { startIndex = -1; }
-        } catch (Exception e) { }
-        
-        try {
-            JSONObject list = feed.getJSONObject(Key.LIST);
-            try { self = list.getString(Key.LIST_SELF); } catch (Exception innerE) { self = null; }
-            try { indexNoFirstPageItem = list.getInt(Key.LIST_FIRST); } catch (Exception innerE) { indexNoFirstPageItem = -1; }
-            try { indexNoLastPageItem = list.getInt(Key.LIST_LAST); } catch (Exception innerE) { indexNoLastPageItem = -1; }
-            try { pageUriNext = list.getString(Key.LIST_NEXT); } catch (Exception innerE) { pageUriNext = null; }
-            try { pageUriPrev = list.getString(Key.LIST_PREVIOUS); } catch (Exception innerE) { pageUriPrev = null; }
-        } catch (Exception e) { }
-        
-        try { 
-            JSONObject search = feed.getJSONObject(Key.SEARCH);
-            try { querySearchTime = search.getInt(Key.SEARCH_QUERY_TIME); } catch (Exception innerE) { querySearchTime = -1; }
-            try { query = search.getString(Key.SEARCH_QUERY); } catch (Exception innerE) { query = null; }
-        } catch (Exception e) { }
-        
-        try { entries = feed.getJSONArray(Key.ENTRIES); } catch (Exception e) { entries = null; }
-        
-        //
-        // Facets
-        //
-        filterSets = new SearchFilterSets();
+    static QueryResult.Builder request(String url, EntryHandler handler, Set<String> presetKeys, long ttl) 
+            throws MalformedURLException, IOException, JSONException {
+        return request(new QueryResult.Builder(url), handler, presetKeys, ttl);
+    }
+    
+    /**
+     * Requests the given result's URL, and populates the given result while 
+     * the response is being read.
+     * 
+     * @param result The result to populate.
+     * @param handler The handler that will receive each entry, or <code>null</code> to collect the entries.
+     * @param presetKeys The keys of the preset parameters, to be removed from filter URLs.
+     * @param ttl The time (in milliseconds) that a cached response is considered fresh. Ignored if a handler is given.
+     * @return The given result, populated.
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws JSONException 
+     * @see #request(java.lang.String, no.npolar.data.api.EntryHandler, java.util.Set, long) 
+     */
+    private static QueryResult.Builder request(QueryResult.Builder result, EntryHandler handler, Set<String> presetKeys, long ttl) 
+            throws MalformedURLException, IOException, JSONException {
+        String url = result.serviceUrl;
+        // We're expecting a response in JSON format
+        JSONStreamReader r = new JSONStreamReader(APIUtil.httpResponseAsReader(url, handler == null ? ttl : 0));
         try {
-            JSONArray facets = feed.getJSONArray(Key.FACETS);
-            //System.out.println("Found " + facets.length() + " facets.");
-            for (int i = 0; i < facets.length(); i++) {
-                try { 
-                    JSONObject facet = facets.getJSONObject(i);
-                    String facetName = facet.keys().next();
-                    //System.out.println("\nFacet field is '" + facetName + "'");
-                    JSONArray filters = facet.getJSONArray(facetName);
-                    if (filters.length() > 0) {
-                        SearchFilterSet filterSet = new SearchFilterSet(facetName);
-                        //System.out.println("[" + facetName + "]filters.length() = " + filters.length());
-                        for (int j = 0; j < filters.length(); j++) {
-                            JSONObject filter = filters.getJSONObject(j);
-                            try {
-                                SearchFilter f = new SearchFilter(facetName, filter, self);
-                                Iterator<String> iPresetParamKeys = this.getPresetParameters().keySet().iterator();
-                                while (iPresetParamKeys.hasNext()) {
-                                    String presetParamKey = iPresetParamKeys.next();
-                                    f.removeParam(presetParamKey); // this is a default/unmodifiable parameter: remove it
-                                    //System.out.println("\nRemoved filter parameter " + presetParamKey);
-                                }
-                                //System.out.println("Adding filter: " + f.getUrl());
-                                filterSet.add(f);
-                                if (f.isActive)
-                                    this.isUserFiltered = true;
-                            } catch (NullPointerException npe) { 
-                                //System.out.println("EXCEPTION npe: " + npe.getMessage()); 
-                            }
-                        }
-                        filterSets.add(filterSet);
-                    }
-                } catch (Exception innerE) { 
-                    //System.out.println("EXCEPTION innerE: " + innerE.getMessage()); 
+            r.beginObject();
+            boolean foundFeed = false;
+            while (r.hasNext()) {
+                if (Key.FEED.equals(r.nextName())) {
+                    parseFeed(r, handler, result, presetKeys);
+                    foundFeed = true;
+                } else {
+                    r.skipValue();
                 }
             }
-        } catch (Exception e) { }
+            if (!foundFeed) {
+                throw new JSONException("No '" + Key.FEED + "' in response from " + url + ".");
+            }
+            r.endObject();
+            // Read to the end, flagging the response as complete (and cacheable)
+            r.endDocument();
+        } finally {
+            r.close();
+        }
+        result.snapshotTime = APIUtil.getSnapshotTime(url);
+        return result;
+    }
+    
+    /**
+     * Parses the feed that is next in the given reader, in a single pass.
+     * <p>
+     * The small "header" objects (opensearch, list, search) are parsed into 
+     * JSON objects, while the facets are kept raw, to be parsed only if the 
+     * filter sets are actually used. Entries are read one at a time, and either
+     * handed to the given handler, or - if no handler is given - collected in 
+     * the given result.
+     * 
+     * @param r The reader, positioned at the start of the feed object.
+     * @param handler The handler that will receive each entry, or <code>null</code> to collect the entries.
+     * @param result The result to populate.
+     * @param presetKeys The keys of the preset parameters, to be removed from filter URLs.
+     * @throws IOException
+     * @throws JSONException 
+     */
+    private static void parseFeed(JSONStreamReader r, EntryHandler handler, QueryResult.Builder result, Set<String> presetKeys) 
+            throws IOException, JSONException {
+        String facets = null;
         
-        /*
-        // Facets
-        filterSets = new HashMap<String, List<SearchFilter>>();
-        try {
-            JSONArray facets = feed.getJSONArray("facets");
-            //System.out.println("Found " + facets.length() + " facets.");
-            for (int i = 0; i < facets.length(); i++) {
-                try { 
-                    JSONObject facet = facets.getJSONObject(i);
-                    String facetName = facet.keys().next();
-                    //System.out.println("\nFacet field is '" + facetName + "'");
-                    JSONArray filters = facet.getJSONArray(facetName);
-                    if (filters.length() > 0) {
-                        filterSets.put(facetName, new ArrayList<SearchFilter>());
-                        //System.out.println("[" + facetName + "]filters.length() = " + filters.length());
-                        for (int j = 0; j < filters.length(); j++) {
-                            JSONObject filter = filters.getJSONObject(j);
-                            try {
-                                SearchFilter f = new SearchFilter(facetName, filter, self);
-                                Iterator<String> iDefaultParamKeys = this.getDefaultParameters().keySet().iterator();
-                                while (iDefaultParamKeys.hasNext()) {
-                                    f.removeParam(iDefaultParamKeys.next());
-                                }
-                                filterSets.get(facetName).add(f);
-                                if (f.isActive)
-                                    this.isUserFiltered = true;
-                            } catch (NullPointerException npe) { 
-                                //System.out.println("EXCEPTION npe: " + npe.getMessage()); 
-                            }
-                        }
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (Key.ENTRIES.equals(name) && r.peek() == '[') {
+                if (handler == null) {
+                    result.beginEntries();
+                }
+                r.beginArray();
+                while (r.hasNext()) {
+                    JSONObject entry = new JSONObject(r.nextRawValue());
+                    if (handler == null) {
+                        result.addEntry(entry);
+                    } else {
+                        handler.handle(entry);
                     }
-                } catch (Exception innerE) { 
-                    //System.out.println("EXCEPTION innerE: " + innerE.getMessage()); 
                 }
+                r.endArray();
+            } else if (Key.OPENSEARCH.equals(name) && r.peek() == '{') {
+                parseOpensearch(new JSONObject(r.nextRawValue()), result);
+            } else if (Key.LIST.equals(name) && r.peek() == '{') {
+                parseList(new JSONObject(r.nextRawValue()), result);
+            } else if (Key.SEARCH.equals(name) && r.peek() == '{') {
+                parseSearch(new JSONObject(r.nextRawValue()), result);
+            } else if (Key.FACETS.equals(name) && r.peek() == '[') {
+                // Kept raw: parsed only if and when the filter sets are used
+                facets = r.nextRawValue();
+            } else {
+                r.skipValue();
             }
-        } catch (Exception e) { }
-        //*/
+        }
+        r.endObject();
+        
+        // Created last, as the filter URIs depend on the "self" URI
+        result.filterSets = facets == null 
+                ? new SearchFilterSets() 
+                : new SearchFilterSets(facets, result.self, presetKeys);
+    }
+    
+    /**
+     * Parses the given feed's "opensearch" object.
+     * 
+     * @param opensearch The object with key {@link Key#OPENSEARCH} in a Data Centre query response.
+     * @param result The result to populate.
+     */
+    private static void parseOpensearch(JSONObject opensearch, QueryResult.Builder result) {
+        try { result.totalResults = opensearch.getInt(Key.OPENSEARCH_TOTAL_RESULTS); } catch (Exception innerE) { result.totalResults = -1; }
+        try { result.itemsPerPage = opensearch.getInt(Key.OPENSEARCH_ITEMS_PER_PAGE); } catch (Exception innerE) { result.itemsPerPage = -1; }
+        try { result.startIndex = opensearch.getInt(Key.OPENSEARCH_START_INDEX); } catch (Exception innerE) { result.startIndex = -1; }
+    }
+    
+    /**
+     * Parses the given feed's "list" object.
+     * 
+     * @param list The object with key {@link Key#LIST} in a Data Centre query response.
+     * @param result The result to populate.
+     */
+    private static void parseList(JSONObject list, QueryResult.Builder result) {
+        try { result.self = list.getString(Key.LIST_SELF); } catch (Exception innerE) { result.self = null; }
+        try { result.indexNoFirstPageItem = list.getInt(Key.LIST_FIRST); } catch (Exception innerE) { result.indexNoFirstPageItem = -1; }
+        try { result.indexNoLastPageItem = list.getInt(Key.LIST_LAST); } catch (Exception innerE) { result.indexNoLastPageItem = -1; }
+        try { result.pageUriNext = list.getString(Key.LIST_NEXT); } catch (Exception innerE) { result.pageUriNext = null; }
+        try { result.pageUriPrev = list.getString(Key.LIST_PREVIOUS); } catch (Exception innerE) { result.pageUriPrev = null; }
+    }
+    
+    /**
+     * Parses the given feed's "search" object.
+     * 
+     * @param search The object with key {@link Key#SEARCH} in a Data Centre query response.
+     * @param result The result to populate.
+     */
+    private static void parseSearch(JSONObject search, QueryResult.Builder result) {
+        try { result.querySearchTime = search.getInt(Key.SEARCH_QUERY_TIME); } catch (Exception innerE) { result.querySearchTime = -1; }
+        try { result.query = search.getString(Key.SEARCH_QUERY); } catch (Exception innerE) { result.query = null; }
     }
     
     /**
@@ -652,9 +1108,10 @@ public abstract class APIService implements APIServiceInterface {
             JSONException, 
             InstantiationException {
         
-        serviceUrl = getServiceBaseURL().concat(id);
+        // Local URL: reads don't touch instance state (see query(Map))
+        String url = getServiceBaseURL().concat(id);
         // We're expecting a response in JSON format
-        String jsonFeed = APIUtil.httpResponseAsString(serviceUrl);
+        String jsonFeed = APIUtil.httpResponseAsString(url, cacheTtl);
         try {
             return new JSONObject(jsonFeed);
         } catch (Exception e) {
@@ -687,8 +1144,8 @@ public abstract class APIService implements APIServiceInterface {
             IOException, 
             JSONException, 
             InstantiationException {
-        serviceUrl = baseUrl.concat(id);
-        String jsonFeed = APIUtil.httpResponseAsString(serviceUrl);
+        String url = baseUrl.concat(id);
+        String jsonFeed = APIUtil.httpResponseAsString(url, cacheTtl);
         try {
             return new JSONObject(jsonFeed);
         } catch (Exception e) {
@@ -697,6 +1154,35 @@ public abstract class APIService implements APIServiceInterface {
         }
     }
     
+    /**
+     * Reads a single entry from the service asynchronously, using the given 
+     * ID.
+     * <p>
+     * The request is issued on the {@link #getAsyncExecutor() asynchronous 
+     * executor}.
+     * 
+     * @param id The ID that uniquely identifies the single entry.
+     * @return The pending JSON object describing the single entry. Its value is <code>null</code> if no such entry could be found.
+     * @see #doRead(java.lang.String) 
+     */
+    public Future<JSONObject> doReadAsync(String id) {
+        final String url = getServiceBaseURL().concat(id);
+        final long ttl = cacheTtl;
+        
+        return getAsyncExecutor().submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                String jsonFeed = APIUtil.httpResponseAsString(url, ttl);
+                try {
+                    return new JSONObject(jsonFeed);
+                } catch (Exception e) {
+                    // No such ID?
+                    return null;
+                }
+            }
+        });
+    }
+    
     /**
      * Gets all currently available filter sets.
      * 
@@ -714,7 +1200,9 @@ public abstract class APIService implements APIServiceInterface {
      * 
      * @return True if the current entry set is filtered by the end user, false if not.
      */
-    public boolean isUserFiltered() { return isUserFiltered; }
+    public boolean isUserFiltered() { 
+        return isUserFiltered || (filterSets != null && filterSets.hasActiveFilter()); 
+    }
     
     /*private void isActiveFilter(SearchFilter f) {
         
@@ -812,21 +1300,7 @@ public abstract class APIService implements APIServiceInterface {
      * @return The query string of the given URI, clean of any default parameters, or empty string.
      */
     public String stripDefaultParameters(String uri) {
-        
-        Map<String, String> params = APIUtil.getParametersInQueryString(uri);
-        if (params.isEmpty()) {
-            return "";
-        }
-        // get keys for defaults and unmodifiables
-        Iterator<String> iPresetParamKeys = getPresetParameters().keySet().iterator();
-        while (iPresetParamKeys.hasNext()) {
-            params.remove(iPresetParamKeys.next());
-        }
-        try {
-            return APIUtil.getParameterString(params);
-        } catch (Exception e) {
-            return "";
-        }
+        return QueryParams.fromUri(uri).without(getPresetParameters().keySet()).toString();
     }
     
     
@@ -1232,7 +1706,7 @@ public abstract class APIService implements APIServiceInterface {
      * @return A localized resource bundle.
      */
     public ResourceBundle getBundle(Locale locale) {
-        return ResourceBundle.getBundle(Labels.getBundleName(), locale);
+        return Labels.getBundle(locale);
     }
     
     /**
@@ -1359,6 +1833,36 @@ public abstract class APIService implements APIServiceInterface {
     }*/
     
     /**
+     * Sets the time that cached responses from this service are considered 
+     * fresh.
+     * <p>
+     * Expired responses are revalidated (using a conditional request, where 
+     * the service supports it) before they are used again.
+     * 
+     * @param ttl The time, in milliseconds. Use 0 to bypass the cache.
+     * @return This instance, updated.
+     * @see APIUtil#getResponseCache() 
+     */
+    public APIService setCacheTimeToLive(long ttl) {
+        this.cacheTtl = ttl;
+        return this;
+    }
+    
+    /**
+     * Gets the time that cached responses from this service are considered 
+     * fresh.
+     * 
+     * @return The time, in milliseconds. 0 or less means the cache is bypassed.
+     */
+    public long getCacheTimeToLive() { return cacheTtl; }
+    
+    /**
+     * Gets the full URL used in the last query.
+     * <p>
+     * Reads (see {@link #doRead(java.lang.String)}) are not recorded, so that 
+     * a single instance can be used for reading by multiple threads at once.
+     * 
+     * @return The full URL used in the last query, or null if no query has yet been issued.
      * @see APIServiceInterface#getLastServiceURL() 
      */
     @Override
@@ -191,15 +191,9 @@ public class Dataset extends APIEntry {
      */
     protected final void init() {
         // Initialize the bundle (for localized labels)
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
-        // Create the mapper
-        try { 
-            mappings = new Mapper();
-            // Translate 2-letter country, e.g. "NO" => "Norway"
-            try { mappings.addAllPipeSeparated(labels.getString(Labels.DATA_COUNTRIES_0)); } catch (Exception e) { }
-            // Translate general strings used by the service, e.g. "NP Report Series" => "Norwegian Polar Institute Report series"
-            try { mappings.addAllPipeSeparated(labels.getString(Labels.DATA_DB_VALUES_0)); } catch (Exception e) { }
-        } catch (Exception e) { }
+        labels = Labels.getBundle(displayLocale);
+        // Get the (shared) mapper
+        mappings = Labels.getMapper(displayLocale);
         
         
         ////////////////////////////////////////////////////////////////////////
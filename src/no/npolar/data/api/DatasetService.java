@@ -16,6 +16,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 //import org.opencms.json.JSONArray;
 import org.opencms.json.JSONException;
+import org.opencms.json.JSONObject;
 
 /**
  * Service for accessing datasets in the Data Centre.
@@ -139,6 +140,24 @@ public class DatasetService extends APIService {
         return list;
     }
     
+    /**
+     * Iterates over all datasets matching the given parameters, reading them 
+     * from the service one page at a time.
+     * 
+     * @param params The parameters to use in the service request. Can be <code>null</code>.
+     * @param pageSize The number of datasets per page.
+     * @return An iterator over all datasets matching the given parameters.
+     * @see APIService#iterate(java.util.Map, int, no.npolar.data.api.PagedIterator.EntryFactory) 
+     */
+    public PagedIterator<Dataset> iterateDatasets(Map<String, String[]> params, int pageSize) {
+        return iterate(params, pageSize, new PagedIterator.EntryFactory<Dataset>() {
+            @Override
+            public Dataset create(JSONObject entry) {
+                return new Dataset(entry, displayLocale);
+            }
+        });
+    }
+    
     /**
      * Gets a list of datasets, using the current settings.
      * <p>
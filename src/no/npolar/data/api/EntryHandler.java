@@ -0,0 +1,41 @@
+package no.npolar.data.api;
+
+import org.opencms.json.JSONException;
+import org.opencms.json.JSONObject;
+
+/**
+ * Callback for receiving entries one at a time, as they are read from a
+ * query response.
+ * <p>
+ * Used with {@link APIService#doQuery(java.util.Map, no.npolar.data.api.EntryHandler)}
+ * to process large result sets without holding all entries in memory at once.
+ * <p>
+ * Handlers are invoked on the querying thread, <em>while the response is being
+ * read</em>, so the connection to the service is held open (and counts against
+ * the transport's per-host limit) until the last entry has been handled. Keep
+ * handlers quick. Requests that a handler makes to the service itself, on the
+ * same thread (e.g. resolving the parent of a {@link Publication}), are allowed
+ * by {@link no.npolar.data.api.util.DefaultHttpTransport} regardless of the
+ * per-host limit. A handler must however never wait for <em>another</em> thread
+ * that makes requests to the service, as that thread may be waiting for the
+ * very connection held by the handler's query. For per-entry requests, prefer
+ * {@link APIService#iterate(java.util.Map, int, no.npolar.data.api.PagedIterator.EntryFactory)},
+ * which reads each page to the end before handing out its entries.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+public interface EntryHandler {
+    /**
+     * Handles a single entry, as read from the query response.
+     * <p>
+     * Pagination details (e.g. {@link APIService#getTotalResults()}) are set
+     * on the service before the first entry is handed to this method. They
+     * reflect what has been read at that point, which normally is all of them,
+     * as the service sends those before the entries. Facets are not available
+     * until the query has completed.
+     *
+     * @param entry The entry.
+     * @throws JSONException If the entry could not be handled.
+     */
+    public void handle(JSONObject entry) throws JSONException;
+}
@@ -1,9 +1,15 @@
 package no.npolar.data.api;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
-//import java.util.Locale;
-//import java.util.ResourceBundle;
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import no.npolar.data.api.util.Mapper;
 
 /**
  * Provides access to human-readable, localized translations of service identifier
@@ -295,6 +301,8 @@ public class Labels {
     
     /** The key prefix for facets. */
     public static final String FACET_PREFIX_0 = "facet.";
+    /** The key for the "show more" text, used when a list of filters is capped. */
+    public static final String FACET_SHOW_MORE_0 = FACET_PREFIX_0 + "show-more";
     
     /**
      * Default constructor. Does nothing.
@@ -382,6 +390,121 @@ public class Labels {
      */
     public static String getBundleName() { return Labels.class.getCanonicalName(); }
     
+    /** The bundles, by locale. Shared by all entities and services. */
+    private static final ConcurrentMap<Locale, ResourceBundle> BUNDLES = new ConcurrentHashMap<Locale, ResourceBundle>();
+    /** The (read-only) value mappers, by locale. Shared by all entities and services. */
+    private static final ConcurrentMap<Locale, Mapper> MAPPERS = new ConcurrentHashMap<Locale, Mapper>();
+    /** The resolved labels, by bundle. Missing labels are kept too, as {@link #NO_LABEL}. */
+    private static final Map<ResourceBundle, ConcurrentMap<String, String>> LABELS = 
+            Collections.synchronizedMap(new WeakHashMap<ResourceBundle, ConcurrentMap<String, String>>());
+    /** Marks a missing label. */
+    private static final String NO_LABEL = new String();
+    /** The maximum number of labels kept per bundle. */
+    private static final int MAX_LABELS = 4096;
+    
+    /**
+     * Gets the bundle for the given locale.
+     * <p>
+     * The bundle is looked up once per locale, and then shared.
+     * 
+     * @param locale The locale.
+     * @return The bundle for the given locale.
+     * @see #getBundleName() 
+     */
+    public static ResourceBundle getBundle(Locale locale) {
+        ResourceBundle bundle = BUNDLES.get(locale);
+        if (bundle == null) {
+            bundle = ResourceBundle.getBundle(getBundleName(), locale);
+            ResourceBundle existing = BUNDLES.putIfAbsent(locale, bundle);
+            if (existing != null) {
+                bundle = existing;
+            }
+        }
+        return bundle;
+    }
+    
+    /**
+     * Gets the label identified by the given key, or <code>null</code> if 
+     * there is no such label.
+     * <p>
+     * Unlike {@link ResourceBundle#getString(java.lang.String)}, a missing 
+     * label is not an exception. Labels - including missing ones - are looked 
+     * up in the bundle once, and then remembered, which is why this method 
+     * should be preferred for labels looked up repeatedly, e.g. those of 
+     * facet terms.
+     * 
+     * @param bundle The bundle, e.g. one provided by {@link #getBundle(java.util.Locale)}.
+     * @param key The label key.
+     * @return The label identified by the given key, or <code>null</code> if none.
+     */
+    public static String getLabel(ResourceBundle bundle, String key) {
+        ConcurrentMap<String, String> labels;
+        synchronized (LABELS) {
+            labels = LABELS.get(bundle);
+            if (labels == null) {
+                labels = new ConcurrentHashMap<String, String>();
+                LABELS.put(bundle, labels);
+            }
+        }
+        String label = labels.get(key);
+        if (label == null) {
+            try {
+                label = bundle.getString(key);
+            } catch (MissingResourceException e) {
+                label = NO_LABEL;
+            }
+            if (labels.size() < MAX_LABELS) {
+                labels.putIfAbsent(key, label);
+            }
+        }
+        return label == NO_LABEL ? null : label;
+    }
+    
+    /**
+     * Gets the label identified by the given key, in the given locale, or 
+     * <code>null</code> if there is no such label.
+     * 
+     * @param locale The locale.
+     * @param key The label key.
+     * @return The label identified by the given key, or <code>null</code> if none.
+     * @see #getLabel(java.util.ResourceBundle, java.lang.String) 
+     */
+    public static String getLabel(Locale locale, String key) {
+        return getLabel(getBundle(locale), key);
+    }
+    
+    /**
+     * Gets the value mapper for the given locale, which translates strings 
+     * used by the service into localized strings - e.g. 2-letter country codes 
+     * ("NO" => "Norway") and general values ("NP Report Series" => "Norwegian 
+     * Polar Institute Report series").
+     * <p>
+     * The mapper is populated once per locale, from 
+     * {@link #DATA_COUNTRIES_0} and {@link #DATA_DB_VALUES_0}, and then shared. 
+     * It is therefore read-only.
+     * 
+     * @param locale The locale.
+     * @return The (read-only) value mapper for the given locale.
+     * @see Mapper#toUnmodifiable() 
+     */
+    public static Mapper getMapper(Locale locale) {
+        Mapper mapper = MAPPERS.get(locale);
+        if (mapper == null) {
+            ResourceBundle labels = getBundle(locale);
+            Mapper m = new Mapper();
+            // Translate 2-letter country, e.g. "NO" => "Norway"
+            try { m.addAllPipeSeparated(labels.getString(DATA_COUNTRIES_0)); } catch (Exception e) { }
+            // Translate general strings used by the service, e.g. "NP Report Series" => "Norwegian Polar Institute Report series"
+            try { m.addAllPipeSeparated(labels.getString(DATA_DB_VALUES_0)); } catch (Exception e) { }
+            mapper = m.toUnmodifiable();
+            Mapper existing = MAPPERS.putIfAbsent(locale, mapper);
+            if (existing != null) {
+                mapper = existing;
+            }
+        }
+        return mapper;
+    }
+    
     /** 
      * Swap the given value (retrieved from the service) with a "normalized" value.
      * Gets a "normalized" (ready-to-use by this class) string, based on the 
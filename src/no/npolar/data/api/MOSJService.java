@@ -49,6 +49,12 @@ public class MOSJService extends APIService {
         public static final String SYSTEM_MOSJ = "mosj.no";
     }
     
+    /** 
+     * The time (in milliseconds) that cached MOSJ responses are considered 
+     * fresh. MOSJ indicators are updated rarely, so this is fairly long.
+     */
+    public static final long CACHE_TTL = 60 * 60 * 1000;
+    
     /** Translations. */
     protected ResourceBundle labels = null;
     
@@ -66,11 +72,12 @@ public class MOSJService extends APIService {
      */
     public MOSJService(Locale loc, boolean secure) {
         this.serviceProtocol = secure ? "https" : "http";
+        this.cacheTtl = CACHE_TTL;
         
         displayLocale = loc;
         if (displayLocale == null)
             displayLocale = new Locale(DEFAULT_LOCALE_NAME);
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        labels = Labels.getBundle(displayLocale);
         
         initPresetParameters();
     }
@@ -167,7 +174,7 @@ public class MOSJService extends APIService {
     @Override
     public MOSJParameter get(String id) {
         try  {
-            return new MOSJParameter(this.doRead(id, this.getParameterBaseURL()), displayLocale);
+            return new MOSJParameter(this.doRead(id, this.getParameterBaseURL()), displayLocale, cacheTtl);
         } catch (Exception e) {
             if (LOG.isErrorEnabled()) {
                 LOG.error("Could not read MOSJ parameter with ID "+id, e);
@@ -191,6 +198,7 @@ public class MOSJService extends APIService {
                 this.getTimeSeriesBaseURL() 
                 + "?" + modFilter("keywords.@value") + "=" + keywords 
                 + "&" + Param.FORMAT + "=" + ParamVal.FORMAT_JSON
+                , cacheTtl
         );
         
         try {
@@ -0,0 +1,285 @@
+package no.npolar.data.api;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.opencms.json.JSONObject;
+
+/**
+ * Iterates over all entries matching a query, one page at a time, by
+ * following the "next page" links provided by the service.
+ * <p>
+ * Use this instead of <code>limit=all</code> (see
+ * {@link APIService.ParamVal#RESULTS_LIMIT_NO_LIMIT}) when reading large
+ * result sets, e.g. for exports: Only one page (plus the one being fetched) is
+ * held in memory at any time, and the first entries are available as soon as
+ * the first page has been read.
+ * <p>
+ * The next page is fetched in the background, on the
+ * {@link APIService#getAsyncExecutor() asynchronous executor}, while the
+ * current page is being consumed. Typed entries are created either one at a
+ * time, as they are requested via {@link #next()} (using an
+ * {@link EntryFactory}), or a page at a time, in the background along with the
+ * page itself (using a {@link PageFactory}). The latter allows e.g. fetching
+ * related entries for an entire page using a single request.
+ * <p>
+ * If a page cannot be read, {@link #hasNext()} throws an
+ * {@link IllegalStateException}, wrapping the cause.
+ * <p>
+ * Instances are not thread-safe. Invoke {@link #cancel()} when abandoning the
+ * iteration early.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @param <T> The entry type, e.g. {@link Publication}.
+ * @see APIService#iterate(java.util.Map, int, no.npolar.data.api.PagedIterator.EntryFactory)
+ * @see APIService#iteratePages(java.util.Map, int, no.npolar.data.api.PagedIterator.PageFactory)
+ */
+public class PagedIterator<T extends APIEntry> implements Iterator<T> {
+
+    /**
+     * Creates typed entries from the "raw" entries in the service response.
+     *
+     * @param <T> The entry type, e.g. {@link Publication}.
+     */
+    public interface EntryFactory<T extends APIEntry> {
+        /**
+         * Creates a typed entry from the given "raw" entry.
+         *
+         * @param entry The "raw" entry, as read from the service response.
+         * @return The typed entry.
+         */
+        public T create(JSONObject entry);
+    }
+
+    /**
+     * Creates typed entries from all the "raw" entries on a page at once.
+     * <p>
+     * Invoked on the executor thread that fetched the page.
+     *
+     * @param <T> The entry type, e.g. {@link Publication}.
+     */
+    public interface PageFactory<T extends APIEntry> {
+        /**
+         * Creates typed entries from the given "raw" entries.
+         *
+         * @param entries The "raw" entries on a page, as read from the service response.
+         * @return The typed entries, in the same order.
+         */
+        public List<T> create(List<JSONObject> entries);
+    }
+
+    /**
+     * A fetched page.
+     *
+     * @param <T> The entry type.
+     */
+    private static class Page<T> {
+        /** The query result. */
+        final QueryResult result;
+        /** The typed entries. */
+        final List<T> entries;
+
+        Page(QueryResult result, List<T> entries) {
+            this.result = result;
+            this.entries = entries;
+        }
+    }
+
+    /** The factory that creates typed entries. */
+    private final PageFactory<T> factory;
+    /** The keys of the preset parameters, see {@link APIService#getPresetParameters()}. */
+    private final Set<String> presetKeys;
+    /** The time (in milliseconds) that cached responses are considered fresh. */
+    private final long ttl;
+    /** The executor that fetches pages. */
+    private final ExecutorService executor;
+
+    /** The entries on the current page. */
+    private List<T> page = Collections.emptyList();
+    /** The position of the next entry on the current page. */
+    private int pos = 0;
+    /** The URL of the page currently being fetched, if any. */
+    private String pendingUrl = null;
+    /** The page currently being fetched, or <code>null</code> if there are no more pages. */
+    private Future<Page<T>> pending = null;
+    /** The total number of entries matching the query, as reported by the service. */
+    private int totalResults = -1;
+
+    /**
+     * Creates a new iterator, and starts fetching the first page.
+     *
+     * @param firstPageUrl The full URL to the first page.
+     * @param factory The factory that creates typed entries, one at a time.
+     * @param presetKeys The keys of the preset parameters, see {@link APIService#getPresetParameters()}.
+     * @param ttl The time (in milliseconds) that cached responses are considered fresh.
+     * @param executor The executor that should fetch pages.
+     */
+    PagedIterator(String firstPageUrl, EntryFactory<T> factory, Set<String> presetKeys, long ttl, ExecutorService executor) {
+        this(firstPageUrl, lazily(factory), presetKeys, ttl, executor);
+    }
+
+    /**
+     * Creates a new iterator, and starts fetching the first page.
+     *
+     * @param firstPageUrl The full URL to the first page.
+     * @param factory The factory that creates typed entries, one page at a time.
+     * @param presetKeys The keys of the preset parameters, see {@link APIService#getPresetParameters()}.
+     * @param ttl The time (in milliseconds) that cached responses are considered fresh.
+     * @param executor The executor that should fetch pages.
+     */
+    PagedIterator(String firstPageUrl, PageFactory<T> factory, Set<String> presetKeys, long ttl, ExecutorService executor) {
+        this.factory = factory;
+        this.presetKeys = presetKeys;
+        this.ttl = ttl;
+        this.executor = executor;
+        fetch(firstPageUrl);
+    }
+
+    /**
+     * Gets a flag indicating whether or not there are more entries.
+     * <p>
+     * May block, waiting for the next page to be read.
+     *
+     * @return True if there are more entries, false if not.
+     * @throws IllegalStateException If a page could not be read.
+     */
+    @Override
+    public boolean hasNext() {
+        while (pos >= page.size()) {
+            if (pending == null) {
+                return false;
+            }
+            advance();
+        }
+        return true;
+    }
+
+    /**
+     * Gets the next entry.
+     *
+     * @return The next entry.
+     * @throws NoSuchElementException If there are no more entries.
+     * @throws IllegalStateException If a page could not be read.
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(pos++);
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gets the total number of entries matching the query, as reported by the
+     * service.
+     *
+     * @return The total number of entries matching the query, or -1 if no page has been read yet.
+     */
+    public int getTotalResults() {
+        return totalResults;
+    }
+
+    /**
+     * Stops the iteration, cancelling the fetching of the next page (if any).
+     * <p>
+     * Remaining entries on the current page are still available.
+     */
+    public void cancel() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    /**
+     * Waits for the pending page, makes it the current page, and starts
+     * fetching the next one (if any).
+     *
+     * @throws IllegalStateException If the pending page could not be read.
+     */
+    private void advance() {
+        Page<T> fetched;
+        try {
+            fetched = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending = null;
+            throw new IllegalStateException("Interrupted while reading " + pendingUrl + ".", e);
+        } catch (ExecutionException e) {
+            pending = null;
+            throw new IllegalStateException("Error reading " + pendingUrl + ".", e.getCause());
+        }
+        page = fetched.entries;
+        pos = 0;
+        totalResults = fetched.result.getTotalResults();
+
+        String nextUrl = fetched.result.getNextPageFullUrl();
+        if (nextUrl == null || page.isEmpty() || nextUrl.equals(pendingUrl)) {
+            // Last page (or a broken "next" link that would loop forever)
+            pending = null;
+            pendingUrl = null;
+        } else {
+            fetch(nextUrl);
+        }
+    }
+
+    /**
+     * Starts fetching the page at the given URL.
+     *
+     * @param url The full URL to the page.
+     */
+    private void fetch(final String url) {
+        pendingUrl = url;
+        pending = executor.submit(new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() throws Exception {
+                QueryResult result = APIService.request(url, null, presetKeys, ttl).build();
+                return new Page<T>(result, factory.create(result.getEntries()));
+            }
+        });
+    }
+
+    /**
+     * Adapts the given entry factory to a page factory, whose pages create 
+     * each typed entry only when it is requested.
+     *
+     * @param <T> The entry type.
+     * @param factory The entry factory.
+     * @return A page factory, backed by the given entry factory.
+     */
+    private static <T extends APIEntry> PageFactory<T> lazily(final EntryFactory<T> factory) {
+        return new PageFactory<T>() {
+            @Override
+            public List<T> create(final List<JSONObject> entries) {
+                return new AbstractList<T>() {
+                    @Override
+                    public T get(int index) {
+                        return factory.create(entries.get(index));
+                    }
+
+                    @Override
+                    public int size() {
+                        return entries.size();
+                    }
+                };
+            }
+        };
+    }
+}
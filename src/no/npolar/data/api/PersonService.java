@@ -10,6 +10,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opencms.json.JSONException;
+import org.opencms.json.JSONObject;
 
 import static no.npolar.data.api.Person.Key.*;
 import static no.npolar.data.api.Person.Val.*;
@@ -26,6 +27,11 @@ public class PersonService extends APIService {
     protected static final String SERVICE_PATH = "person/";
     /** The base URL (that is, the complete URL before adding parameters) to use when accessing the service. */
     protected static final String SERVICE_BASE_URL = SERVICE_PROTOCOL + "://" + SERVICE_DOMAIN_NAME + ":" + SERVICE_PORT + "/" + SERVICE_PATH;
+    /** 
+     * The time (in milliseconds) that cached person responses are considered 
+     * fresh. Person lists change more often than most, so this is fairly short.
+     */
+    public static final long CACHE_TTL = 60 * 1000;
     
     /**
      * Creates a new person service instance.
@@ -35,6 +41,7 @@ public class PersonService extends APIService {
      */
     public PersonService(Locale loc) {
         super(loc);
+        this.cacheTtl = CACHE_TTL;
         initPresetParameters();
     }
     
@@ -99,6 +106,24 @@ public class PersonService extends APIService {
         return list;
     }
     
+    /**
+     * Iterates over all persons matching the given parameters, reading them 
+     * from the service one page at a time.
+     * 
+     * @param params The parameters to use in the service request. Can be <code>null</code>.
+     * @param pageSize The number of persons per page.
+     * @return An iterator over all persons matching the given parameters.
+     * @see APIService#iterate(java.util.Map, int, no.npolar.data.api.PagedIterator.EntryFactory) 
+     */
+    public PagedIterator<Person> iteratePersons(Map<String, String[]> params, int pageSize) {
+        return iterate(params, pageSize, new PagedIterator.EntryFactory<Person>() {
+            @Override
+            public Person create(JSONObject entry) {
+                return new Person(entry, displayLocale);
+            }
+        });
+    }
+    
     /**
      * Gets a list of persons, using the current settings.
      * <p>
@@ -174,4 +199,16 @@ public class PersonService extends APIService {
     public Comparator<Person> getComparatorSortChar() {
         return Person.getComparatorSortChar(displayLocale);
     }
+    
+    /**
+     * Sorts the given people on the standard sort character (last name mode), 
+     * and then on name, adapted to this service's locale.
+     * 
+     * @param people The people to sort. This list is sorted in place.
+     * @return The given list, sorted.
+     * @see Person#sortBySortChar(java.util.List, java.util.Locale) 
+     */
+    public List<Person> sortBySortChar(List<Person> people) {
+        return Person.sortBySortChar(people, displayLocale);
+    }
 }
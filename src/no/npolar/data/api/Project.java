@@ -222,7 +222,7 @@ public class Project extends APIEntry /*implements APIEntryInterface*/ {
         if (displayLocale == null)
             this.displayLocale = new Locale(APIService.DEFAULT_LOCALE_NAME);
         //*/
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        labels = Labels.getBundle(displayLocale);
         
         this.dfOutput = new SimpleDateFormat(labels.getString(Labels.PUB_REF_DATE_FORMAT_0), displayLocale);
         init();
@@ -236,13 +236,9 @@ public class Project extends APIEntry /*implements APIEntryInterface*/ {
         //try { mappings = new Mapper(); } catch (Exception e) { }
         
         // Initialize the bundle (for localized labels)
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
-        // Create the mapper
-        try { 
-            mappings = new Mapper();
-            try { mappings.addAllPipeSeparated(labels.getString(Labels.DATA_COUNTRIES_0)); } catch (Exception e) { }
-            try { mappings.addAllPipeSeparated(labels.getString(Labels.DATA_DB_VALUES_0)); } catch (Exception e) { }
-        } catch (Exception e) { }
+        labels = Labels.getBundle(displayLocale);
+        // Get the (shared) mapper
+        mappings = Labels.getMapper(displayLocale);
         
         ////////////////////////////////////////////////////////////////////////
         // Simple stuff
@@ -11,6 +11,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.opencms.json.JSONArray;
 import org.opencms.json.JSONException;
+import org.opencms.json.JSONObject;
 
 /**
  * Provides an interface to read projects from the Norwegian Polar Institute 
@@ -151,6 +152,24 @@ public class ProjectService extends APIService {
         return list;
     }
     
+    /**
+     * Iterates over all projects matching the given parameters, reading them 
+     * from the service one page at a time.
+     * 
+     * @param params The parameters to use in the service request. Can be <code>null</code>.
+     * @param pageSize The number of projects per page.
+     * @return An iterator over all projects matching the given parameters.
+     * @see APIService#iterate(java.util.Map, int, no.npolar.data.api.PagedIterator.EntryFactory) 
+     */
+    public PagedIterator<Project> iterateProjects(Map<String, String[]> params, int pageSize) {
+        return iterate(params, pageSize, new PagedIterator.EntryFactory<Project>() {
+            @Override
+            public Project create(JSONObject entry) {
+                return new Project(entry, displayLocale);
+            }
+        });
+    }
+    
     /**
      * Gets a list of projects, using the current settings.
      * <p>
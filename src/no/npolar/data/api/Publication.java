@@ -674,6 +674,9 @@ public class Publication extends APIEntry /*implements APIEntryInterface*/ {
     protected String parentUrl = "";
     protected String parentId = "";
     protected Publication parent = null;
+    protected boolean parentResolved = false;
+    /** The plain-text cite string, used for sorting. Created on demand. */
+    private volatile String citeStringSortKey = null;
     protected String journalName = "";
     protected String journalSeries = "";
     protected String journalSeriesNo = "";
@@ -722,16 +725,16 @@ public class Publication extends APIEntry /*implements APIEntryInterface*/ {
                     return o1.getPubYear().compareTo(o2.getPubYear());
                 }
             };
-    /** Comparator that can be used to order publications in a collection alphabetically (using the cite string). */
+    /** 
+     * Comparator that can be used to order publications in a collection alphabetically (using the cite string). 
+     * 
+     * @see #getCiteStringSortKey() 
+     */
     public static final Comparator<Publication> COMPARATOR_CITESTRING =
             new Comparator<Publication>() {
                 @Override
                 public int compare(Publication o1, Publication o2) {
-                    try {
-                        return CmsHtmlExtractor.extractText(o1.toString(), "utf-8").compareTo(CmsHtmlExtractor.extractText(o2.toString(), "utf-8"));
-                    } catch (Exception e) {
-                        return o1.toString().compareTo(o2.toString());
-                    }
+                    return o1.getCiteStringSortKey().compareTo(o2.getCiteStringSortKey());
                 }
             };
     
@@ -760,16 +763,9 @@ public class Publication extends APIEntry /*implements APIEntryInterface*/ {
      */
     protected final void init() {
         // Initialize the bundle (for localized labels)
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
-        // Create the mapper
-        try { 
-            mappings = new Mapper();
-            // Translate 2-letter country, e.g. "NO" => "Norway"
-            try { mappings.addAllPipeSeparated(labels.getString(Labels.DATA_COUNTRIES_0)); } catch (Exception e) { }
-            // Translate general strings used by the service, e.g. "NP Report Series" => "Norwegian Polar Institute Report series"
-            try { mappings.addAllPipeSeparated(labels.getString(Labels.DATA_DB_VALUES_0)); } catch (Exception e) { } 
-            //try { mappings.addMapping("Temakart nr.", "Thematic map no."); } catch (Exception e) { }
-        } catch (Exception e) { }
+        labels = Labels.getBundle(displayLocale);
+        // Get the (shared) mapper
+        mappings = Labels.getMapper(displayLocale);
         
         
         ////////////////////////////////////////////////////////////////////////
@@ -1000,10 +996,10 @@ public class Publication extends APIEntry /*implements APIEntryInterface*/ {
                             }
 
                             //System.out.println(this.getTitle() + " - found parent link: " + parentUrl + " - ID: " + parentId);
-
-                            parent = new PublicationService(displayLocale).get(parentId);
                             
-                            //System.out.println(this.getTitle() + " - added parent: " + parent.getTitle() + " - " + parent.getId());
+                            // Don't fetch the parent here: it is either attached 
+                            // (in bulk) by PublicationService, or read on demand 
+                            // by getParent()
                             break;
                         }                   
                     } catch (Exception parente) { 
@@ -1445,7 +1441,7 @@ public class Publication extends APIEntry /*implements APIEntryInterface*/ {
      * 
      * @return True if this publication has a parent publication, false if not.
      */
-    public boolean hasParent() { return parent != null; }
+    public boolean hasParent() { return getParent() != null; }
 
     /**
      * Gets the start page number for this publication.
@@ -1514,10 +1510,78 @@ public class Publication extends APIEntry /*implements APIEntryInterface*/ {
     
     /**
      * Gets the parent publication, if any.
+     * <p>
+     * Unless the parent has already been attached (typically by 
+     * {@link PublicationService}, which fetches all parents in a result set 
+     * using a single request), the parent is read from the service the first 
+     * time this method is invoked.
      * 
      * @return The parent publication, or <code>null</code> if none.
+     * @see #setParent(no.npolar.data.api.Publication)
+     */
+    public Publication getParent() {
+        if (!parentResolved) {
+            parentResolved = true;
+            if (!parentId.isEmpty()) {
+                try {
+                    parent = new PublicationService(displayLocale).get(parentId);
+                } catch (Exception e) {
+                    if (LOG.isWarnEnabled()) {
+                        LOG.warn("Error reading parent publication '" + parentId + "' for publication '" + getId() + "'.", e);
+                    }
+                }
+            }
+        }
+        return parent;
+    }
+    
+    /**
+     * Attaches the given publication as this publication's parent.
+     * <p>
+     * Used to attach parents that have been fetched in bulk, so that 
+     * {@link #getParent()} won't have to read them one by one.
+     * 
+     * @param parent The parent publication. Can be <code>null</code>, meaning "no parent".
+     */
+    protected void setParent(Publication parent) {
+        this.parent = parent;
+        this.parentResolved = true;
+        this.citeStringSortKey = null; // The cite string may include the parent
+    }
+    
+    /**
+     * Gets the plain-text version of this publication's cite string, for use 
+     * when sorting publications alphabetically.
+     * <p>
+     * The cite string is rendered, and stripped of HTML, only once per 
+     * instance; subsequent invocations return the same key.
+     * 
+     * @return The plain-text version of this publication's cite string.
+     * @see #COMPARATOR_CITESTRING
      */
-    public Publication getParent() { return parent; }
+    public String getCiteStringSortKey() {
+        String key = citeStringSortKey;
+        if (key == null) {
+            String citeString = toString();
+            try {
+                key = CmsHtmlExtractor.extractText(citeString, "utf-8");
+            } catch (Exception e) {
+                key = citeString;
+            }
+            citeStringSortKey = key;
+        }
+        return key;
+    }
+    
+    /**
+     * Gets a flag indicating whether or not this publication's parent (if 
+     * any) still needs to be read from the service.
+     * 
+     * @return True if this publication has an unresolved parent reference, false if not.
+     */
+    protected boolean isParentPending() {
+        return !parentResolved && !parentId.isEmpty();
+    }
     
     /**
      * Gets the URL for this publication's parent.
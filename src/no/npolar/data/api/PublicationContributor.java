@@ -37,7 +37,7 @@ public class PublicationContributor extends Contributor {
             displayLocale = new Locale(APIService.DEFAULT_LOCALE_NAME);
         }
         
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        labels = Labels.getBundle(displayLocale);
         
         try {
             try { id = contributor.getString(Publication.Key.ID).trim(); } catch (Exception e) { }
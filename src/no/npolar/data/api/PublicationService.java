@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 //import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 //import no.npolar.util.CmsAgent;
@@ -11,6 +12,9 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import org.opencms.json.JSONArray;
 import org.opencms.json.JSONException;
+import org.opencms.json.JSONObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * Provides an interface to read publications from the Norwegian Polar Institute 
@@ -33,6 +37,10 @@ public class PublicationService extends APIService {
     protected static final String SERVICE_BASE_URL = SERVICE_PROTOCOL + "://" + SERVICE_DOMAIN_NAME + ":" + SERVICE_PORT + "/" + SERVICE_PATH;
     /** Translations. */
     protected ResourceBundle labels = null;
+    /** The maximum number of parent publications to fetch per request. */
+    protected static final int PARENT_BATCH_SIZE = 50;
+    /** The logger. */
+    private static final Log LOG = LogFactory.getLog(PublicationService.class);
     /** Holds the "current" (modifiable) query parameters. */
     //protected Map<String, String[]> queryParams = null;
     
@@ -46,7 +54,7 @@ public class PublicationService extends APIService {
         /*displayLocale = loc;
         if (displayLocale == null)
             displayLocale = new Locale(DEFAULT_LOCALE_NAME);*/
-        labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        labels = Labels.getBundle(displayLocale);
         
         initPresetParameters();
     }
@@ -182,23 +190,12 @@ public class PublicationService extends APIService {
         
         doQuery();
         
-        if (entries != null) {
-            for (int i = 0; i < entries.length(); i++) {
-                Publication p = new Publication(entries.getJSONObject(i), displayLocale);
-                // Set specific sub-type if possible
-                if (p.isType(Publication.Type.BOOK) && !(p.hasParent() || p.isPartContribution())) {
-                    p = new Book(entries.getJSONObject(i), displayLocale);
-                    //System.out.println("Book: " + p.getTitle() + " " + p.getId());
-                } else if (p.isPartContribution()) {
-                    p = new Chapter(entries.getJSONObject(i), displayLocale);
-                    //System.out.println("Chapter: " + p.getTitle() + " " + p.getId());
-                }
-                /*try {*/
-                    gc.add(p);
-                /*} catch (Exception e) {
-                    throw new InstantiationException("Error when trying to create publications list: " + e.getMessage());
-                }*/
-            }
+        for (Publication p : createPublications()) {
+            /*try {*/
+                gc.add(p);
+            /*} catch (Exception e) {
+                throw new InstantiationException("Error when trying to create publications list: " + e.getMessage());
+            }*/
         }
         return gc;
         
@@ -263,24 +260,175 @@ public class PublicationService extends APIService {
         
         doQuery();
         
+        list.addAll(createPublications());
+        return list;
+    }
+    
+    /**
+     * Iterates over all publications matching the given parameters, reading 
+     * them from the service one page at a time.
+     * <p>
+     * Like {@link #getPublicationList(java.util.Map)}, the parent publications 
+     * on each page are fetched using a single request, before the 
+     * publications are converted to their specific sub-types. This happens in 
+     * the background, along with the fetching of the page.
+     * 
+     * @param params The parameters to use in the service request. Can be <code>null</code>.
+     * @param pageSize The number of publications per page.
+     * @return An iterator over all publications matching the given parameters.
+     * @see APIService#iteratePages(java.util.Map, int, no.npolar.data.api.PagedIterator.PageFactory) 
+     * @see #createPublications(java.util.List) 
+     */
+    public PagedIterator<Publication> iteratePublications(Map<String, String[]> params, int pageSize) {
+        return iteratePages(params, pageSize, new PagedIterator.PageFactory<Publication>() {
+            @Override
+            public List<Publication> create(List<JSONObject> entries) {
+                return createPublications(entries);
+            }
+        });
+    }
+    
+    /**
+     * Creates publications from the entries in the last service response.
+     * <p>
+     * The parents of all publications are fetched using a single request, 
+     * before each publication is converted to its specific sub-type.
+     * 
+     * @return The publications, or an empty list if there were no entries.
+     * @throws JSONException If an entry could not be read.
+     * @see #attachParents(java.util.List)
+     */
+    protected List<Publication> createPublications() throws JSONException {
+        List<JSONObject> pubEntries = new ArrayList<JSONObject>();
         if (entries != null) {
             for (int i = 0; i < entries.length(); i++) {
-                /*try {*/
-                Publication p = new Publication(entries.getJSONObject(i), displayLocale);
-                // Set specific sub-type if possible
-                if (p.isType(Publication.Type.BOOK) && !(p.hasParent() || p.isPartContribution())) {
-                    p = new Book(entries.getJSONObject(i), displayLocale);
-                } else if (p.isPartContribution()) {
-                    p = new Chapter(entries.getJSONObject(i), displayLocale);
+                pubEntries.add(entries.getJSONObject(i));
+            }
+        }
+        return createPublications(pubEntries);
+    }
+    
+    /**
+     * Creates publications from the given entries.
+     * <p>
+     * The parents of all publications are fetched using a single request, 
+     * before each publication is converted to its specific sub-type.
+     * 
+     * @param pubEntries The publication entries.
+     * @return The publications, or an empty list if there were no entries.
+     * @see #attachParents(java.util.List)
+     */
+    protected List<Publication> createPublications(List<JSONObject> pubEntries) {
+        List<Publication> pubs = new ArrayList<Publication>(pubEntries.size());
+        for (JSONObject entry : pubEntries) {
+            pubs.add(new Publication(entry, displayLocale));
+        }
+        attachParents(pubs);
+        for (int i = 0; i < pubs.size(); i++) {
+            pubs.set(i, toSubType(pubs.get(i)));
+        }
+        return pubs;
+    }
+    
+    /**
+     * Creates publications from the entries in the given query result.
+     * <p>
+     * Does not modify this instance, so it is safe to use with a shared 
+     * service instance.
+     * 
+     * @param result The query result, typically from {@link #query(java.util.Map)}.
+     * @return The publications, or an empty list if there were no entries.
+     * @see APIService#query(java.util.Map) 
+     * @see APIService#doQueryAsync(java.util.Map) 
+     */
+    public List<Publication> toPublicationList(QueryResult result) {
+        return createPublications(result.getEntries());
+    }
+    
+    /**
+     * Converts the given publication to its specific sub-type, if possible.
+     * <p>
+     * Any parent already resolved for the given publication is carried over 
+     * to the converted publication.
+     * 
+     * @param p The publication to convert.
+     * @return The converted publication, or the given publication if no specific sub-type applies.
+     */
+    protected Publication toSubType(Publication p) {
+        Publication sub = null;
+        if (p.isType(Publication.Type.BOOK) && !(p.hasParent() || p.isPartContribution())) {
+            sub = new Book(p.getJSON(), displayLocale);
+        } else if (p.isPartContribution()) {
+            sub = new Chapter(p.getJSON(), displayLocale);
+        }
+        if (sub == null) {
+            return p;
+        }
+        if (!p.isParentPending()) {
+            sub.setParent(p.getParent());
+        }
+        return sub;
+    }
+    
+    /**
+     * Fetches the parents of the given publications, and attaches them.
+     * <p>
+     * All distinct parent IDs are collected, and the parents are fetched 
+     * using a single "filter-id" query (or a few, for very long lists), 
+     * instead of one request per publication. 
+     * <p>
+     * Any parent that could not be fetched this way is left unresolved, and 
+     * will be read on demand by {@link Publication#getParent()}.
+     * 
+     * @param pubs The publications to attach parents to.
+     */
+    protected void attachParents(List<Publication> pubs) {
+        Map<String, List<Publication>> children = new LinkedHashMap<String, List<Publication>>();
+        for (Publication p : pubs) {
+            if (p.isParentPending()) {
+                List<Publication> siblings = children.get(p.getParentId());
+                if (siblings == null) {
+                    siblings = new ArrayList<Publication>();
+                    children.put(p.getParentId(), siblings);
                 }
+                siblings.add(p);
+            }
+        }
+        if (children.isEmpty()) {
+            return;
+        }
+        
+        List<String> parentIds = new ArrayList<String>(children.keySet());
+        for (int i = 0; i < parentIds.size(); i += PARENT_BATCH_SIZE) {
+            List<String> batch = parentIds.subList(i, Math.min(i + PARENT_BATCH_SIZE, parentIds.size()));
+            try {
+                PublicationService parentService = new PublicationService(displayLocale);
+                parentService.setAllowDrafts(true);
+                parentService.addDefaultParameter(Param.FACETS, ParamVal.FACETS_NONE);
+                parentService.addDefaultParameter(Param.RESULTS_LIMIT, String.valueOf(batch.size()));
+                parentService.addParameter(Param.QUERY, "");
+                parentService.addFilter(Publication.Key.ID, combine(Delimiter.OR, batch.toArray(new String[batch.size()])));
+                parentService.doQuery();
                 
-                list.add(p);
-                /*} catch (Exception e) {
-                    throw new InstantiationException("Error when trying to create publications list: " + e.getMessage());
-                }*/
+                JSONArray parentEntries = parentService.getEntries();
+                if (parentEntries == null) {
+                    continue;
+                }
+                for (int j = 0; j < parentEntries.length(); j++) {
+                    Publication parent = new Publication(parentEntries.getJSONObject(j), displayLocale);
+                    List<Publication> siblings = children.get(parent.getId());
+                    if (siblings != null) {
+                        for (Publication child : siblings) {
+                            child.setParent(parent);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Error reading parent publications " + batch + ", will read them one by one instead.", e);
+                }
             }
         }
-        return list;
     }
     
     /**
@@ -335,12 +483,7 @@ public class PublicationService extends APIService {
             
             Publication p = new Publication(doRead(id), displayLocale);
             // Set specific sub-type if possible
-            if (p.isType(Publication.Type.BOOK) && !(p.hasParent() || p.isPartContribution())) {
-                p = new Book(p.getJSON(), displayLocale);
-            } else if (p.isPartContribution()) {
-                p = new Chapter(p.getJSON(), displayLocale);
-            }
-            return p;
+            return toSubType(p);
         } catch (Exception e) {
             // LOG "Cannot create Publication instance: Querying service with ID " + id + " returned " + publicationObjects.length() + " entries."
             //throw new NullPointerException("Cannot create Publication instance: Querying service with ID " + id + " returned " + publicationObjects.length() + " entries. " +this.getLastServiceURL());
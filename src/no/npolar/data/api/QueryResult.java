@@ -0,0 +1,275 @@
+package no.npolar.data.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.opencms.json.JSONArray;
+import org.opencms.json.JSONObject;
+
+/**
+ * The outcome of a single query request: the entries, the pagination details
+ * and the facets (filter sets).
+ * <p>
+ * Unlike the query state held by an {@link APIService} instance, a query
+ * result is never modified after it has been created, so it can safely be
+ * handed between threads - e.g. when returned by
+ * {@link APIService#doQueryAsync(java.util.Map)}. It also means that a single
+ * service instance can be shared, when queried via
+ * {@link APIService#query(java.util.Map)}.
+ * <p>
+ * Note that the entries themselves are plain JSON objects, and the filter
+ * sets are regular {@link SearchFilterSets} - neither should be modified.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @see APIService#query(java.util.Map)
+ * @see APIService#doQueryAsync(java.util.Map)
+ */
+public class QueryResult {
+    /** The URL that was requested. */
+    private final String serviceUrl;
+    /** The entries. */
+    private final List<JSONObject> entries;
+    /** The total number of entries matching the query. */
+    private final int totalResults;
+    /** The number of items per page. */
+    private final int itemsPerPage;
+    /** The start index. */
+    private final int startIndex;
+    /** The URI to the current page. */
+    private final String self;
+    /** The index of the first item on the page. */
+    private final int indexNoFirstPageItem;
+    /** The index of the last item on the page. */
+    private final int indexNoLastPageItem;
+    /** The URI to the next page. */
+    private final String pageUriNext;
+    /** The URI to the previous page. */
+    private final String pageUriPrev;
+    /** The search phrase. */
+    private final String query;
+    /** The query time. */
+    private final int querySearchTime;
+    /** The filter sets, created from the facets. */
+    private final SearchFilterSets filterSets;
+    /** When the response was stored, if it was served from a snapshot. */
+    private final long snapshotTime;
+
+    /**
+     * Creates a new query result from the given builder.
+     *
+     * @param b The builder.
+     */
+    private QueryResult(Builder b) {
+        this.serviceUrl = b.serviceUrl;
+        this.entries = b.entryList == null
+                ? Collections.<JSONObject>emptyList()
+                : Collections.unmodifiableList(new ArrayList<JSONObject>(b.entryList));
+        this.totalResults = b.totalResults;
+        this.itemsPerPage = b.itemsPerPage;
+        this.startIndex = b.startIndex;
+        this.self = b.self;
+        this.indexNoFirstPageItem = b.indexNoFirstPageItem;
+        this.indexNoLastPageItem = b.indexNoLastPageItem;
+        this.pageUriNext = b.pageUriNext;
+        this.pageUriPrev = b.pageUriPrev;
+        this.query = b.query;
+        this.querySearchTime = b.querySearchTime;
+        this.filterSets = b.filterSets == null ? new SearchFilterSets() : b.filterSets;
+        this.snapshotTime = b.snapshotTime;
+    }
+
+    /**
+     * Gets the URL that was requested.
+     *
+     * @return The URL that was requested.
+     */
+    public String getServiceUrl() { return serviceUrl; }
+
+    /**
+     * Gets the entries.
+     *
+     * @return The entries, as a read-only list. Empty if there were no entries.
+     */
+    public List<JSONObject> getEntries() { return entries; }
+
+    /**
+     * Gets the total number of entries matching the query.
+     *
+     * @return The total number of entries matching the query, or -1 if unknown.
+     */
+    public int getTotalResults() { return totalResults; }
+
+    /**
+     * Gets the number of items per page.
+     *
+     * @return The number of items per page, or -1 if unknown.
+     */
+    public int getItemsPerPage() { return itemsPerPage; }
+
+    /**
+     * Gets the start index, that is, the index of the first item on the page.
+     *
+     * @return The start index, or -1 if unknown.
+     */
+    public int getStartIndex() { return startIndex; }
+
+    /**
+     * Gets the URI to the page.
+     *
+     * @return The URI to the page, or <code>null</code> if unknown.
+     */
+    public String getSelf() { return self; }
+
+    /**
+     * Gets the index of the first item on the page.
+     *
+     * @return The index of the first item on the page, or -1 if unknown.
+     */
+    public int getIndexNoFirst() { return indexNoFirstPageItem; }
+
+    /**
+     * Gets the index of the last item on the page.
+     *
+     * @return The index of the last item on the page, or -1 if unknown.
+     */
+    public int getIndexNoLast() { return indexNoLastPageItem; }
+
+    /**
+     * Gets the full (service) URL to the next page.
+     *
+     * @return The full (service) URL to the next page, or <code>null</code> if none.
+     */
+    public String getNextPageFullUrl() { return toPageUrl(pageUriNext); }
+
+    /**
+     * Gets the full (service) URL to the previous page.
+     *
+     * @return The full (service) URL to the previous page, or <code>null</code> if none.
+     */
+    public String getPrevPageFullUrl() { return toPageUrl(pageUriPrev); }
+
+    /**
+     * Gets the search phrase used in the query.
+     *
+     * @return The search phrase used in the query, or <code>null</code> if none.
+     */
+    public String getSearchPhrase() { return query; }
+
+    /**
+     * Gets the query time.
+     *
+     * @return The query time, or -1 if unknown.
+     */
+    public int getSearchTime() { return querySearchTime; }
+
+    /**
+     * Gets the filter sets, created from the facets in the response.
+     * <p>
+     * The facets are not parsed until the filter sets are actually used.
+     *
+     * @return The filter sets. Empty if there were no facets.
+     */
+    public SearchFilterSets getFilterSets() { return filterSets; }
+
+    /**
+     * Gets a flag indicating whether or not the result is filtered by the end
+     * user.
+     * <p>
+     * This is evaluated from the filter sets, and so requires them to be 
+     * created (if not already).
+     *
+     * @return True if the result is filtered by the end user, false if not.
+     * @see SearchFilterSets#hasActiveFilter()
+     */
+    public boolean isUserFiltered() { return filterSets.hasActiveFilter(); }
+
+    /**
+     * Gets the time when the response was stored, if it was served from a
+     * snapshot because the service was slow or unavailable.
+     * <p>
+     * Use this to tell the end user how fresh the content is.
+     *
+     * @return The time (in milliseconds since the epoch) when the response was stored, or -1 if it was not served from a snapshot.
+     * @see no.npolar.data.api.util.SnapshotTransport
+     */
+    public long getSnapshotTime() { return snapshotTime; }
+
+    /**
+     * Gets a flag indicating whether or not the response was served from a
+     * snapshot, because the service was slow or unavailable.
+     *
+     * @return True if the response was served from a snapshot, false if not.
+     * @see #getSnapshotTime()
+     */
+    public boolean isSnapshot() { return snapshotTime > -1; }
+
+    /**
+     * Converts a page URI, as read from the response, to a page URL.
+     *
+     * @param pageUri The page URI, as read from the response.
+     * @return The page URL, or <code>null</code> if none.
+     */
+    private static String toPageUrl(String pageUri) {
+        return pageUri == null || pageUri.equalsIgnoreCase(String.valueOf(Boolean.FALSE)) ? null : pageUri;
+    }
+
+    /**
+     * Collects the parts of a query result while the response is being
+     * parsed.
+     */
+    static class Builder {
+        String serviceUrl = null;
+        /** The entries, in the form expected by {@link APIService#getEntries()}. */
+        JSONArray entries = null;
+        /** The entries, in the form expected by {@link QueryResult#getEntries()}. */
+        List<JSONObject> entryList = null;
+        int totalResults = -1;
+        int itemsPerPage = -1;
+        int startIndex = -1;
+        String self = null;
+        int indexNoFirstPageItem = -1;
+        int indexNoLastPageItem = -1;
+        String pageUriNext = null;
+        String pageUriPrev = null;
+        String query = null;
+        int querySearchTime = -1;
+        SearchFilterSets filterSets = null;
+        long snapshotTime = -1;
+
+        /**
+         * Creates a new builder for a result from the given URL.
+         *
+         * @param serviceUrl The URL that is requested.
+         */
+        Builder(String serviceUrl) {
+            this.serviceUrl = serviceUrl;
+        }
+
+        /**
+         * Adds the given entry.
+         *
+         * @param entry The entry to add.
+         */
+        void addEntry(JSONObject entry) {
+            entries.put(entry);
+            entryList.add(entry);
+        }
+
+        /**
+         * Marks the start of the entries.
+         */
+        void beginEntries() {
+            entries = new JSONArray();
+            entryList = new ArrayList<JSONObject>();
+        }
+
+        /**
+         * Creates the query result.
+         *
+         * @return The query result.
+         */
+        QueryResult build() {
+            return new QueryResult(this);
+        }
+    }
+}
@@ -1,10 +1,9 @@
 package no.npolar.data.api;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import no.npolar.data.api.util.APIUtil;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import no.npolar.data.api.util.QueryParams;
 import org.opencms.json.JSONObject;
 
 /**
@@ -26,10 +25,20 @@ public class SearchFilter {
     protected int count = -1;
     protected String uri = null;
     protected String filterField = null;
-    protected boolean isActive = false;
+    /** Flag indicating whether or not this filter is active. Valid only once the state is evaluated - use {@link #isActive()}. */
+    private boolean isActive = false;
     protected String serviceUri = null;
     
-    private Map<String, String> params = null;
+    /** The parameters in this filter's URI, or <code>null</code> until first needed. */
+    private QueryParams params = null;
+    /** The base part of this filter's URI, that is, everything before the query string. */
+    private String uriBase = null;
+    /** The parameters in the service URI, if already parsed. Used only when evaluating the state. */
+    private QueryParams serviceParams = null;
+    /** The names of parameters to remove from this filter's URI. Used only when first needed. */
+    private Collection<String> excludedParams = Collections.emptySet();
+    /** Flag indicating whether or not the state (on/off) is evaluated. */
+    private boolean isEvaluated = false;
     
     public static class Key extends APIEntry.Key {
         /** JSON key: Term. */
@@ -79,8 +88,6 @@ public class SearchFilter {
         this.term = term;
         this.count = count;
         this.uri = uri;
-        
-        init();
     }
     
     /**
@@ -102,8 +109,6 @@ public class SearchFilter {
             throw new NullPointerException("Invalid JSON object."
                     + " Term and URI must be not null, and count must be non-negative.");
         }
-        
-        init();
     }
     
     /**
@@ -150,70 +155,105 @@ public class SearchFilter {
         
         //System.out.println("Created filter: " + filterField + "." + term + (isActive ? " (ACTIVE)" : ""));
         //System.out.println("  URL is " + uri);
-        init();
     }
     
     /**
-     * Performs additional initialization on the filter, like setting start=0
-     * and evaluating the state (on/off).
+     * Creates a new filter for the given field, based on the given filter 
+     * object and with a state evaluated against the given, already parsed, 
+     * service URI parameters - and with the given parameters removed from its 
+     * URI.
+     * <p>
+     * Used when creating many filters from the same response: The service URI 
+     * is parsed only once, and each filter's URI is modified (and rebuilt) 
+     * only once - when first needed.
+     * 
+     * @param filterField The field this filter is filtering on (e.g. "category") - normally the facet name.
+     * @param filterObject A JSON representation of the filter.
+     * @param serviceUri The URI to the service API that corresponds to the currently displayed client page.
+     * @param serviceParams The parameters in the given service URI.
+     * @param excludedParams The names of parameters to remove from this filter's URI, e.g. the preset parameters.
      */
-    private void init() {
-        this.params = APIUtil.getParametersInQueryString(uri);
-        // ALL filters should have start=0, force this
-        //removeParam(APIService.Param.START_AT);
-        addParam(APIService.Param.START_AT, "0");
-        //uri = uri + "&start=0";
-        
-        // Evaluate state: is this filter currently active?
-        if (serviceUri != null) {
-            try {
-                // We can base the "active" state simply on the size of the 
-                // filter's value(s), because at any given time, the following
-                // will be true: 
-                //
-                // Comparing with this filter's value(s) in the current URI:
-                //  1.) Any NON-ACTIVE filter will have 1 more value
-                //  2.) Any ACTIVE filter will have 1 less value (possibly none)
-                //
-                // As such, a filter is active ONLY when its number of values is 
-                // less than the number of values reflected by the current URI.
-                
-                // e.g. (filter-topic=)"biology,marine"
-                String currentValue = APIUtil.getParametersInQueryString(serviceUri).get(APIService.modFilter(filterField));
-                // e.g. (filter-topic=)"biology,marine,ecology" (currently non-active)
-                // or   (filter-topic=)"biology" (currently active)
-                String thisFiltersValue = params.get(APIService.modFilter(filterField));
-                        
-                        
-                        
-                // Handle multiple comma-separated values
-                List<String> currentValues = new ArrayList<String>();
-                try { currentValues = Arrays.asList(currentValue.split(APIService.Delimiter.AND.toString())); } catch (Exception ignore) {}
-                
-                List<String> thisFiltersValues = new ArrayList<String>(); 
-                try { thisFiltersValues = Arrays.asList(thisFiltersValue.split(APIService.Delimiter.AND.toString())); } catch (Exception ignore) {}
-                
-                // Determine the active state from on the number of values in 
-                // this filter vs. the number of values currently in the URI
-                if (currentValues.size() > thisFiltersValues.size()) {
-                    this.isActive = true;
-                }
-                /*
-                // Old version, from when getParametersInQueryString returned Map<String, List<String>>
-                List<String> currentValues = APIUtil.getParametersInQueryString(serviceUri).get(PARAM_NAME_PREFIX + filterField);
-                if (currentValues == null)
-                    currentValues = new ArrayList<String>();
-                
-                List<String> thisFiltersValues = APIUtil.getParametersInQueryString(uri).get(PARAM_NAME_PREFIX + filterField);
-                if (thisFiltersValues == null)
-                    thisFiltersValues = new ArrayList<String>();
-
-                if (currentValues.size() > thisFiltersValues.size())
-                    this.isActive = true;
-                */
-            } catch (Exception e) {
-                throw new NullPointerException("Unable to evaluate state: " + e.getMessage());
+    SearchFilter(String filterField, JSONObject filterObject, String serviceUri, QueryParams serviceParams, Collection<String> excludedParams) {
+        try {
+            this.filterField = filterField;
+            if (filterField == null)
+                throw new NullPointerException("A filter field is required when creating filters.");
+            
+            this.term = filterObject.getString(Key.TERM);
+            this.count = filterObject.getInt(Key.COUNT);
+            this.serviceUri = serviceUri;
+            this.uri = filterObject.getString(Key.URI); 
+        } catch (Exception e) {
+            throw new NullPointerException("Invalid JSON object."
+                    + " Term and URI must be not null, and count must be non-negative.");
+        }
+        if (uri == null) {
+            throw new NullPointerException("Invalid JSON object. URI must be not null.");
+        }
+        this.serviceParams = serviceParams;
+        this.excludedParams = excludedParams;
+    }
+    
+    /**
+     * Gets the parameters in this filter's URI, first setting start=0 and 
+     * removing any excluded parameters, if not already done.
+     * 
+     * @return The parameters in this filter's URI.
+     */
+    private synchronized QueryParams getParams() {
+        if (params == null) {
+            QueryParams original = QueryParams.fromUri(uri);
+            evaluateState(original);
+            this.uriBase = QueryParams.getBase(uri);
+            // ALL filters should have start=0, force this
+            this.params = original
+                    .with(APIService.Param.START_AT, "0")
+                    .without(excludedParams);
+            excludedParams = null;
+            updateUri();
+        }
+        return params;
+    }
+    
+    /**
+     * Evaluates the state (on/off) of this filter, if not already done.
+     * <p>
+     * The state is evaluated against the filter's URI as given (that is, 
+     * <em>before</em> it is modified).
+     * 
+     * @param original The parameters in the filter's URI as given, or <code>null</code> to parse them here.
+     */
+    private synchronized void evaluateState(QueryParams original) {
+        if (isEvaluated) {
+            return;
+        }
+        isEvaluated = true;
+        if (serviceParams == null && serviceUri != null) {
+            serviceParams = QueryParams.fromUri(serviceUri);
+        }
+        if (serviceParams != null) {
+            // We can base the "active" state simply on the size of the 
+            // filter's value(s), because at any given time, the following
+            // will be true: 
+            //
+            // Comparing with this filter's value(s) in the current URI:
+            //  1.) Any NON-ACTIVE filter will have 1 more value
+            //  2.) Any ACTIVE filter will have 1 less value (possibly none)
+            //
+            // As such, a filter is active ONLY when its number of values is 
+            // less than the number of values reflected by the current URI.
+            String paramName = APIService.modFilter(filterField);
+            
+            // e.g. (filter-topic=)"biology,marine" => 2
+            int currentValues = serviceParams.countValues(paramName, APIService.Delimiter.AND);
+            // e.g. (filter-topic=)"biology,marine,ecology" => 3 (currently non-active)
+            // or   (filter-topic=)"biology" => 1 (currently active)
+            int thisFiltersValues = (original == null ? QueryParams.fromUri(uri) : original).countValues(paramName, APIService.Delimiter.AND);
+            
+            if (currentValues > thisFiltersValues) {
+                this.isActive = true;
             }
+            serviceParams = null;
         }
     }
     
@@ -223,25 +263,32 @@ public class SearchFilter {
      * @param paramName The parameter name.
      * @return The filter URI, with the parameter identified by the given name removed.
      */
-    public SearchFilter removeParam(String paramName) {
-        //String[] uriAndParams = uri.split("\\?");
-        //Map<String, List<String>> params = APIUtil.getParametersInQueryString(uri);
-        //System.out.println("ABOUT to remove '" + paramName + "' from '" + uri + "'");
-        //Map<String, String> params = APIUtil.getParametersInQueryString(uri);
-        params.remove(paramName);
+    public synchronized SearchFilter removeParam(String paramName) {
+        params = getParams().without(paramName);
+        updateUri();
+        return this;
+    }
+    
+    /**
+     * Removes the given parameters from the filter's URI, in one go.
+     * 
+     * @param paramNames The parameter names.
+     * @return The filter URI, with the parameters identified by the given names removed.
+     */
+    public synchronized SearchFilter removeParams(Collection<String> paramNames) {
+        params = getParams().without(paramNames);
         updateUri();
-        //uri = getUrlPartBase() + (!params.isEmpty() ? ("?" + APIUtil.getParameterString(params)) : "");
-        //System.out.println("REMOVED " + paramName + ". Result: " + uri);
         return this;
     }
+    
     /**
      * Updates the URI, based on the parameters currently set.
      * <p>
      * This method must be invoked to reflect any changes in the parameters.
      * 
      */
-    protected void updateUri() {
-        uri = getUrlPartBase() + (!params.isEmpty() ? ("?" + APIUtil.getParameterString(params)) : "");
+    protected synchronized void updateUri() {
+        uri = params.toUri(uriBase);
     }
     
     /**
@@ -253,8 +300,8 @@ public class SearchFilter {
      * @param value The parameter value
      * @return This instance, updated.
      */
-    public SearchFilter addParam(String key, String value) {
-        params.put(key, value);
+    public synchronized SearchFilter addParam(String key, String value) {
+        params = getParams().with(key, value);
         updateUri();
         return this;
     }
@@ -271,11 +318,10 @@ public class SearchFilter {
      * @param baseUrl The new base URL.
      * @return This instance, updated.
      */
-    public SearchFilter setBaseUrl(String baseUrl) {
-        String queryString = APIUtil.getQueryString(uri);
-        uri = baseUrl + (!queryString.isEmpty() ? "?".concat(queryString) : "");
-        /*String[] uriAndParams = uri.split("\\?");
-        uri = baseUrl + "?" + uriAndParams[1];*/
+    public synchronized SearchFilter setBaseUrl(String baseUrl) {
+        getParams();
+        uriBase = baseUrl;
+        updateUri();
         return this;
     }
     /**
@@ -283,7 +329,8 @@ public class SearchFilter {
      * 
      * @return The URL for this filter.
      */
-    public String getUrl() {
+    public synchronized String getUrl() {
+        getParams();
         return uri;
     }
     
@@ -294,8 +341,7 @@ public class SearchFilter {
      * @return The parameter string from this filter's URI.
      */
     public String getUrlPartParameters() {
-        return APIUtil.getQueryString(uri);
-        //return uri.split("\\?")[1];
+        return getParams().toString();
     }
     
     /**
@@ -304,8 +350,9 @@ public class SearchFilter {
      * 
      * @return The base part of this filter's URI.
      */
-    public String getUrlPartBase() {
-        return uri.split("\\?")[0];
+    public synchronized String getUrlPartBase() {
+        getParams();
+        return uriBase;
     }
     
     /**
@@ -331,7 +378,8 @@ public class SearchFilter {
      * 
      * @return True if this filter is active, false if not.
      */
-    public boolean isActive() {
+    public synchronized boolean isActive() {
+        evaluateState(null);
         return this.isActive;
     }
     
@@ -355,16 +403,35 @@ public class SearchFilter {
      * @return An HTML representation of this filter, ready to use.
      */
     public String toHtml(String className, String classNameActive) {
+        StringBuilder sb = new StringBuilder(64);
+        try {
+            writeHtml(sb, className, classNameActive);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes an HTML representation of this filter to the given target, using 
+     * the given class name (if any) and additionally an appended "active" 
+     * class name (if any) if the filter is active.
+     * 
+     * @param out The target to write to.
+     * @param className The regular class name, e.g. "filter".
+     * @param classNameActive The "active" class name, e.g. "filter--active".
+     * @throws IOException If writing fails.
+     * @see #toHtml(java.lang.String, java.lang.String) 
+     */
+    public void writeHtml(Appendable out, String className, String classNameActive) throws IOException {
         String cn = className == null ? "" : className;
         String cna = classNameActive == null ? "" : classNameActive;
         
         // ToDo: Make this an add / remove filter, based on the current uri
         
-        return 
-                "<a"
-                + " class=\"" + (cn + (isActive() ? (" "+cna) : "")).trim() + "\""
-                + " href=\"" + uri + "\">"
-                    + term
-                + "</a>";    
+        out.append("<a class=\"").append((cn + (isActive() ? (" "+cna) : "")).trim()).append("\"")
+                .append(" href=\"").append(getUrl()).append("\">")
+                .append(term)
+                .append("</a>");
     }
 }
@@ -168,7 +168,7 @@ public class SearchFilterSet {
         
         if (normalize) {
             try {
-                ResourceBundle labels = ResourceBundle.getBundle(Labels.getBundleName(), this.getLocale());
+                ResourceBundle labels = Labels.getBundle(this.getLocale());
                 s = labels.getString(Labels.normalizeServiceString(this.name));
             } catch (Exception e) {
                 // whut?
@@ -187,19 +187,16 @@ public class SearchFilterSet {
     public String getTitle(Locale locale) {
         try {
             if (title == null) { // Don't re-evaluate the title
-                ResourceBundle labels = ResourceBundle.getBundle(Labels.getBundleName(), locale);
-                try {
-                    title = labels.getString(Labels.labelFacetField(name));
-                    return title;
-                } catch (Exception e) {
+                ResourceBundle labels = Labels.getBundle(locale);
+                title = Labels.getLabel(labels, Labels.labelFacetField(name));
+                if (title == null) {
                     // No match, is there a label defined without the "facet." prefix?
-                    try { 
-                        title = labels.getString(Labels.normalizeServiceString(name)); 
-                        return title;
-                    } catch (Exception ee) {}
+                    title = Labels.getLabel(labels, Labels.normalizeServiceString(name));
                 }
             }
-            return title;
+            if (title != null) {
+                return title;
+            }
         } catch (Exception e) {
             //System.out.println("Error translating facet name '" + name + "': " + e.getMessage());
         }
@@ -1,11 +1,18 @@
 package no.npolar.data.api;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.Set;
+import no.npolar.data.api.util.QueryParams;
+import org.opencms.json.JSONArray;
+import org.opencms.json.JSONObject;
 import org.opencms.jsp.CmsJspActionElement;
 import org.opencms.util.CmsStringUtil;
 
@@ -28,38 +35,129 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
     
     private List<SearchFilterSet> sets = null;
     
+    /** The facets, as a raw JSON array, kept until the filter sets are first needed. */
+    private String rawFacets = null;
+    /** The URI to the service API that corresponds to the facets. */
+    private String serviceUri = null;
+    /** The names of parameters to remove from the filter URIs. */
+    private Set<String> excludedParams = null;
+    /** The maximum number of filters to show in each filter set, or 0 for no limit. */
+    private int maxVisibleFilters = 0;
+    
     public SearchFilterSets() {
         sets = new ArrayList<SearchFilterSet>();
     }
     
+    /**
+     * Creates a new container for the filter sets described by the given, 
+     * unparsed, facets.
+     * <p>
+     * Nothing is parsed until the filter sets are first needed, so a query 
+     * result costs nothing extra when its facets are not used.
+     * 
+     * @param rawFacets The array with key {@link APIService.Key#FACETS} in a Data Centre query response, as a raw JSON string.
+     * @param serviceUri The URI to the service API that corresponds to the facets, i.e. the "self" URI.
+     * @param excludedParams The names of parameters to remove from the filter URIs, e.g. the preset parameters.
+     */
+    SearchFilterSets(String rawFacets, String serviceUri, Set<String> excludedParams) {
+        this.rawFacets = rawFacets;
+        this.serviceUri = serviceUri;
+        this.excludedParams = new HashSet<String>(excludedParams);
+    }
+    
+    /**
+     * Gets the list of filter sets, creating it from the raw facets first, if 
+     * necessary.
+     * 
+     * @return The list of filter sets.
+     */
+    private synchronized List<SearchFilterSet> sets() {
+        if (sets == null) {
+            sets = new ArrayList<SearchFilterSet>();
+            parseFacets();
+            rawFacets = null;
+        }
+        return sets;
+    }
+    
+    /**
+     * Parses the raw facets, and creates the filter sets accordingly.
+     */
+    private void parseFacets() {
+        // Parse the service URI once, for all the filters
+        QueryParams serviceParams = QueryParams.fromUri(serviceUri);
+        try {
+            JSONArray facets = new JSONArray(rawFacets);
+            for (int i = 0; i < facets.length(); i++) {
+                try { 
+                    JSONObject facet = facets.getJSONObject(i);
+                    String facetName = facet.keys().next();
+                    JSONArray filters = facet.getJSONArray(facetName);
+                    if (filters.length() > 0) {
+                        SearchFilterSet filterSet = new SearchFilterSet(facetName);
+                        for (int j = 0; j < filters.length(); j++) {
+                            try {
+                                // Default/unmodifiable parameters are removed
+                                filterSet.add(new SearchFilter(facetName, filters.getJSONObject(j), serviceUri, serviceParams, excludedParams));
+                            } catch (NullPointerException npe) { 
+                                // Invalid filter: skip it
+                            }
+                        }
+                        sets.add(filterSet);
+                    }
+                } catch (Exception innerE) { 
+                    // Invalid facet: skip it
+                }
+            }
+        } catch (Exception e) { }
+    }
+    
+    /**
+     * Gets a flag indicating whether or not any filter in these filter sets 
+     * is active, i.e. whether or not the corresponding entry set is filtered 
+     * by the end user.
+     * 
+     * @return True if any filter is active, false if not.
+     */
+    public boolean hasActiveFilter() {
+        for (SearchFilterSet filterSet : sets()) {
+            for (SearchFilter filter : filterSet.getFilters()) {
+                if (filter.isActive()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
     public SearchFilterSets add(SearchFilterSet set) {
-        try { sets.add(set); } catch (Exception e) {}
+        try { sets().add(set); } catch (Exception e) {}
         return this;
     }
     
     public SearchFilterSets remove(SearchFilterSet set) {
-        try { sets.remove(set); } catch (Exception e) {}
+        try { sets().remove(set); } catch (Exception e) {}
         return this;
     }
     
     public SearchFilterSet get(int index) {
-        return sets.get(index);
+        return sets().get(index);
     }
     
     public int size() {
-        return sets.size();
+        return sets().size();
     }
     
     public List<SearchFilterSet> get() {
-        return sets;
+        return sets();
     }
     
     public Iterator<SearchFilterSet> iterator() {
-        return sets.iterator();
+        return sets().iterator();
     }
     
     public boolean isEmpty() {
-        return sets.isEmpty();
+        return sets().isEmpty();
     }
     
     /**
@@ -74,7 +172,7 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      * @return The removed filter set, or null of nothing was removed.
      */
     public SearchFilterSet removeByName(String name) {
-        Iterator<SearchFilterSet> i = sets.iterator();
+        Iterator<SearchFilterSet> i = sets().iterator();
         while (i.hasNext()) {
             try {
                 SearchFilterSet sfs = i.next();
@@ -105,7 +203,7 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      * @return The filter set identified by the given name, or null if none.
      */
     public SearchFilterSet getByName(String name) {
-        Iterator i = sets.iterator();
+        Iterator i = sets().iterator();
         while (i.hasNext()) {
             SearchFilterSet sfs = null;
             try {
@@ -164,9 +262,9 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      */
     public SearchFilterSets sort(int sortOrder) {
         if (sortOrder == SORT_ORDER_RELEVANCY) {
-            Collections.sort(sets, SearchFilterSet.COMPARATOR_RELEVANCY);
+            Collections.sort(sets(), SearchFilterSet.COMPARATOR_RELEVANCY);
         } else if (sortOrder == SORT_ORDER_TITLE) {
-            Collections.sort(sets, SearchFilterSet.COMPARATOR_TITLE);
+            Collections.sort(sets(), SearchFilterSet.COMPARATOR_TITLE);
         }
         return this;
     }
@@ -177,7 +275,31 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      * @param comp The comparator to use in the sort operation.
      */
     public void sort(Comparator comp) {
-        Collections.sort(sets, comp);
+        Collections.sort(sets(), comp);
+    }
+    
+    /**
+     * Sets the maximum number of filters to show in each filter set. 
+     * <p>
+     * Any filters beyond this number are placed in a collapsed "show more" 
+     * continuation, instead of making very long lists.
+     * 
+     * @param maxVisibleFilters The maximum number of filters to show in each filter set, or 0 (default) for no limit.
+     * @return This instance, updated.
+     */
+    public SearchFilterSets setMaxVisibleFilters(int maxVisibleFilters) {
+        this.maxVisibleFilters = maxVisibleFilters < 0 ? 0 : maxVisibleFilters;
+        return this;
+    }
+    
+    /**
+     * Gets the maximum number of filters to show in each filter set.
+     * 
+     * @return The maximum number of filters to show in each filter set, or 0 for no limit.
+     * @see #setMaxVisibleFilters(int) 
+     */
+    public int getMaxVisibleFilters() {
+        return maxVisibleFilters;
     }
     
     /**
@@ -189,62 +311,140 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      * @param cms An initialized CMS action element, needed to construct valid links.
      * @param labels Used for translations of filter texts, by calling {@link ResourceBundle#getString(java.lang.String)}, passing the filter text.
      * @return  the widget component representing this filter set.
+     * @see #writeHtml(java.lang.Appendable, org.opencms.jsp.CmsJspActionElement, java.util.ResourceBundle) 
      */
     public String toHtml(CmsJspActionElement cms, ResourceBundle labels) {
-        String s = "";
+        StringBuilder sb = new StringBuilder(1024);
+        try {
+            writeHtml(sb, cms, labels);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the widget component representing this filter set to the given 
+     * target, e.g. the JSP output.
+     * <p>
+     * For use in an existing filtering section (which typically provides 
+     * toggling, wrappers, etc.).
+     * <p>
+     * The markup is written while it is being generated, and filter texts are 
+     * looked up via {@link Labels#getLabel(java.util.ResourceBundle, java.lang.String)}, 
+     * so the cost is proportional to the number of filters.
+     * 
+     * @param out The target to write to.
+     * @param cms An initialized CMS action element, needed to construct valid links.
+     * @param labels Used for translations of filter texts.
+     * @throws IOException If writing fails.
+     * @see #setMaxVisibleFilters(int) 
+     */
+    public void writeHtml(Appendable out, CmsJspActionElement cms, ResourceBundle labels) throws IOException {
         try {
             if (!this.isEmpty()) {
+                Locale locale = cms.getRequestContext().getLocale();
+                // All filter links point to the current page
+                String pageUri = cms.getRequestContext().getUri();
+                
+                out.append("<div class=\"layout-group quadruple layout-group--quadruple filter-widget\">");
                 Iterator<SearchFilterSet> iFilterSets = this.iterator();
-                s += "<div class=\"layout-group quadruple layout-group--quadruple filter-widget\">";
-                //s += "<div class=\"boxes\">";
                 while (iFilterSets.hasNext()) {
                     SearchFilterSet filterSet = iFilterSets.next();
                     List<SearchFilter> filters = filterSet.getFilters();
 
                     if (filters != null) {
-                        s += "<div class=\"layout-box filter-set\">";
-                        s += "<h3 class=\"filters-heading filter-set__heading\">";
-                        s += filterSet.getTitle(cms.getRequestContext().getLocale());
-                        s += "<span class=\"filter__num-matches\"> (" + filterSet.size() + ")</span>";
-                        s += "</h3>";
-                        s += "<ul class=\"filter-set__filters\">";
+                        out.append("<div class=\"layout-box filter-set\">");
+                        out.append("<h3 class=\"filters-heading filter-set__heading\">");
+                        out.append(filterSet.getTitle(locale));
+                        out.append("<span class=\"filter__num-matches\"> (").append(String.valueOf(filterSet.size())).append(")</span>");
+                        out.append("</h3>");
+                        out.append("<ul class=\"filter-set__filters\">");
                         try {
-                            // Iterate through the filters in this set
-                            Iterator<SearchFilter> iFilters = filters.iterator();
-                            while (iFilters.hasNext()) {
-                                SearchFilter filter = iFilters.next();
-                                // The visible filter text (initialize this as the term)
-                                String filterText = filter.getTerm();
-
-                                // Try to fetch a better (and localized) text for the filter
-                                try {
-                                    filterText = labels.getString( filterSet.labelKeyFor(filter) );
-                                } catch (Exception skip) {}
-
-                                // The filter
-                                s += "<li><a href=\"" + cms.link(cms.getRequestContext().getUri() + "?" + CmsStringUtil.escapeHtml(filter.getUrlPartParameters())) + "\""
-                                                    + " class=\"filter" + (filter.isActive() ? " filter--active" : "") + "\""
-                                                    + " rel=\"nofollow\""
-                                                    + ">" 
-                                                    //+ (filter.isActive() ? "<span style=\"background:red; border-radius:3px; color:white; padding:0 0.3em;\" class=\"remove-filter\">X</span> " : "")
-                                                    + filterText
-                                                    + "<span class=\"filter__num-matches\"> (" + filter.getCount() + ")</span>"
-                                                + "</a></li>";
-                            }
+                            writeFilters(out, filterSet, cms, pageUri, labels);
+                        } catch (IOException ioe) {
+                            throw ioe;
                         } catch (Exception filterE) {
-                            s += "<!-- " + filterE.getMessage() + " -->";
+                            out.append("<!-- ").append(filterE.getMessage()).append(" -->");
                         }
-                        s += "</ul>";
-                        s += "</div>"; // .filter-set
+                        out.append("</ul>");
+                        out.append("</div>"); // .filter-set
                     }
                 }
-                //s += "</div>";
-                s += "</div>"; // .layout-group
+                out.append("</div>"); // .layout-group
             }
+        } catch (IOException ioe) {
+            throw ioe;
         } catch (Exception e) {
-            s += "<!-- Error constructing filters: " + e.getMessage() + " -->";
+            out.append("<!-- Error constructing filters: ").append(e.getMessage()).append(" -->");
+        }
+    }
+    
+    /**
+     * Writes the list items for the filters in the given filter set.
+     * <p>
+     * If the number of filters exceeds the {@link #getMaxVisibleFilters() limit},
+     * the remaining filters are placed in a collapsed "show more" 
+     * continuation.
+     * 
+     * @param out The target to write to.
+     * @param filterSet The filter set.
+     * @param cms An initialized CMS action element, needed to construct valid links.
+     * @param pageUri The URI of the current page.
+     * @param labels Used for translations of filter texts.
+     * @throws IOException If writing fails.
+     */
+    private void writeFilters(Appendable out, SearchFilterSet filterSet, CmsJspActionElement cms, String pageUri, ResourceBundle labels) throws IOException {
+        List<SearchFilter> filters = filterSet.getFilters();
+        // The label keys are "[set].[term]" - create the "[set]." part once
+        String keyPrefix = null;
+        try {
+            keyPrefix = Labels.normalizeServiceString(filterSet.getName()).concat(".");
+        } catch (Exception e) {
+            keyPrefix = filterSet.getName() + ".";
+        }
+        
+        int max = maxVisibleFilters > 0 ? maxVisibleFilters : filters.size();
+        int i = 0;
+        Iterator<SearchFilter> iFilters = filters.iterator();
+        while (iFilters.hasNext()) {
+            SearchFilter filter = iFilters.next();
+            if (i++ == max) {
+                // Too many filters: collapse the rest
+                String more = labels == null ? null : Labels.getLabel(labels, Labels.FACET_SHOW_MORE_0);
+                out.append("<li class=\"filter-set__more\"><details>");
+                out.append("<summary class=\"filter-set__more-toggler\">")
+                        .append(more == null ? "Show more" : more)
+                        .append("<span class=\"filter__num-matches\"> (").append(String.valueOf(filters.size() - max)).append(")</span>")
+                        .append("</summary>");
+                out.append("<ul class=\"filter-set__filters filter-set__filters--more\">");
+            }
+            
+            // The visible filter text (initialize this as the term)
+            String filterText = filter.getTerm();
+            // Try to fetch a better (and localized) text for the filter
+            if (labels != null) {
+                try {
+                    String label = Labels.getLabel(labels, keyPrefix.concat(Labels.normalizeServiceString(filter.getTerm())));
+                    if (label != null) {
+                        filterText = label;
+                    }
+                } catch (Exception skip) {}
+            }
+            
+            // The filter (the parameters are part of the linked URI, as link 
+            // substitution may depend on them)
+            out.append("<li><a href=\"").append(cms.link(pageUri + "?" + CmsStringUtil.escapeHtml(filter.getUrlPartParameters()))).append("\"")
+                    .append(" class=\"filter").append(filter.isActive() ? " filter--active" : "").append("\"")
+                    .append(" rel=\"nofollow\"")
+                    .append(">")
+                    .append(filterText)
+                    .append("<span class=\"filter__num-matches\"> (").append(String.valueOf(filter.getCount())).append(")</span>")
+                    .append("</a></li>");
+        }
+        if (i > max) {
+            out.append("</ul></details></li>"); // .filter-set__more
         }
-        return s;   
     }
     
     /**
@@ -255,20 +455,35 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      * @see #getFiltersWrapperHtmlEnd() 
      */
     public String getFiltersWrapperHtmlStart(String togglerText) {
-        return "\n<div class=\"search-panel__filters\">" 
-                + "\n<a"
-                    + " aria-controls=\"search-filters\""
-                    + " class=\"toggler toggler--filters-toggle\""
-                    + " href=\"#search-filters\""
-                    + " tabindex=\"0\""
-                + ">" + togglerText + "</a>"
-                + "\n<div"
-                    + " class=\"toggleable toggleable--filters\""
-                    + " id=\"search-filters\""
-                + ">";
-        /*return "\n<div class=\"search-widget search-widget--filters\">" 
-                + "\n<a class=\"cta cta--filters-toggle\" tabindex=\"0\">" + togglerText + "</a>"
-                + "\n<div class=\"filters-wrapper\">";*/
+        StringBuilder sb = new StringBuilder(256);
+        try {
+            writeFiltersWrapperHtmlStart(sb, togglerText);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the HTML to start a toggleable filtering section.
+     * 
+     * @param out The target to write to.
+     * @param togglerText The text to display on the toggler, e.g. "Filters".
+     * @throws IOException If writing fails.
+     * @see #getFiltersWrapperHtmlStart(java.lang.String) 
+     */
+    public void writeFiltersWrapperHtmlStart(Appendable out, String togglerText) throws IOException {
+        out.append("\n<div class=\"search-panel__filters\">")
+                .append("\n<a")
+                    .append(" aria-controls=\"search-filters\"")
+                    .append(" class=\"toggler toggler--filters-toggle\"")
+                    .append(" href=\"#search-filters\"")
+                    .append(" tabindex=\"0\"")
+                .append(">").append(togglerText).append("</a>")
+                .append("\n<div")
+                    .append(" class=\"toggleable toggleable--filters\"")
+                    .append(" id=\"search-filters\"")
+                .append(">");
     }
     
     /**
@@ -295,14 +510,30 @@ public class SearchFilterSets /*extends ArrayList<SearchFilterSet>*/ {
      * @see #toHtml(org.opencms.jsp.CmsJspActionElement, java.util.ResourceBundle) 
      */
     public String toHtml(String togglerText, CmsJspActionElement cms, ResourceBundle labels) {
-        String s = "";
+        StringBuilder sb = new StringBuilder(1024);
         try {
-            s += getFiltersWrapperHtmlStart(togglerText);
-            s += toHtml(cms, labels);
-            s += getFiltersWrapperHtmlEnd();
-        } catch (Exception e) {
-            s += "<!-- Error constructing filters: " + e.getMessage() + " -->";
+            writeHtml(sb, togglerText, cms, labels);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
         }
-        return s;
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the complete HTML for a toggleable filtering section, including 
+     * the wrappers, toggler and filters, to the given target, e.g. the JSP 
+     * output.
+     * 
+     * @param out The target to write to.
+     * @param togglerText The text to display on the toggler, e.g. "Filters".
+     * @param cms An initialized CMS action element, needed to construct valid links.
+     * @param labels Used for translations of filter texts.
+     * @throws IOException If writing fails.
+     * @see #writeHtml(java.lang.Appendable, org.opencms.jsp.CmsJspActionElement, java.util.ResourceBundle) 
+     */
+    public void writeHtml(Appendable out, String togglerText, CmsJspActionElement cms, ResourceBundle labels) throws IOException {
+        writeFiltersWrapperHtmlStart(out, togglerText);
+        writeHtml(out, cms, labels);
+        out.append(getFiltersWrapperHtmlEnd());
     }
 }
@@ -1,10 +1,12 @@
 package no.npolar.data.api;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import no.npolar.data.api.util.APIUtil;
+import no.npolar.data.api.util.QueryParams;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +54,18 @@ public class SearchResultsPagination {
     /** The service's locked (non-modifiable) parameters. */
     private Map<String, String[]> serviceParamsLocked = null;
     
+    /** 
+     * The (escaped) URI to any numbered page, ending with "start=", so that a 
+     * page's URI is this template followed by the page's start value. Created 
+     * on demand. 
+     */
+    private String pageUriTemplate = null;
+    /** The number of pages to show on each side of the current page, when not all pages are shown. */
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    
+    /** The default number of pages to show on each side of the current page. */
+    public static final int DEFAULT_WINDOW_SIZE = 2;
+    
     /** The logger. */
     private static final Log LOG = LogFactory.getLog(no.npolar.data.api.SearchResultsPagination.class);
     
@@ -115,22 +129,13 @@ public class SearchResultsPagination {
             try {
                 // Retain any "extra" parameters present in the base URI (that 
                 // is, any parameter not related to the service)
-                Map<String, String> baseUriParams = APIUtil.getParametersInQueryString(baseUri);
+                QueryParams baseUriParams = QueryParams.fromUri(baseUri);
                 if (!baseUriParams.isEmpty()) {
-                    Iterator<String> iBaseUriParams = baseUriParams.keySet().iterator();
-                    while (iBaseUriParams.hasNext()) {
-                        String key = iBaseUriParams.next();
-                        if (serviceParamsFree.containsKey(key) || serviceParamsLocked.containsKey(key)) {
-                            iBaseUriParams.remove();
-                        }
-                    }
-                    this.baseUri = baseUri.split("\\?")[0];
-                    if (baseUriParams.isEmpty()) {
-                        parameterAppender = "?";
-                    } else {
-                        this.baseUri += "?" + APIUtil.getParameterString(baseUriParams);
-                        parameterAppender = "&";
-                    }
+                    baseUriParams = baseUriParams
+                            .without(serviceParamsFree.keySet())
+                            .without(serviceParamsLocked.keySet());
+                    this.baseUri = baseUriParams.toUri(QueryParams.getBase(baseUri));
+                    parameterAppender = baseUriParams.isEmpty() ? "?" : "&";
                 }
             } catch (Exception ee) {
                 if (LOG.isErrorEnabled()) {
@@ -246,45 +251,47 @@ public class SearchResultsPagination {
         return baseUri + parameterAppender + parameterString;
     }
     
+    /**
+     * Sets the number of pages to show on each side of the current page.
+     * <p>
+     * When there are many pages, only the first page, the last page and this 
+     * "window" of pages around the current page are shown. Regardless of the 
+     * total number of pages, the pagination is then created at the same 
+     * (small) cost.
+     * 
+     * @param windowSize The number of pages to show on each side of the current page. Default is {@link #DEFAULT_WINDOW_SIZE}.
+     * @return This instance, updated.
+     */
+    public SearchResultsPagination setWindowSize(int windowSize) {
+        this.windowSize = windowSize < 0 ? 0 : windowSize;
+        return this;
+    }
+    
+    /**
+     * Gets the number of pages to show on each side of the current page.
+     * 
+     * @return The number of pages to show on each side of the current page.
+     * @see #setWindowSize(int) 
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+    
     /**
      * Gets the in-between pages - that is, the numbered page span in-between 
      * the "next" and "previous" page.
      * 
      * @return The in-between pages.
+     * @see #writeInBetweenPages(java.lang.Appendable) 
      */
     public List<String> inBetweenPages() {
         List<String> pages = new ArrayList<String>();
         try {
-            for (int pageCounter = 1; pageCounter <= pagesTotal; pageCounter++) {
-                boolean splitNav = pagesTotal >= 8;
-                // if (first page OR last page OR (pages total > 10 AND (this page number > (current page number - 4) AND this page number < (current page number + 4)))
-                // Pseudo: if this is the first page, the last page, or a page close to the current page (± 4)
-                if (!splitNav
-                            || (splitNav && (pageCounter == 1 || pageCounter == pagesTotal))
-                            //|| (pagesTotal > 10 && (pageCounter > (pageNumber-4) && pageCounter < (pageNumber+4)))) {
-                            || (splitNav && (pageCounter > (pageNumber-3) && pageCounter < (pageNumber+3)))) {
-                    if (pageCounter != pageNumber) {
-                        // Not the current page: print a link
-                        pages.add("<a class=\"" + DEFAULT_CLASS_PAGE_NUMBERED + "\" href=\"" 
-                                + StringEscapeUtils.escapeHtml(
-                                        appendToBase(
-                                            APIUtil.toParameterString(serviceParamsFree, APIService.Param.START_AT)
-                                            + "&" + APIService.Param.START_AT + "=" + ((pageCounter-1) * itemsPerPage)
-                                        )
-                                )
-                                + "\">" + pageCounter + "</a>");
-                    }
-                    else {
-                        // The current page: no link
-                        pages.add("<span class=\"" + DEFAULT_CLASS_PAGE_CURRENT + "\">" + pageCounter + "</span>");
-                    }
-                }
-                // Pseudo: 
-                else if (splitNav && (pageCounter == 2 || pageCounter+1 == pagesTotal)) { 
-                    pages.add("<span class=\"" + DEFAULT_CLASS_TRUNCATION + "\"> &hellip; </span>");
-                } else {
-                    //pages.add("<!-- page " + pageCounter + " dropped ... -->");
-                }
+            StringBuilder sb = new StringBuilder(128);
+            for (int page : visiblePages()) {
+                sb.setLength(0);
+                writePage(sb, page);
+                pages.add(sb.toString());
             }
         } catch (Exception e) {
             if (LOG.isErrorEnabled()) {
@@ -294,36 +301,161 @@ public class SearchResultsPagination {
         return pages;
     }
     
+    /**
+     * Writes the in-between pages - that is, the numbered page span 
+     * in-between the "next" and "previous" page - to the given target.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails.
+     * @see #inBetweenPages() 
+     */
+    public void writeInBetweenPages(Appendable out) throws IOException {
+        try {
+            for (int page : visiblePages()) {
+                writePage(out, page);
+            }
+        } catch (IOException ioe) {
+            throw ioe;
+        } catch (Exception e) {
+            if (LOG.isErrorEnabled()) {
+                LOG.error("Error creating the in-between pages for pagination.", e);
+            }
+        }
+    }
+    
+    /**
+     * Gets the numbers of the pages to show, in order, with 0 marking a span 
+     * of omitted pages.
+     * <p>
+     * If there are few pages, all pages are shown. If not, the first page, 
+     * the last page and the pages within the {@link #getWindowSize() window} 
+     * around the current page are shown. Only these pages are evaluated, so 
+     * the cost does not grow with the total number of pages.
+     * 
+     * @return The numbers of the pages to show, with 0 marking a span of omitted pages.
+     */
+    private int[] visiblePages() {
+        if (pagesTotal < 1) {
+            return new int[0];
+        }
+        if (pagesTotal < 2 * windowSize + 4) {
+            // Few pages: show all
+            int[] pages = new int[pagesTotal];
+            for (int i = 0; i < pagesTotal; i++) {
+                pages[i] = i + 1;
+            }
+            return pages;
+        }
+        // Many pages: first, (omitted), window, (omitted), last
+        int lo = Math.max(1, pageNumber - windowSize);
+        int hi = Math.min(pagesTotal, pageNumber + windowSize);
+        int[] pages = new int[2 * windowSize + 5];
+        int n = 0;
+        for (int p = 1; p <= pagesTotal; p++) {
+            if (p == 1 || p == pagesTotal || (p >= lo && p <= hi)) {
+                pages[n++] = p;
+            } else if (p == 2 || p + 1 == pagesTotal) {
+                pages[n++] = 0;
+            }
+            // Jump over any omitted pages
+            int next = p + 1;
+            if (next > 2 && next < lo) {
+                next = Math.min(lo, pagesTotal - 1);
+            } else if (next > 2 && next > hi && next < pagesTotal - 1) {
+                next = pagesTotal - 1;
+            }
+            if (next > p + 1) {
+                p = next - 1;
+            }
+        }
+        return n == pages.length ? pages : Arrays.copyOf(pages, n);
+    }
+    
+    /**
+     * Writes the given page to the given target: a link, unless it is the 
+     * current page.
+     * 
+     * @param out The target to write to.
+     * @param page The page number, or 0 to write a "truncated pages" element.
+     * @throws IOException If writing fails.
+     */
+    private void writePage(Appendable out, int page) throws IOException {
+        if (page == 0) {
+            out.append("<span class=\"" + DEFAULT_CLASS_TRUNCATION + "\"> &hellip; </span>");
+        } else if (page != pageNumber) {
+            // Not the current page: print a link
+            out.append("<a class=\"" + DEFAULT_CLASS_PAGE_NUMBERED + "\" href=\"")
+                    .append(getPageUriTemplate()).append(String.valueOf((page - 1) * itemsPerPage))
+                    .append("\">").append(String.valueOf(page)).append("</a>");
+        } else {
+            // The current page: no link
+            out.append("<span class=\"" + DEFAULT_CLASS_PAGE_CURRENT + "\">").append(String.valueOf(page)).append("</span>");
+        }
+    }
+    
+    /**
+     * Gets the (escaped) URI to any numbered page, up to and including 
+     * "start=", creating it if necessary.
+     * <p>
+     * The URI is the same for all pages, except the start value, so it is 
+     * created only once.
+     * 
+     * @return The (escaped) URI to any numbered page, up to and including "start=".
+     */
+    private String getPageUriTemplate() {
+        if (pageUriTemplate == null) {
+            pageUriTemplate = StringEscapeUtils.escapeHtml(
+                    appendToBase(
+                        APIUtil.toParameterString(serviceParamsFree, APIService.Param.START_AT)
+                        + "&" + APIService.Param.START_AT + "="
+                    )
+            );
+        }
+        return pageUriTemplate;
+    }
+    
     /**
      * Gets the default pagination HTML.
      * 
      * @return The default pagination HTML.
+     * @see #writePaginationHtml(java.lang.Appendable) 
      */
     public String getPaginationHtml() {
-        String s = "";
+        StringBuilder sb = new StringBuilder(1024);
+        try {
+            writePaginationHtml(sb);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the default pagination HTML to the given target, e.g. the JSP 
+     * output.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails.
+     * @see #getPaginationHtml() 
+     */
+    public void writePaginationHtml(Appendable out) throws IOException {
         if (totalResults > 0) {
             if (pagesTotal > 1) {
-                s += "\n<nav class=\"" + DEFAULT_CLASS_PAGINATION + " clearfix\">";
-                s += "\n<!--<span class=\"" + DEFAULT_CLASS_PAGINATION_INFO + "\">Page " + pageNumber + " of " + pagesTotal + "</span>-->";
-                    //s += "\n<!--<span class=\"pagination__info\">Page " + pageNumber + " of " + pagesTotal + "</span>-->";
-                    s += "\n<div class=\"" + DEFAULT_CLASS_PAGE_PREV_WRAPPER + "\">";
-                    //s += "\n<div class=\"pagePrevWrap pagination__page-wrap pagination__page-wrap--prev\">";
-                        s += prevPage();
-                    s += "\n</div>";
-                    s += "\n<div class=\"" + DEFAULT_CLASS_PAGES_NUMBERED_WRAPPER + "\">";
-                    //s += "\n<div class=\"pageNumWrap pagination__page-wrap pagination__page-wrap--numbers\">";
-                        for (String inBetweenLink : inBetweenPages()) {
-                            s += inBetweenLink;
-                        }
-                    s += "\n</div>";
-                    s += "\n<div class=\"" + DEFAULT_CLASS_PAGE_NEXT_WRAPPER + "\">";
-                    //s += "\n<div class=\"pageNextWrap pagination__page-wrap pagination__page-wrap--next\">";
-                        s += nextPage();
-                    s += "\n</div>";
-                s += "\n</nav>";
+                out.append("\n<nav class=\"" + DEFAULT_CLASS_PAGINATION + " clearfix\">");
+                out.append("\n<!--<span class=\"" + DEFAULT_CLASS_PAGINATION_INFO + "\">Page ").append(String.valueOf(pageNumber))
+                        .append(" of ").append(String.valueOf(pagesTotal)).append("</span>-->");
+                    out.append("\n<div class=\"" + DEFAULT_CLASS_PAGE_PREV_WRAPPER + "\">");
+                        out.append(prevPage());
+                    out.append("\n</div>");
+                    out.append("\n<div class=\"" + DEFAULT_CLASS_PAGES_NUMBERED_WRAPPER + "\">");
+                        writeInBetweenPages(out);
+                    out.append("\n</div>");
+                    out.append("\n<div class=\"" + DEFAULT_CLASS_PAGE_NEXT_WRAPPER + "\">");
+                        out.append(nextPage());
+                    out.append("\n</div>");
+                out.append("\n</nav>");
             }
         }
-        return s;
     }
     
     /**
@@ -334,6 +466,7 @@ public class SearchResultsPagination {
      */
     public SearchResultsPagination setBaseUri(String newBaseUri) {
         baseUri = newBaseUri;
+        pageUriTemplate = null;
         return this;
     }
     
@@ -1,10 +1,11 @@
 package no.npolar.data.api;
 
+import java.io.IOException;
 //import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 //import java.util.Arrays;
 //import java.util.Collection;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -16,6 +17,7 @@ import java.util.ResourceBundle;
 //import java.util.TreeSet;
 import no.npolar.data.api.mosj.HighchartsChart;
 import no.npolar.data.api.util.APIUtil;
+import no.npolar.data.api.util.NumberWriter;
 import org.opencms.json.JSONArray;
 import org.opencms.json.JSONException;
 import org.opencms.json.JSONObject;
@@ -26,7 +28,9 @@ import org.apache.commons.logging.LogFactory;
  * Represents a time series, which is in essence a collection (list) of data 
  * points, plus metadata like keywords, attribution info, etc.
  * <p>
- * Data points are stored internally as {@link TimeSeriesDataPoint} instances. 
+ * Data points are stored internally in primitive arrays (see 
+ * {@link TimeSeriesDataColumns}), and exposed as {@link TimeSeriesDataPoint} 
+ * instances that are created on demand. 
  * <p>
  * The time series also contains a <strong>title</strong>, <strong>datetime 
  * accuracy</strong> (for the data points), and various other meta data.
@@ -52,6 +56,10 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
     public static final String PATTERN_DATE_API = "yyyy-MM-dd'T'HH:mm:ss'Z'"; // 1871-06-01T12:00:00Z
     ///** Pattern that matches "ISO date" dates. Used by the API. */
     //public static final String PATTERN_ISODATE_API = "yyyy-MM-dd";
+    /** The number format pattern used for values in CSV exports. */
+    public static final String NUMBER_FORMAT_CSV = "#.####";
+    /** The number format pattern used for values in HTML tables. */
+    public static final String NUMBER_FORMAT_TABLE = "#.####";
     
     //** The ID for this time series, as read from the API. */
     //private String id = null;
@@ -67,12 +75,12 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
     //private List<TimeSeriesDataPoint> dataPoints = null;
     //private TreeSet<TimeSeriesDataPoint> dataPoints = null;
     
-    /** The timestamps in this series. */
-    private List<TimeSeriesTimestamp> timestamps = null;
+    //private List<TimeSeriesTimestamp> timestamps = null;
     //private TreeSet<TimeSeriesTimestamp> timestamps = null;
         
-    /** The data points in this series. */
-    private List<TimeSeriesDataPoint> dataPoints = null;
+    /** The data points (and timestamps) in this series, stored column-wise. */
+    private TimeSeriesDataColumns data = null;
+    //private List<TimeSeriesDataPoint> dataPoints = null;
     //private TreeMap<TimeSeriesTimestamp, TimeSeriesDataPoint> timeSeriesData = null;
     //private Map<TimeSeriesTimestamp, TimeSeriesDataPoint> timeSeriesData = null;
     
@@ -445,7 +453,7 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
         super(o, displayLocale);
         //apiStructure = o;
         //this.displayLocale = displayLocale;
-        //labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        //labels = Labels.getBundle(displayLocale);
         //dataPoints = new ArrayList<TimeSeriesDataPoint>();
         //dataPoints = new TreeSet<TimeSeriesDataPoint>(TimeSeriesDataPoint.COMPARE_TIMESTAMP);
         if (this.id == null) {
@@ -909,7 +917,7 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
         // No label explicitly defined - fallback to default..?
         if (DEFAULT_LABEL_KEYS.containsKey(variableName)) {
             if (this.labels == null) {
-                this.labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+                this.labels = Labels.getBundle(displayLocale);
             }
             try {
                 return labels.getString(DEFAULT_LABEL_KEYS.get(variableName));
@@ -1064,13 +1072,15 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
             
             numDataPoints = dataPointsJSONArr.length();
             
-            dataPoints = new ArrayList<TimeSeriesDataPoint>(numDataPoints); // new
-            
-            timestamps = new ArrayList<TimeSeriesTimestamp>(numDataPoints);
+            data = new TimeSeriesDataColumns(numDataPoints, displayLocale);
             //timestamps = new TreeSet<TimeSeriesTimestamp>(TimeSeriesTimestamp.CHRONOLOGICAL);
             
             //timeSeriesData = new TreeMap<TimeSeriesTimestamp, TimeSeriesDataPoint>(TimeSeriesTimestamp.CHRONOLOGICAL);
             
+            // Set to false if the API delivers the data points out of order
+            boolean chronological = true;
+            TimeSeriesDataPoint previous = null;
+            
             for (int i = 0; i < numDataPoints; i++) {
                 try {
                     JSONObject dataPointJSON = dataPointsJSONArr.getJSONObject(i);
@@ -1211,6 +1221,10 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
                     //timeSeriesData.put(timestamp, dp);
                     //*/
                     addDataPoint(dp);
+                    if (chronological && previous != null && TimeSeriesDataPoint.COMPARE_TIMESTAMP.compare(previous, dp) > 0) {
+                        chronological = false;
+                    }
+                    previous = dp;
                 } catch (Exception e) {
                     if (LOG.isErrorEnabled()) {
                         LOG.error("Undefined error adding data point for time series " + this.getId(), e);
@@ -1226,6 +1240,12 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
                     //System.out.println("NOT breaking out.");
                 }//*/
             } // for-loop
+            
+            // Everything that walks the data points alongside the time markers 
+            // (e.g. the CSV rows) relies on chronological order
+            if (!chronological) {
+                data.sort(TimeSeriesDataPoint.COMPARE_TIMESTAMP);
+            }
         //}
         return this;
     }
@@ -1251,10 +1271,8 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
             this.hasMin = true;
         }
         
-        // Add the data point
-        dataPoints.add(dp);
-        // Add the timestamp
-        timestamps.add(dp.getTimestamp());
+        // Add the data point (and its timestamp)
+        data.add(dp);
         // Update extreme values of this series
         updateExtremeValues(dp);
         return this;
@@ -1271,7 +1289,7 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
     public synchronized TimeSeries addDataPoint(TimeSeriesDataPoint dp, boolean sortAfter) {
         addDataPoint(dp);
         if (sortAfter) {
-            Collections.sort(dataPoints, TimeSeriesDataPoint.COMPARE_TIMESTAMP);
+            data.sort(TimeSeriesDataPoint.COMPARE_TIMESTAMP);
         }
         return this;
     }
@@ -1366,13 +1384,18 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
     public boolean isIntegerValuesOnlySeries() { return !this.isDecimalValueSeries; }
     
     /**
-     * @return The list of data points in this time series.
+     * Gets the timestamps of all the data points in this time series.
+     * <p>
+     * The returned list is a read-only view; each timestamp is created when 
+     * it is accessed.
+     * 
+     * @return The timestamps of all the data points in this time series.
      */    
     public List<TimeSeriesTimestamp> getTimestamps() {
     //public TreeSet<TimeSeriesTimestamp> getTimestamps() {
     //public TreeSet<TimeSeriesDataPoint> getDataPoints() /*throws JSONException*/ { return dataPoints; }
     //public List<TimeSeriesDataPoint> getDataPoints() /*throws JSONException*/ { return dataPoints; }
-        return timestamps;
+        return data.getTimestamps();
     }
     
     /**
@@ -1386,24 +1409,47 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
     public TimeSeriesDataPoint getDataPointForTimeMarker(TimeSeriesTimestamp timeMarker) {
         //return timeSeriesData.get(timeMarker);
         //*
-        Iterator<TimeSeriesDataPoint> iDataPoints = getDataPoints().iterator();
-        while (iDataPoints.hasNext()) {
-            TimeSeriesDataPoint dataPoint = iDataPoints.next();
-            if (dataPoint.getTimestamp().equals(timeMarker)) {
-                return dataPoint;
-            }
-        }
-        return null;
+        int i = data.indexOf(timeMarker);
+        return i < 0 ? null : data.getDataPoint(i);
         //*/
     }
     
+    /**
+     * Gets the data points for the given time markers, in one go.
+     * <p>
+     * Given time markers in chronological order (e.g.
+     * {@link TimeSeriesCollection#getTimeMarkers()}), this is a single pass
+     * over this series' timestamp index, rather than one lookup per time
+     * marker.
+     *
+     * @param timeMarkers The time markers to get the data points for.
+     * @return The data points, in the iteration order of the given time markers, with <code>null</code> for each time marker that has no data in this series.
+     * @see #getDataPointForTimeMarker(no.npolar.data.api.TimeSeriesTimestamp)
+     */
+    public TimeSeriesDataPoint[] getDataPointsForTimeMarkers(Collection<TimeSeriesTimestamp> timeMarkers) {
+        int[] positions = data.indexesOf(timeMarkers);
+        TimeSeriesDataPoint[] dataPoints = new TimeSeriesDataPoint[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] >= 0) {
+                dataPoints[i] = data.getDataPoint(positions[i]);
+            }
+        }
+        return dataPoints;
+    }
+
     /**
      * Gets all the data points in this time series.
+     * <p>
+     * The data points are stored column-wise(in primitive arrays), and the 
+     * returned list is a read-only view: each data point is created when it 
+     * is accessed. Modifying a data point obtained here does not modify this 
+     * time series.
      * 
      * @return All the data points in this time series, or an empty list if none.
+     * @see #addDataPoint(no.npolar.data.api.TimeSeriesDataPoint, boolean) 
      */
     public List<TimeSeriesDataPoint> getDataPoints() {
-        return dataPoints;
+        return data.getDataPoints();
     }
     
     //public TimeSeriesDataPoint removeDataPointForTimeMarker(TimeSeriesTimestamp timeMarker) {
@@ -1444,68 +1490,99 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
      * 
      * @param tsc The time series collection comprised in the table.
      * @return This time series, as an HTML table row string.
+     * @see #writeDataPointsAsTableRows(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection) 
      */
     public String getDataPointsAsTableRow(TimeSeriesCollection tsc) {
-        String s = "";
-        
-        if (this.isTrendLine())
-            return s;
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeDataPointsAsTableRows(sb, tsc);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the data points in this time series as HTML table rows - one row 
+     * per value type (e.g. value, low and high) - to the given target.
+     * <p>
+     * The time series collection is required to know which time markers are 
+     * used in the table.
+     * <p>
+     * The data points for all time markers are looked up once, for all rows,
+     * through this series' timestamp index, so this does not depend on the
+     * order of the data points.
+     * 
+     * @param out The target to write to.
+     * @param tsc The time series collection comprised in the table.
+     * @throws IOException If writing fails.
+     * @see TimeSeriesCollection#writeTable(java.lang.Appendable, java.lang.String, java.lang.String) 
+     */
+    public void writeDataPointsAsTableRows(Appendable out, TimeSeriesCollection tsc) throws IOException {
+        if (this.isTrendLine()) {
+            return;
+        }
         
+        int numRows;
+        String[] rowStarts;
+        TimeSeriesDataPoint[] cells;
         try {
-            ArrayList<String> rows = new ArrayList<String>();
-            for (int i = 0; i < getValuesPerDataPoint(); i++) {
-                rows.add("");
+            numRows = getValuesPerDataPoint();
+            if (numRows < 1) {
+                out.append("<!-- No data points in time series " + this.getId() + " -->\n");
+                return;
+            }
+            if (tsc.getTimeMarkers().isEmpty()) {
+                return;
             }
             
-            //s += "<!-- Total rows: " + rows.size() + ", this.getUnit().getShortForm()=" + this.getUnit().getShortForm() + " -->\n";
-
-            Iterator<TimeSeriesTimestamp> iTimeMarker = tsc.getTimeMarkerIterator();
-
-            while (iTimeMarker.hasNext()) {
-                TimeSeriesTimestamp timeMarker = iTimeMarker.next();
-                
-                //s += "<!-- getting data for " + timeMarker + " ... -->\n";
-                
-                TimeSeriesDataPoint dataPoint = getDataPointForTimeMarker(timeMarker);
-                
-                for (int i = 0; i < getValuesPerDataPoint(); i++) { // Must use getValuesPerDataPoint because dataPoint might be null
-                    if (rows.get(i).isEmpty()) {
-                        //s += "<!-- label appendix is " + getLabelFor(getValueAPIKey(i)) + " -->\n";
-                        String rowStart = "<tr>"
-                                + "<th scope=\"row\">"
-                                + "<span class=\"tr-time-series-title\">" 
-                                    + getLabel() 
-                                    + (i > 0 ? " (".concat(getLabelFor(getValueAPIKey(i))).concat(")") : "") 
-                                + "</span>"
-                                + "</th>";
-                        rowStart += "<td>"
-                                + "<span class=\"tr-time-series-unit\">" 
-                                    + getUnit().getShortForm() 
-                                + "</span>"
-                                + "</td>";
-                        rowStart += "<td>"
-                                + "<span class=\"tr-time-series-data-supplier\">" 
-                                    + getAuthorsString()
-                                + "</span>"
-                                + "</td>";
-                        rows.set(i, rowStart);
-                    }
-                    rows.set(i, rows.get(i) + "<td>" + (dataPoint == null ? "" : dataPoint.get(i, "#.####")) + "</td>" + (iTimeMarker.hasNext() ? "" : "</tr>\n"));
-                }
-                
+            // Use the time markers in the COLLECTION as the "outer steps"
+            // (This particular series' time markers may be a subset of those)
+            cells = getDataPointsForTimeMarkers(tsc.getTimeMarkers());
+            
+            // The first cells of each row: 
+            //  - the label
+            //  - the unit
+            //  - the data supplier(s)
+            rowStarts = new String[numRows];
+            for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+                rowStarts[rowIndex] = "<tr>"
+                        + "<th scope=\"row\">"
+                        + "<span class=\"tr-time-series-title\">" 
+                            + getLabel() 
+                            + (rowIndex > 0 ? " (".concat(getLabelFor(getValueAPIKey(rowIndex))).concat(")") : "") 
+                        + "</span>"
+                        + "</th>"
+                        + "<td>"
+                        + "<span class=\"tr-time-series-unit\">" 
+                            + getUnit().getShortForm() 
+                        + "</span>"
+                        + "</td>"
+                        + "<td>"
+                        + "<span class=\"tr-time-series-data-supplier\">" 
+                            + getAuthorsString()
+                        + "</span>"
+                        + "</td>";
             }
-            if (!rows.isEmpty()) {
-                Iterator<String> iRows = rows.iterator();
-                while (iRows.hasNext()) {
-                    s += iRows.next();
+        } catch (Exception e) {
+            out.append("<!-- Error creating table row(s) for time series " + this.getId() + ": " + e.getMessage() + " -->\n");
+            return;
+        }
+        
+        // Created once per series, and re-used for all values
+        NumberWriter nw = NumberWriter.forPattern(NUMBER_FORMAT_TABLE, displayLocale);
+        
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            out.append(rowStarts[rowIndex]);
+            for (TimeSeriesDataPoint dataPoint : cells) {
+                out.append("<td>");
+                if (dataPoint != null) {
+                    nw.write(out, dataPoint.get(rowIndex));
                 }
-            } else {
-                s += "<!-- No data points in time series " + this.getId() + " -->\n";
+                out.append("</td>");
             }
-        } catch (Exception e) {
-            s += "<!-- Error creating table row(s) for time series " + this.getId() + ": " + e.getMessage() + " -->\n"; 
+            out.append("</tr>\n");
         }
-        return s;
     }
     
     /**
@@ -1516,133 +1593,104 @@ public class TimeSeries extends APIEntry implements Comparable<TimeSeries> /*API
      * 
      * @param tsc The time series collection comprised in the table.
      * @return This time series, as a CSV row string.
+     * @see #writeDataPointsAsCSVRows(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection) 
      */
     public String getDataPointsAsCSVRow(TimeSeriesCollection tsc) {
-        String s = "";
-        
-        if (this.isTrendLine())
-            return s;
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeDataPointsAsCSVRows(sb, tsc);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the data points in this time series as CSV rows - one row per 
+     * value type (e.g. value, low and high) - to the given target.
+     * <p>
+     * The time series collection is required to know which time markers are 
+     * used in the table.
+     * <p>
+     * Each row is written in a single pass, by traversing the time markers 
+     * AND the data points in this time series, and writing empty values for 
+     * any time marker that is not used in this series. This routine requires 
+     * that the data points in this series are sorted in chronological order 
+     * (they should always be).
+     * 
+     * @param out The target to write to.
+     * @param tsc The time series collection comprised in the table.
+     * @throws IOException If writing fails.
+     * @see TimeSeriesCollection#writeCSV(java.io.Writer) 
+     */
+    public void writeDataPointsAsCSVRows(Appendable out, TimeSeriesCollection tsc) throws IOException {
+        if (this.isTrendLine()) {
+            return;
+        }
         
+        int numRows;
+        String[] rowStarts;
+        List<TimeSeriesDataPoint> dps;
         try {
-            int numRows = getValuesPerDataPoint();
-            
-            ArrayList<String> rows = new ArrayList<String>(numRows);
-            for (int i = 0; i < numRows; i++) {
-                rows.add("");
+            dps = getDataPoints();
+            if (dps.isEmpty() || tsc.getTimeMarkers().isEmpty()) {
+                return;
             }
             
-            //s += "<!-- Total rows: " + rows.size() + ", this.getUnit().getShortForm()=" + this.getUnit().getShortForm() + " -->\n";
-
-            // New, tweaked routine: 
-            // Instead of calling getDataPointForTimeMarker(...), we traverse
-            // the time markers AND the data points in this time series,
-            // and spit out empty values for any time marker that is not used in 
-            // this series.
-            // This tweak should mean an improvement from O(n^2) to O(n)
-            // (The biggest collection tested went from ~2300ms to ~1800ms)
-            // 
-            // NOTE: This routine does require that all the time markers in this 
-            // series are already sorted in chronologial order! (They should 
-            // always be.)
-            
-            Iterator<TimeSeriesTimestamp> iTimeMarker = tsc.getTimeMarkerIterator();
-            List<TimeSeriesDataPoint> dps = getDataPoints();
-            
-            // Get a reference to the first data point in this series
-            int dataPointIndex = 0;
-            TimeSeriesDataPoint dataPoint = dps.get(dataPointIndex);
-            
-            // Use the time markers in the COLLECTION as the "outer steps" 
-            // (This particular series' time markers may be a subset of those)
-            while (iTimeMarker.hasNext()) {
-                TimeSeriesTimestamp timeMarker = iTimeMarker.next();
-                boolean timeMarkerMatchesDataPoint = false;
-                
-                // Process the 1-5 values in the data point. Each value will
-                // have 1 row.
-                // For example:
-                // Value (high);mg;2;3;5;4
-                //        Value;mg;1;2;4;3
-                //  Value (low);mg;0;1;3;2
-                for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
-                    String rowContent = rows.get(rowIndex);
-                    // If this row is empty, we add the first "cells", that is: 
-                    //  - the short-form label
-                    //  - the unit
-                    if (rowContent.isEmpty()) {
-                        //s += "<!-- label appendix is " + getLabelFor(getValueAPIKey(i)) + " -->\n";
-                        rowContent += APIUtil.escapeCSV(
+            // The first "cells" of each row: 
+            //  - the short-form label
+            //  - the unit
+            //  - the data supplier(s)
+            numRows = getValuesPerDataPoint();
+            rowStarts = new String[numRows];
+            for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+                rowStarts[rowIndex] = APIUtil.escapeCSV(
                                 this.getLabel(displayLocale) 
                                 + (rowIndex > 0 
                                         ? 
                                         " (".concat(getLabelFor(getValueAPIKey(rowIndex))).concat(")") 
                                         : 
                                         "")
-                        ) + ";";
-                        rowContent += APIUtil.escapeCSV(this.getUnit().getShortForm()) + ";";
-                        rowContent += APIUtil.escapeCSV(this.getAuthorsString()) + ";";
-                    }
-                    
-                    if (dataPoint == null || dataPoint.getTimestamp() == null) {
-                        rowContent += "";
-                    } else {
-                        if (dataPoint.getTimestamp().equals(timeMarker)) {
-                            rowContent += dataPoint.get(rowIndex, "#.####");
-                            timeMarkerMatchesDataPoint = true;
-                        } else {
-                            rowContent += "";
-                        }
-                    }
-                    
-                    rows.set(rowIndex, rowContent.concat(iTimeMarker.hasNext() ? ";" : "\n"));
-                }
-                
-                if (timeMarkerMatchesDataPoint) {
-                    try {
-                        // Move on to the next data point
-                        dataPoint = dps.get(++dataPointIndex);
-                    } catch (Exception e) {
-                        // = Index out of bounds = No more data points
-                    }
-                }
+                        ) + ";"
+                        + APIUtil.escapeCSV(this.getUnit().getShortForm()) + ";"
+                        + APIUtil.escapeCSV(this.getAuthorsString()) + ";";
             }
+        } catch (Exception e) {
+            // Nothing written
+            return;
+        }
+        
+        // Created once per series, and re-used for all values
+        NumberWriter nw = NumberWriter.forPattern(NUMBER_FORMAT_CSV, displayLocale);
+        
+        // Process the 1-5 values in the data points. Each value will
+        // have 1 row.
+        // For example:
+        // Value (high);mg;2;3;5;4
+        //        Value;mg;1;2;4;3
+        //  Value (low);mg;0;1;3;2
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            out.append(rowStarts[rowIndex]);
             
-            /*
-            // Original, sub-optimal routine
-            Iterator<TimeSeriesTimestamp> iTimeMarker = tsc.getTimeMarkerIterator();
+            // Get a reference to the first data point in this series
+            int dataPointIndex = 0;
+            TimeSeriesDataPoint dataPoint = dps.get(dataPointIndex);
             
+            // Use the time markers in the COLLECTION as the "outer steps" 
+            // (This particular series' time markers may be a subset of those)
+            Iterator<TimeSeriesTimestamp> iTimeMarker = tsc.getTimeMarkerIterator();
             while (iTimeMarker.hasNext()) {
                 TimeSeriesTimestamp timeMarker = iTimeMarker.next();
-                
-                //s += "<!-- getting data for " + timeMarker + " ... -->\n";
-                
-                TimeSeriesDataPoint dataPoint = getDataPointForTimeMarker(timeMarker);
-                
-                for (int i = 0; i < numRows; i++) { // Must use getValuesPerDataPoint because dataPoint might be null
-                    if (rows.get(i).isEmpty()) {
-                        //s += "<!-- label appendix is " + getLabelFor(getValueAPIKey(i)) + " -->\n";
-                        String rowStart = APIUtil.escapeCSV(this.getLabel(displayLocale) + (i > 0 ? " (".concat(getLabelFor(getValueAPIKey(i))).concat(")") : "")) + ";";
-                        rowStart += APIUtil.escapeCSV(this.getUnit().getShortForm()) + ";";
-                        rows.set(i, rowStart);
-                    }
-                    rows.set(i, rows.get(i) + (dataPoint == null ? "" : dataPoint.get(i, "#.####")) + (iTimeMarker.hasNext() ? ";" : "\n"));
+                if (dataPoint != null 
+                        && dataPoint.getTimestamp() != null 
+                        && dataPoint.getTimestamp().equals(timeMarker)) {
+                    nw.write(out, dataPoint.get(rowIndex));
+                    // Move on to the next data point
+                    dataPoint = ++dataPointIndex < dps.size() ? dps.get(dataPointIndex) : null;
                 }
-                
-            }
-            //*/
-            if (!rows.isEmpty()) {
-                Iterator<String> iRows = rows.iterator();
-                while (iRows.hasNext()) {
-                    s += iRows.next();
-                }
-            } else {
-                //s += "<!-- No data points in time series " + this.getId() + " -->\n";
+                out.append(iTimeMarker.hasNext() ? ";" : "\n");
             }
-        } catch (Exception e) {
-            //s += "<!-- Error creating CSV row(s) for time series " + this.getId() + ": " + e.getMessage() + " -->\n"; 
         }
-        
-        return s;
     }
     
     /**
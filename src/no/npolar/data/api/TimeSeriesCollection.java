@@ -1,5 +1,11 @@
 package no.npolar.data.api;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 //import java.text.SimpleDateFormat;
 import java.util.List;
 import java.util.ArrayList;
@@ -113,7 +119,7 @@ public class TimeSeriesCollection {
         this.setTimeSeries(tss);
         this.title = title;
         this.url = url;
-        this.labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        this.labels = Labels.getBundle(displayLocale);
     }
     
     /**
@@ -252,23 +258,14 @@ public class TimeSeriesCollection {
     /**
      * Exports all time series data in this collection to a comma-separated 
      * format, which can then be used to form the content of a (download) file.
+     * <p>
+     * For large collections, consider streaming the content instead.
      * 
      * @return All time series data as CSV content.
+     * @see #writeCSV(java.io.Writer) 
      */
     public String getAsCSV() {
-        String s = "";
-        try {
-            //long a = System.currentTimeMillis();
-            s += getCSVRows();
-            //long b = System.currentTimeMillis();
-            //System.out.println("CSV export took " + (b-a) + "ms.");
-        } catch (Exception e) {
-            //e.printStackTrace();
-            if (LOG.isErrorEnabled()) {
-                LOG.error("Unable to create CSV content from time series collection at " + getURL(), e);
-            }
-        }
-        return s;
+        return getCSVRows();
     }
     
     /**
@@ -276,39 +273,76 @@ public class TimeSeriesCollection {
      * data.
      * 
      * @return CSV rows containing the data in the given time series collection.
+     * @see #writeCSV(java.io.Writer) 
      */
     protected String getCSVRows() {
-        String s = "";
+        StringWriter sw = new StringWriter();
+        try {
+            writeCSV(sw);
+        } catch (IOException e) {
+            // Not thrown by StringWriter
+        }
+        return sw.toString();
+    }
+    
+    /**
+     * Exports all time series data in this collection to a comma-separated 
+     * format, writing it to the given stream as UTF-8.
+     * <p>
+     * The stream is flushed, but not closed.
+     * 
+     * @param out The stream to write to, e.g. the response of a (download) request.
+     * @throws IOException If writing fails.
+     * @see #writeCSV(java.io.Writer) 
+     */
+    public void writeCSV(OutputStream out) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, APIService.SERVICE_CHARSET));
+        writeCSV(w);
+        w.flush();
+    }
+    
+    /**
+     * Exports all time series data in this collection to a comma-separated 
+     * format, writing it to the given target.
+     * <p>
+     * The content is written while it is being generated, one row at a time, 
+     * so the memory footprint does not grow with the size of the collection.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails.
+     * @see TimeSeries#writeDataPointsAsCSVRows(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection) 
+     */
+    public void writeCSV(Writer out) throws IOException {
         try {
             if (timeSeriesList != null && !timeSeriesList.isEmpty()) {
                 // heading
-                s += labels.getString(Labels.TIME_SERIES_TITLE_0) + ";" 
-                        + labels.getString(Labels.TIME_SERIES_UNIT_0) + ";"
-                        + labels.getString(Labels.TIME_SERIES_DATA_SUPPLIER_0) + ";"
-                        ;
+                out.write(labels.getString(Labels.TIME_SERIES_TITLE_0));
+                out.write(';');
+                out.write(labels.getString(Labels.TIME_SERIES_UNIT_0));
+                out.write(';');
+                out.write(labels.getString(Labels.TIME_SERIES_DATA_SUPPLIER_0));
+                out.write(';');
                 
                 // The columns, based on timestamps (i.e. years)
                 Iterator<TimeSeriesTimestamp> iTimeMarkers = getTimeMarkerIterator();
                 while (iTimeMarkers.hasNext()) {
-                    s += "" + iTimeMarkers.next();
-                    s += iTimeMarkers.hasNext() ? ";" : "\n";
+                    out.write(String.valueOf(iTimeMarkers.next()));
+                    out.write(iTimeMarkers.hasNext() ? ';' : '\n');
                 }
                 
-                
                 for (TimeSeries ts : timeSeriesList) {
-                    s += ts.getDataPointsAsCSVRow(this);
+                    ts.writeDataPointsAsCSVRows(out, this);
                 }
             } else {
                 // No time series data
             }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            //s += "<!-- Error: " + e.getMessage() + " -->\n";
-            //e.printStackTrace();
             if (LOG.isErrorEnabled()) {
                 LOG.error("Error creating CSV of time series collection '" + this.getTitle() + "'.", e);
             }
         }
-        return s;
     }
     
     /**
@@ -327,31 +361,44 @@ public class TimeSeriesCollection {
      * @param tableClass A class name to append to the table.
      * @param tableId A table ID to append to the table.
      * @return An HTML table with all time series data.
+     * @see #writeTable(java.lang.Appendable, java.lang.String, java.lang.String) 
      */
     public String getAsTable(String tableId, String tableClass) {
-        String s = "";
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeTable(sb, tableId, tableClass);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes an HTML table with all time series data to the given target.
+     * <p>
+     * The table is written while it is being generated, one row at a time, 
+     * so the memory footprint does not grow with the size of the collection.
+     * 
+     * @param out The target to write to.
+     * @param tableId A table ID to append to the table.
+     * @param tableClass A class name to append to the table.
+     * @throws IOException If writing fails.
+     * @see TimeSeries#writeDataPointsAsTableRows(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection) 
+     */
+    public void writeTable(Appendable out, String tableId, String tableClass) throws IOException {
         if (!this.hasAccuracyCompatibleTimeSeries()) {
-            s += "\n<!-- Warning: Multiple time series with differences in units and/or timestamp accuracies. Table will probably not be Highcharts-munchable. -->\n";
+            out.append("\n<!-- Warning: Multiple time series with differences in units and/or timestamp accuracies. Table will probably not be Highcharts-munchable. -->\n");
         }
         
-        s += "<table"
+        out.append("<table"
                 + (tableId != null && !tableId.isEmpty() ? " id=\"" + tableId + "\"" : "")
                 + " class=\"parameter-data-table" + (tableClass != null && !tableClass.isEmpty() ? " ".concat(tableClass) : "") + "\""
-                + ">";
-        s += "\n<caption>" + getTitle() + "</caption>\n";
+                + ">");
+        out.append("\n<caption>" + getTitle() + "</caption>\n");
         
-        try {
-            s += getTableRows();
-        } catch (Exception e) {
-            s += "\n<!-- Error creating table: " + e.getMessage() + " -->\n";
-            //e.printStackTrace();
-            if (LOG.isErrorEnabled()) {
-                LOG.error("Unable to create table from time series collection at " + getURL() + ".", e);
-            }
-        }
+        writeTableRows(out);
         
-        s += "</table>";
-        return s;
+        out.append("</table>");
     }
     
     /**
@@ -359,19 +406,36 @@ public class TimeSeriesCollection {
      * data.
      * 
      * @return HTML table rows containing the data in the given time series collection.
+     * @see #writeTableRows(java.lang.Appendable) 
      */
     protected String getTableRows() {
-        String s = "";
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeTableRows(sb);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes table rows containing the data in this time series collection to 
+     * the given target.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails.
+     */
+    protected void writeTableRows(Appendable out) throws IOException {
         try {
             if (timeSeriesList != null && !timeSeriesList.isEmpty()) {
-                s += "<thead>\n<tr>"
+                out.append("<thead>\n<tr>"
                         + "<th scope=\"col\">&nbsp;</th>"
                         + "<th scope=\"col\">" 
                             + labels.getString(Labels.TIME_SERIES_UNIT_0) 
                         + "</th>"
                         + "<th scope=\"col\">" 
                             + labels.getString(Labels.TIME_SERIES_DATA_SUPPLIER_0) 
-                        + "</th>";
+                        + "</th>");
                 
                 // The columns, based on timestamps (i.e. years)
                 Iterator<TimeSeriesTimestamp> iTimeMarkers = getTimeMarkerIterator();
@@ -379,37 +443,37 @@ public class TimeSeriesCollection {
                     // The span is vital for Highcharts (but the class name is 
                     // arbitrary), if it is to use this table as a base for 
                     // building a chart
-                    s += "<th scope=\"col\">"
-                            + "<span class=\"hs-time-marker\">" 
-                                + iTimeMarkers.next() 
-                            + "</span>"
-                        + "</th>";
+                    out.append("<th scope=\"col\">"
+                            + "<span class=\"hs-time-marker\">");
+                    out.append(String.valueOf(iTimeMarkers.next()));
+                    out.append("</span>"
+                        + "</th>");
                 }
-                s += "</tr>\n</thead>\n";
+                out.append("</tr>\n</thead>\n");
                 
-                s += "<tbody>\n";
+                out.append("<tbody>\n");
                 
                 if (!timeSeriesList.isEmpty()) {
                     Iterator<TimeSeries> iTimeSeries = timeSeriesList.iterator();
                     while (iTimeSeries.hasNext()) {
                         TimeSeries ts = iTimeSeries.next();
-                        //s += "<!-- time series: " + ts.getTitle() + " - " + ts.getId() + " -->\n";
-                        s += ts.getDataPointsAsTableRow(this);
+                        ts.writeDataPointsAsTableRows(out, this);
                     }
                 } else {
-                    s += "<!-- No time series data! -->\n";
+                    out.append("<!-- No time series data! -->\n");
                 }
-                s += "</tbody>\n";
+                out.append("</tbody>\n");
             } else {
-                s += "<!-- No time series data! -->";
+                out.append("<!-- No time series data! -->");
             }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            s += "<!-- Error: " + e.getMessage() + " -->\n";
+            out.append("<!-- Error: " + e.getMessage() + " -->\n");
             if (LOG.isErrorEnabled()) {
                 LOG.error("Error creating html table for time series collection described at " + getURL() + ".", e);
             }
         }
-        return s;
     }
     
     /**
@@ -609,7 +673,11 @@ public class TimeSeriesCollection {
      * For example, the first time series in the list will be at index 0 in the 
      * returned array. The second time series in the list will be at index 1, 
      * and so on.
-     * 
+     * <p>
+     * Each time series' data points are indexed by timestamp, so this is a
+     * logarithmic-time lookup per time series, not a scan. To get the data
+     * points for all time markers, use {@link #getDataPointsForTimeMarkers()}.
+     *
      * @param timeMarker The time marker to get data points for.
      * @return Every data point (from all time series) for the given time marker.
      */
@@ -619,11 +687,38 @@ public class TimeSeriesCollection {
         int i = 0;
         Iterator<TimeSeries> iTimeSeries = timeSeriesList.iterator();
         while (iTimeSeries.hasNext()) {
-            dataPoints[i] = iTimeSeries.next().getDataPointForTimeMarker(timeMarker);
+            dataPoints[i++] = iTimeSeries.next().getDataPointForTimeMarker(timeMarker);
         }
         return dataPoints;
     }
     
+    /**
+     * Gets all data points in this collection, aligned by time marker: one
+     * row per time marker, in the order of {@link #getTimeMarkers()}, and one
+     * cell per time series, in the order of {@link #getTimeSeries()}.
+     * <p>
+     * A cell is <code>null</code> if that time series has no data for that
+     * time marker.
+     * <p>
+     * Each time series is joined with the time markers in a single pass over
+     * its timestamp index (see
+     * {@link TimeSeries#getDataPointsForTimeMarkers(java.util.Collection)}),
+     * rather than one lookup per time marker.
+     *
+     * @return All data points in this collection, indexed by time marker, then by time series.
+     */
+    public TimeSeriesDataPoint[][] getDataPointsForTimeMarkers() {
+        int numSeries = timeSeriesList.size();
+        TimeSeriesDataPoint[][] rows = new TimeSeriesDataPoint[allTimestamps.size()][numSeries];
+        for (int s = 0; s < numSeries; s++) {
+            TimeSeriesDataPoint[] column = timeSeriesList.get(s).getDataPointsForTimeMarkers(allTimestamps);
+            for (int m = 0; m < column.length; m++) {
+                rows[m][s] = column[m];
+            }
+        }
+        return rows;
+    }
+
     /**
      * Gets the author string, compiled from the time series in this collection. 
      * 
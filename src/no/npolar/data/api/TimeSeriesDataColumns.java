@@ -0,0 +1,492 @@
+package no.npolar.data.api;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Column-oriented (primitive) storage for the data points of a time series.
+ * <p>
+ * Instead of holding one {@link TimeSeriesDataPoint} (and one
+ * {@link TimeSeriesTimestamp}) object per data point, the data is kept in
+ * parallel arrays:
+ * <ul>
+ * <li>timestamps, as epoch values in a <code>long[]</code> (see
+ *  {@link TimeSeriesTimestamp#toEpochMillis()}) plus a <code>byte[]</code>
+ *  holding each timestamp's type;</li>
+ * <li>main values, in a <code>double[]</code>;</li>
+ * <li>high / low / max / min values, each in a <code>double[]</code> plus a
+ *  presence bit set - created only if the series actually has such
+ *  values.</li>
+ * </ul>
+ * Timestamps that have no epoch representation (e.g. the literal
+ * "2015/2016") are kept as-is, in a separate array that is created only when
+ * needed.
+ * <p>
+ * Data point and timestamp objects are created on demand, via the
+ * {@link #getDataPoints() data points} and {@link #getTimestamps() timestamps}
+ * views - and are <em>not</em> kept: Each <code>get(int)</code> on a view
+ * creates a new object (two, for a data point). Callers that access the same
+ * data point repeatedly should hold on to it, rather than get it again.
+ * <p>
+ * Instances are not thread-safe; {@link TimeSeries} synchronizes
+ * modifications.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+class TimeSeriesDataColumns {
+    /** The number of value slots: main, low, high, min, max. */
+    private static final int NUM_VALUES = 5;
+
+    /** The locale assigned to the data points. */
+    private final Locale displayLocale;
+    /** The number of data points. */
+    private int size = 0;
+    /** The timestamps, as epoch values. */
+    private long[] times;
+    /** The timestamp types. */
+    private byte[] types;
+    /** Timestamps that have no epoch representation, by index. Created on demand. */
+    private TimeSeriesTimestamp[] irregularTimes = null;
+    /** The values, indexed by value identifier. Only the main values exist initially, others are created on demand. */
+    private final double[][] values = new double[NUM_VALUES][];
+    /** Presence flags for the non-main values, indexed by value identifier. Created on demand. */
+    private final BitSet[] present = new BitSet[NUM_VALUES];
+
+    /** Lookup index: the keys of all data points, in ascending order. Built on demand, discarded on modification. */
+    private long[] indexKeys = null;
+    /** Lookup index: the data point positions, ordered as {@link #indexKeys}. */
+    private int[] indexPositions = null;
+    /** Lookup index: the positions of data points whose timestamps have no valid key. */
+    private Map<TimeSeriesTimestamp, Integer> indexIrregular = null;
+
+    /** Read-only view of the data points. */
+    private final DataPointList dataPointList = new DataPointList();
+    /** Read-only view of the timestamps. */
+    private final TimestampList timestampList = new TimestampList();
+
+    /**
+     * Creates new, empty storage.
+     *
+     * @param initialCapacity The initial capacity, typically the number of data points in the backing JSON.
+     * @param displayLocale The locale to assign to the data points.
+     */
+    TimeSeriesDataColumns(int initialCapacity, Locale displayLocale) {
+        int capacity = Math.max(initialCapacity, 1);
+        this.displayLocale = displayLocale;
+        this.times = new long[capacity];
+        this.types = new byte[capacity];
+        this.values[TimeSeriesDataPoint.VALUE_MAIN] = new double[capacity];
+    }
+
+    /**
+     * Adds the given data point.
+     *
+     * @param dp The data point to add.
+     */
+    void add(TimeSeriesDataPoint dp) {
+        ensureCapacity(size + 1);
+        clearIndex();
+        TimeSeriesTimestamp t = dp.getTimestamp();
+        long epoch = t == null ? Long.MIN_VALUE : t.toEpochMillis();
+        times[size] = epoch;
+        types[size] = (byte)(t == null ? TimeSeriesTimestamp.TYPE_LITERAL : t.getType());
+        if (epoch == Long.MIN_VALUE) {
+            if (irregularTimes == null) {
+                irregularTimes = new TimeSeriesTimestamp[times.length];
+            }
+            irregularTimes[size] = t;
+        }
+        values[TimeSeriesDataPoint.VALUE_MAIN][size] = dp.getValue();
+        if (dp.hasLow()) {
+            set(TimeSeriesDataPoint.VALUE_LOW, size, dp.get(TimeSeriesDataPoint.VALUE_LOW));
+        }
+        if (dp.hasHigh()) {
+            set(TimeSeriesDataPoint.VALUE_HIGH, size, dp.get(TimeSeriesDataPoint.VALUE_HIGH));
+        }
+        if (dp.hasMin()) {
+            set(TimeSeriesDataPoint.VALUE_MIN, size, dp.get(TimeSeriesDataPoint.VALUE_MIN));
+        }
+        if (dp.hasMax()) {
+            set(TimeSeriesDataPoint.VALUE_MAX, size, dp.get(TimeSeriesDataPoint.VALUE_MAX));
+        }
+        size++;
+    }
+
+    /**
+     * Gets the number of data points.
+     *
+     * @return The number of data points.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the main value of the data point at the given index.
+     *
+     * @param index The index.
+     * @return The main value.
+     */
+    double getValue(int index) {
+        checkIndex(index);
+        return values[TimeSeriesDataPoint.VALUE_MAIN][index];
+    }
+
+    /**
+     * Gets the timestamp of the data point at the given index.
+     *
+     * @param index The index.
+     * @return The timestamp.
+     */
+    TimeSeriesTimestamp getTimestamp(int index) {
+        checkIndex(index);
+        if (times[index] == Long.MIN_VALUE) {
+            return irregularTimes[index];
+        }
+        return TimeSeriesTimestamp.fromEpochMillis(times[index], types[index]);
+    }
+
+    /**
+     * Creates the data point at the given index.
+     *
+     * @param index The index.
+     * @return The data point.
+     */
+    TimeSeriesDataPoint getDataPoint(int index) {
+        TimeSeriesDataPoint dp = new TimeSeriesDataPoint(getValue(index), getTimestamp(index), displayLocale);
+        if (has(TimeSeriesDataPoint.VALUE_LOW, index)) {
+            dp.setLow(values[TimeSeriesDataPoint.VALUE_LOW][index]);
+        }
+        if (has(TimeSeriesDataPoint.VALUE_HIGH, index)) {
+            dp.setHigh(values[TimeSeriesDataPoint.VALUE_HIGH][index]);
+        }
+        if (has(TimeSeriesDataPoint.VALUE_MIN, index)) {
+            dp.setMin(values[TimeSeriesDataPoint.VALUE_MIN][index]);
+        }
+        if (has(TimeSeriesDataPoint.VALUE_MAX, index)) {
+            dp.setMax(values[TimeSeriesDataPoint.VALUE_MAX][index]);
+        }
+        return dp;
+    }
+
+    /**
+     * Gets a read-only view of the data points.
+     * <p>
+     * Each data point object is created when it is accessed.
+     *
+     * @return A read-only view of the data points.
+     */
+    List<TimeSeriesDataPoint> getDataPoints() {
+        return dataPointList;
+    }
+
+    /**
+     * Gets a read-only view of the timestamps.
+     * <p>
+     * Each timestamp object is created when it is accessed.
+     *
+     * @return A read-only view of the timestamps.
+     */
+    List<TimeSeriesTimestamp> getTimestamps() {
+        return timestampList;
+    }
+
+    /**
+     * Sorts the data points, using the given comparator.
+     *
+     * @param comparator The comparator.
+     */
+    void sort(final Comparator<TimeSeriesDataPoint> comparator) {
+        clearIndex();
+        final TimeSeriesDataPoint[] points = new TimeSeriesDataPoint[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = getDataPoint(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return comparator.compare(points[o1], points[o2]);
+            }
+        });
+
+        long[] sortedTimes = new long[times.length];
+        byte[] sortedTypes = new byte[types.length];
+        TimeSeriesTimestamp[] sortedIrregular = irregularTimes == null ? null : new TimeSeriesTimestamp[irregularTimes.length];
+        double[][] sortedValues = new double[NUM_VALUES][];
+        BitSet[] sortedPresent = new BitSet[NUM_VALUES];
+        for (int v = 0; v < NUM_VALUES; v++) {
+            if (values[v] != null) {
+                sortedValues[v] = new double[values[v].length];
+            }
+            if (present[v] != null) {
+                sortedPresent[v] = new BitSet(times.length);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            sortedTimes[i] = times[from];
+            sortedTypes[i] = types[from];
+            if (sortedIrregular != null) {
+                sortedIrregular[i] = irregularTimes[from];
+            }
+            for (int v = 0; v < NUM_VALUES; v++) {
+                if (sortedValues[v] != null) {
+                    sortedValues[v][i] = values[v][from];
+                }
+                if (sortedPresent[v] != null && present[v].get(from)) {
+                    sortedPresent[v].set(i);
+                }
+            }
+        }
+        times = sortedTimes;
+        types = sortedTypes;
+        irregularTimes = sortedIrregular;
+        System.arraycopy(sortedValues, 0, values, 0, NUM_VALUES);
+        System.arraycopy(sortedPresent, 0, present, 0, NUM_VALUES);
+    }
+
+    /**
+     * Gets the position of the (first) data point with the given timestamp.
+     * <p>
+     * Uses a binary search over the timestamps' primitive keys (see 
+     * {@link TimeSeriesTimestamp#getLookupKey()}), with a hash map fallback for 
+     * timestamps that have no such key (e.g. literals). The index is built on 
+     * first use, and rebuilt only after modifications.
+     *
+     * @param timestamp The timestamp to look up.
+     * @return The position of the data point with the given timestamp, or -1 if none.
+     */
+    synchronized int indexOf(TimeSeriesTimestamp timestamp) {
+        if (timestamp == null) {
+            return -1;
+        }
+        if (indexKeys == null) {
+            buildIndex();
+        }
+        long key = timestamp.getLookupKey();
+        if (key == Long.MIN_VALUE) {
+            Integer pos = indexIrregular.get(timestamp);
+            return pos == null ? -1 : pos;
+        }
+        // Binary search for the first occurrence of the key
+        int lo = 0;
+        int hi = indexKeys.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexKeys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                if (indexKeys[mid] == key) {
+                    found = mid;
+                }
+                hi = mid - 1;
+            }
+        }
+        return found < 0 ? -1 : indexPositions[found];
+    }
+
+    /**
+     * Gets the positions of the (first) data points with the given timestamps,
+     * in one go.
+     * <p>
+     * Timestamps given in chronological order (e.g. a collection's time
+     * markers) are joined with the lookup index in a single, merge-like pass,
+     * instead of being looked up one at a time. Otherwise, the result is the
+     * same as invoking {@link #indexOf(no.npolar.data.api.TimeSeriesTimestamp)}
+     * for each timestamp.
+     *
+     * @param timestamps The timestamps to look up.
+     * @return The positions, in the iteration order of the given timestamps, with -1 for each timestamp that has no data point.
+     */
+    synchronized int[] indexesOf(Collection<TimeSeriesTimestamp> timestamps) {
+        if (indexKeys == null) {
+            buildIndex();
+        }
+        int[] result = new int[timestamps.size()];
+        int i = 0;
+        // The position in the index keys, moving forward only (as long as the keys do)
+        int k = 0;
+        long previousKey = Long.MIN_VALUE;
+        for (TimeSeriesTimestamp timestamp : timestamps) {
+            long key = timestamp == null ? Long.MIN_VALUE : timestamp.getLookupKey();
+            if (key == Long.MIN_VALUE) {
+                Integer pos = timestamp == null ? null : indexIrregular.get(timestamp);
+                result[i++] = pos == null ? -1 : pos;
+                continue;
+            }
+            if (key < previousKey) {
+                // Not chronological: start over
+                k = 0;
+            }
+            previousKey = key;
+            while (k < indexKeys.length && indexKeys[k] < key) {
+                k++;
+            }
+            result[i++] = k < indexKeys.length && indexKeys[k] == key ? indexPositions[k] : -1;
+        }
+        return result;
+    }
+
+    /**
+     * Builds the lookup index.
+     * <p>
+     * Data points are normally already in chronological order, in which case 
+     * no sorting is necessary.
+     */
+    private void buildIndex() {
+        long[] keys = new long[size];
+        int[] positions = new int[size];
+        Map<TimeSeriesTimestamp, Integer> irregular = new HashMap<TimeSeriesTimestamp, Integer>();
+        int n = 0;
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            long key = times[i];
+            if (key == Long.MIN_VALUE && irregularTimes[i] != null) {
+                key = irregularTimes[i].getLookupKey();
+                if (key == Long.MIN_VALUE) {
+                    if (!irregular.containsKey(irregularTimes[i])) {
+                        irregular.put(irregularTimes[i], i);
+                    }
+                    continue;
+                }
+            } else if (key == Long.MIN_VALUE) {
+                continue;
+            }
+            if (n > 0 && key < keys[n - 1]) {
+                sorted = false;
+            }
+            keys[n] = key;
+            positions[n] = i;
+            n++;
+        }
+        keys = Arrays.copyOf(keys, n);
+        positions = Arrays.copyOf(positions, n);
+        if (!sorted) {
+            // Stable sort (by key, then position), so the first occurrence wins
+            final long[] k = keys;
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return k[o1] < k[o2] ? -1 : (k[o1] == k[o2] ? 0 : 1);
+                }
+            });
+            long[] sortedKeys = new long[n];
+            int[] sortedPositions = new int[n];
+            for (int i = 0; i < n; i++) {
+                sortedKeys[i] = keys[order[i]];
+                sortedPositions[i] = positions[order[i]];
+            }
+            keys = sortedKeys;
+            positions = sortedPositions;
+        }
+        indexPositions = positions;
+        indexIrregular = irregular;
+        indexKeys = keys;
+    }
+
+    /**
+     * Discards the lookup index.
+     */
+    private synchronized void clearIndex() {
+        indexKeys = null;
+        indexPositions = null;
+        indexIrregular = null;
+    }
+
+    /**
+     * Checks whether the given (non-main) value exists for the data point at
+     * the given index.
+     *
+     * @param valueKey The value identifier, e.g. {@link TimeSeriesDataPoint#VALUE_HIGH}.
+     * @param index The index.
+     * @return True if the value exists, false if not.
+     */
+    private boolean has(int valueKey, int index) {
+        return present[valueKey] != null && present[valueKey].get(index);
+    }
+
+    /**
+     * Sets a (non-main) value, creating its column if necessary.
+     *
+     * @param valueKey The value identifier, e.g. {@link TimeSeriesDataPoint#VALUE_HIGH}.
+     * @param index The index.
+     * @param value The value.
+     */
+    private void set(int valueKey, int index, double value) {
+        if (values[valueKey] == null) {
+            values[valueKey] = new double[times.length];
+            present[valueKey] = new BitSet(times.length);
+        }
+        values[valueKey][index] = value;
+        present[valueKey].set(index);
+    }
+
+    /**
+     * Grows the columns, if necessary, to hold the given number of data points.
+     *
+     * @param capacity The required capacity.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, times.length + (times.length >> 1));
+        times = Arrays.copyOf(times, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        if (irregularTimes != null) {
+            irregularTimes = Arrays.copyOf(irregularTimes, newCapacity);
+        }
+        for (int v = 0; v < NUM_VALUES; v++) {
+            if (values[v] != null) {
+                values[v] = Arrays.copyOf(values[v], newCapacity);
+            }
+        }
+    }
+
+    /**
+     * Checks that the given index is within bounds.
+     *
+     * @param index The index.
+     * @throws IndexOutOfBoundsException If the index is out of bounds.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * Read-only view of the data points.
+     */
+    private class DataPointList extends AbstractList<TimeSeriesDataPoint> implements RandomAccess {
+        @Override
+        public TimeSeriesDataPoint get(int index) { return getDataPoint(index); }
+        @Override
+        public int size() { return size; }
+    }
+
+    /**
+     * Read-only view of the timestamps.
+     */
+    private class TimestampList extends AbstractList<TimeSeriesTimestamp> implements RandomAccess {
+        @Override
+        public TimeSeriesTimestamp get(int index) { return getTimestamp(index); }
+        @Override
+        public int size() { return size; }
+    }
+}
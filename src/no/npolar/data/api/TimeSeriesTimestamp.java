@@ -3,6 +3,7 @@ package no.npolar.data.api;
 import java.text.SimpleDateFormat;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.TimeZone;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 //import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -15,6 +16,11 @@ import org.apache.commons.logging.LogFactory;
  * <p>
  * Timestamps of "literal" type are used literally as-is, e.g. "2007/2008".
  * <p>
+ * Timestamp strings are recognized by a strict, hand-written parser, which 
+ * determines the type and the primitive (epoch) value in a single pass. 
+ * Anything not recognized as a valid year, month, date or time is considered 
+ * a literal.
+ * <p>
  * Tested on time series stored in the NPIDC. These time series use date or year.
  * 
  * @author Paul-Inge Flakstad, Norwegian Polar Institute <flakstad at npolar.no>
@@ -77,6 +83,8 @@ public class TimeSeriesTimestamp implements Comparable<TimeSeriesTimestamp> {
     private int year = Integer.MIN_VALUE;
     /** Holds the type. */
     private int type = TYPE_UNKNOWN;
+    /** Holds the standard timestamp as a primitive: the milliseconds since 1970-01-01T00:00:00Z, with no time zone applied. */
+    private long epochMillis = Long.MIN_VALUE;
     /** Holds the time. */
     private Date time = null;
     //private String utcDate = null;
@@ -97,6 +105,8 @@ public class TimeSeriesTimestamp implements Comparable<TimeSeriesTimestamp> {
         this.year = year;
         timestamp = "" + this.year + ADDON_FOR_YEAR;
         type = TYPE_YEAR;
+        // Sets the primitive representation (4-digit years only)
+        recognize(original);
     }
     
     /**
@@ -107,10 +117,16 @@ public class TimeSeriesTimestamp implements Comparable<TimeSeriesTimestamp> {
      */
     public TimeSeriesTimestamp(long millis) {
         this.original = String.valueOf(millis);
-        Date tempDate = new Date(millis);
-        timestamp = DATE_FORMAT_STANDARD.format(tempDate);
-        year = Integer.parseInt(timestamp.substring(0, 4));
+        // The standard timestamp holds the wall-clock time in the default time zone
+        long wallMillis = millis + TimeZone.getDefault().getOffset(millis);
+        timestamp = wallMillis < daysFromCivil(GREGORIAN_YEAR_MIN, 1, 1) * MILLIS_PER_DAY ? null : formatStandard(wallMillis, TYPE_TIME);
+        if (timestamp == null) {
+            timestamp = new SimpleDateFormat(PATTERN_TIME_STANDARD).format(new Date(millis));
+        }
         type = TYPE_TIME;
+        if (recognize(timestamp) != TYPE_TIME) {
+            year = Integer.parseInt(timestamp.substring(0, 4));
+        }
     }
     
     /**
@@ -128,12 +144,10 @@ public class TimeSeriesTimestamp implements Comparable<TimeSeriesTimestamp> {
         // Handle case: a "real" type was given but the actual timestamp 
         // was a literal (like e.g. "2015/2016")
         if (this.type != TYPE_LITERAL && this.type != TYPE_UNKNOWN) {
-            try {
-                if (PATTERNS_SUPPORTED[this.type].length() != timestamp.length())  {
-                    this.type = TYPE_LITERAL;
-                }
-            } catch (Exception e) {
+            if (timestamp == null || recognize(timestamp) != this.type) {
                 this.type = TYPE_LITERAL;
+                this.epochMillis = Long.MIN_VALUE;
+                this.year = Integer.MIN_VALUE;
             }
         }
         
@@ -147,62 +161,255 @@ public class TimeSeriesTimestamp implements Comparable<TimeSeriesTimestamp> {
     /**
      * Creates a new timestamp.
      * <p>
-     * The timestamp type is determined by sniffing the given timestamp. This  
-     * may cause a performance hit, so consider using 
+     * The timestamp type is determined by sniffing the given timestamp. This 
+     * is a single, allocation-free pass over the timestamp, but consider using 
      * {@link #TimeSeriesTimestamp(java.lang.String, int)} whenever the type is 
      * known in advance.
      * 
      * @param timestamp The timestamp.
      */
     public TimeSeriesTimestamp(String timestamp) {
-        this.type = TYPE_UNKNOWN;
         this.original = timestamp;
+        this.type = timestamp == null ? TYPE_LITERAL : recognize(timestamp);
         
-        for (int i = PATTERNS_SUPPORTED.length-1; i >= 0; i--) {
-            
-            try {
-                if (timestamp.length() != PATTERNS_SUPPORTED[i].length()) {
-                    continue;
-                }
-                // Rely on the parse attempt failing if the pattern does not match
-                new SimpleDateFormat(PATTERNS_SUPPORTED[i]).parse(timestamp);
-                
-                // Reaching this point => parse did not fail 
-                type = i; // Relies on a match between types and the index of the corresponding pattern in the "supported patterns" array
-                if (type == TYPE_TIME) {
-                    this.timestamp = timestamp;
-                } else if (type != TYPE_LITERAL && type != TYPE_UNKNOWN) {
-                    //this.timestamp = DATE_FORMAT_STANDARD.format(DATE_FORMAT_STANDARD.parse(timestamp + getDefaultAddon(type)));
-                    this.timestamp = timestamp + getDefaultAddon(type);
-                }
-                // We have now determined a type, so break the sniffer loop
-                break;
-            } catch (Exception e) {}
+        if (type == TYPE_LITERAL) {
+            // No supported patterns matched => literal (e.g. "2002/2003")
+            this.timestamp = timestamp;
+        } else {
+            this.timestamp = timestamp + getDefaultAddon(type);
+        }
+    }
+    
+    /**
+     * Recognizes the given timestamp string as one of the supported patterns 
+     * (see {@link #PATTERNS_SUPPORTED}), in a single pass and without creating 
+     * any objects.
+     * <p>
+     * Recognition is strict: the string must have exactly the length of a 
+     * supported pattern, the expected separators at the expected positions, 
+     * and digits that form a valid date (and time). Missing parts are 
+     * defaulted as per {@link #DEFAULT_MONTH_OF_YEAR}, 
+     * {@link #DEFAULT_DAY_OF_MONTH} and {@link #DEFAULT_CLOCKTIME}.
+     * <p>
+     * On success, the year and epoch value of this instance are set.
+     * 
+     * @param s The timestamp string, e.g. "2015", "2015-06", "2015-06-30" or "2015-06-30T08:00:00Z".
+     * @return The recognized type, or {@link #TYPE_LITERAL} if the string was not recognized.
+     */
+    private int recognize(String s) {
+        int t;
+        switch (s.length()) {
+            case 4: t = TYPE_YEAR; break;
+            case 7: t = TYPE_MONTH; break;
+            case 10: t = TYPE_DATE; break;
+            case 20: t = TYPE_TIME; break;
+            default: return TYPE_LITERAL;
+        }
+        int y = parseDigits(s, 0, 4);
+        int m = 1;
+        int d = 1;
+        int hh = 12;
+        int mm = 0;
+        int ss = 0;
+        if (y < 0) {
+            return TYPE_LITERAL;
+        }
+        if (t >= TYPE_MONTH) {
+            if (s.charAt(4) != '-' || (m = parseDigits(s, 5, 2)) < 1 || m > 12) {
+                return TYPE_LITERAL;
+            }
+        }
+        if (t >= TYPE_DATE) {
+            if (s.charAt(7) != '-' || (d = parseDigits(s, 8, 2)) < 1 || d > daysInMonth(y, m)) {
+                return TYPE_LITERAL;
+            }
+        }
+        if (t == TYPE_TIME) {
+            if (s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != 'Z'
+                    || (hh = parseDigits(s, 11, 2)) < 0 || hh > 23 
+                    || (mm = parseDigits(s, 14, 2)) < 0 || mm > 59 
+                    || (ss = parseDigits(s, 17, 2)) < 0 || ss > 59) {
+                return TYPE_LITERAL;
+            }
+        }
+        year = y;
+        epochMillis = daysFromCivil(y, m, d) * MILLIS_PER_DAY + ((hh * 60L + mm) * 60 + ss) * 1000;
+        return t;
+    }
+    
+    /**
+     * Gets a compact, primitive representation of this timestamp: the number 
+     * of milliseconds since 1970-01-01T00:00:00Z (UTC, no time zone applied).
+     * <p>
+     * Only year, month, date and time timestamps can be represented this way, 
+     * and only if they can be re-created exactly by 
+     * {@link #fromEpochMillis(long, int)}. (That is not the case for a time 
+     * created from a number, see {@link #TimeSeriesTimestamp(long)}, as its 
+     * original timestamp is that number.)
+     * <p>
+     * Used by {@link TimeSeries} to store timestamps in a primitive array.
+     * 
+     * @return The epoch value, or {@link Long#MIN_VALUE} if this timestamp cannot be represented as an epoch value (e.g. literals).
+     */
+    long toEpochMillis() {
+        if (type < TYPE_YEAR || type > TYPE_TIME) {
+            return Long.MIN_VALUE;
+        }
+        if (type == TYPE_TIME && (timestamp == null || !timestamp.equals(original))) {
+            return Long.MIN_VALUE;
+        }
+        return epochMillis;
+    }
+    
+    /**
+     * Gets a primitive key for this timestamp, suitable for fast lookups: the 
+     * number of milliseconds since 1970-01-01T00:00:00Z (UTC, no time zone 
+     * applied), calculated from the "standard" timestamp.
+     * <p>
+     * Two timestamps that have a valid key are {@link #equals(java.lang.Object) equal} 
+     * if, and only if, their keys are equal.
+     * 
+     * @return The lookup key, or {@link Long#MIN_VALUE} if this timestamp has no valid "standard" form (e.g. literals).
+     */
+    long getLookupKey() {
+        return epochMillis;
+    }
+    
+    /**
+     * Re-creates a timestamp from its compact, primitive representation.
+     * 
+     * @param epochMillis The epoch value, as returned by {@link #toEpochMillis()}.
+     * @param type The timestamp type: {@link #TYPE_YEAR}, {@link #TYPE_MONTH}, {@link #TYPE_DATE} or {@link #TYPE_TIME}.
+     * @return The re-created timestamp.
+     * @see #toEpochMillis() 
+     */
+    static TimeSeriesTimestamp fromEpochMillis(long epochMillis, int type) {
+        return new TimeSeriesTimestamp(formatStandard(epochMillis, type), type);
+    }
+    
+    /**
+     * Formats the given epoch value (no time zone applied) according to the 
+     * pattern of the given type.
+     * 
+     * @param epochMillis The epoch value.
+     * @param type The timestamp type: {@link #TYPE_YEAR}, {@link #TYPE_MONTH}, {@link #TYPE_DATE} or {@link #TYPE_TIME}.
+     * @return The formatted timestamp, e.g. "2015-06" for a month, or <code>null</code> if the year is outside 0-9999.
+     */
+    private static String formatStandard(long epochMillis, int type) {
+        long days = epochMillis / MILLIS_PER_DAY;
+        long millisOfDay = epochMillis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        // Civil date from days since epoch (proleptic Gregorian)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int d = (int)(doy - (153 * mp + 2) / 5 + 1);
+        int m = (int)(mp < 10 ? mp + 3 : mp - 9);
+        long y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        if (y < 0 || y > 9999) {
+            return null;
         }
         
-        if (type < 0) {
-            // Means no supported patterns matched => assume literal (e.g. "2002/2003")
-            type = TYPE_LITERAL;
-            this.timestamp = timestamp;
+        char[] c = new char[type == TYPE_TIME ? 20 : PATTERNS_SUPPORTED[type].length()];
+        writeDigits(c, 0, (int)y, 4);
+        if (type >= TYPE_MONTH) {
+            c[4] = '-';
+            writeDigits(c, 5, m, 2);
         }
-        /*
-        if (type >= TYPE_YEAR && type <= TYPE_TIME) {
-            try {
-                // Create the utc date
-                if (type == TYPE_YEAR) {
-                    utcDate = original + ",0,1";
-                } else if (type == TYPE_MONTH) {
-                    String[] timestampParts = original.split("-");
-                    utcDate = "" + timestampParts[0] + "," + (Integer.parseInt(timestampParts[1])-1) + ",1";
-                } else {
-                    String[] timestampParts = original.substring(0,10).split("-");
-                    utcDate = "" + timestampParts[0] + "," + (Integer.parseInt(timestampParts[1])-1) + "," + timestampParts[2];
-                }
-            } catch (Exception e) {
-                //System.out.println("ERROR creating UTC date string: " + e.getMessage());
+        if (type >= TYPE_DATE) {
+            c[7] = '-';
+            writeDigits(c, 8, d, 2);
+        }
+        if (type == TYPE_TIME) {
+            int secondOfDay = (int)(millisOfDay / 1000);
+            c[10] = 'T';
+            writeDigits(c, 11, secondOfDay / 3600, 2);
+            c[13] = ':';
+            writeDigits(c, 14, secondOfDay / 60 % 60, 2);
+            c[16] = ':';
+            writeDigits(c, 17, secondOfDay % 60, 2);
+            c[19] = 'Z';
+        }
+        return new String(c);
+    }
+    
+    /** The first year that is entirely in the Gregorian calendar, as used by {@link java.util.GregorianCalendar} (and {@link #getTime()}). */
+    private static final int GREGORIAN_YEAR_MIN = 1583;
+    /** Milliseconds per day. */
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    
+    /**
+     * Parses a fixed number of decimal digits in the given string.
+     * 
+     * @param s The string.
+     * @param start The index of the first digit.
+     * @param len The number of digits.
+     * @return The parsed number, or -1 if any of the characters was not a digit.
+     */
+    private static int parseDigits(String s, int start, int len) {
+        int n = 0;
+        for (int i = start; i < start + len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+    
+    /**
+     * Writes the given number as a fixed number of (zero-padded) decimal 
+     * digits.
+     * 
+     * @param c The target.
+     * @param start The index of the first digit.
+     * @param n The number.
+     * @param len The number of digits.
+     */
+    private static void writeDigits(char[] c, int start, int n, int len) {
+        for (int i = start + len - 1; i >= start; i--) {
+            c[i] = (char)('0' + n % 10);
+            n /= 10;
+        }
+    }
+    
+    /**
+     * Gets the number of days in the given month.
+     * 
+     * @param y The year.
+     * @param m The month (1-12).
+     * @return The number of days in the given month.
+     */
+    private static int daysInMonth(int y, int m) {
+        if (m == 2) {
+            return (y % 4 == 0 && (y % 100 != 0 || y % 400 == 0)) ? 29 : 28;
         }
-        */
+        return (m == 4 || m == 6 || m == 9 || m == 11) ? 30 : 31;
+    }
+    
+    /**
+     * Gets the number of days since 1970-01-01 for the given date 
+     * (proleptic Gregorian calendar).
+     * 
+     * @param y The year.
+     * @param m The month (1-12).
+     * @param d The day of month (1-31).
+     * @return The number of days since 1970-01-01.
+     */
+    private static long daysFromCivil(int y, int m, int d) {
+        long yy = m <= 2 ? y - 1 : y;
+        long era = (yy >= 0 ? yy : yy - 399) / 400;
+        long yoe = yy - era * 400;
+        long doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
     }
     
     /**
@@ -261,15 +468,20 @@ public class TimeSeriesTimestamp implements Comparable<TimeSeriesTimestamp> {
      */
     public Date getTime() {
         if (time == null) {
-            try { 
-                time = DATE_FORMAT_STANDARD.parse(timestamp);
-                return time;
-            } catch (Exception e) {
-                return null;
+            if (epochMillis != Long.MIN_VALUE && year >= GREGORIAN_YEAR_MIN) {
+                // The standard timestamp is wall-clock time in the default time zone
+                TimeZone tz = TimeZone.getDefault();
+                time = new Date(epochMillis - tz.getOffset(epochMillis - tz.getOffset(epochMillis)));
+            } else if (type != TYPE_LITERAL) {
+                // Julian calendar dates and the like: leave it to the date format
+                try { 
+                    time = new SimpleDateFormat(PATTERN_TIME_STANDARD).parse(timestamp);
+                } catch (Exception e) {
+                    return null;
+                }
             }
-        } else {
-            return time;
         }
+        return time;
         /*try {
             return getTime(null);
         } catch (Exception e) {
@@ -32,7 +32,7 @@ public class Topic {
     /** @return the localized label for this topic (if any). */
     public final String getLabel(Locale locale) { 
         try {
-            return ResourceBundle.getBundle(Labels.getBundleName(), locale).getString(Labels.TOPIC_PREFIX_0.concat(id)); 
+            return Labels.getBundle(locale).getString(Labels.TOPIC_PREFIX_0.concat(id)); 
         } catch (Exception e) {
             // No translation available (!)
             return id; 
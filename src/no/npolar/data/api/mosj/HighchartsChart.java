@@ -1,6 +1,7 @@
 package no.npolar.data.api.mosj;
 
 //import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -19,6 +20,7 @@ import no.npolar.data.api.TimeSeriesDataPoint;
 import no.npolar.data.api.TimeSeriesTimestamp;
 import no.npolar.data.api.Labels;
 import no.npolar.data.api.util.APIUtil;
+import no.npolar.data.api.util.NumberWriter;
 import org.opencms.json.JSONObject;
 import org.opencms.json.JSONException;
 import org.apache.commons.logging.Log;
@@ -125,6 +127,8 @@ public class HighchartsChart {
     
     /** The number formatting pattern to use. */
     public static final String NUMBER_FORMAT = TimeSeriesDataPoint.DEFAULT_NUMBER_FORMAT;
+    /** The maximum number of fraction digits, as defined by {@link #NUMBER_FORMAT}. */
+    private static final int NUMBER_FORMAT_FRACTION_DIGITS = NUMBER_FORMAT.length() - NUMBER_FORMAT.indexOf('.') - 1;
     /** The number formatting locale (English, because we need 3.14, not 3,14). */
     public static final Locale NUMBER_FORMAT_LOCALE = Locale.forLanguageTag("en");
     
@@ -327,320 +331,352 @@ public class HighchartsChart {
      * <p>
      * It should be parseable as a JSON object.
      * 
-     * @return The chart configuration string (a stringified JSON object).
+     * @return The chart configuration string (a stringified JSON object), or <code>null</code> if it could not be created.
+     * @see #writeChartConfiguration(java.lang.Appendable) 
      */
     public String getChartConfigurationString() {
-        String s = "";
+        StringBuilder sb = new StringBuilder(4096);
         try {
-            // Prevent NPE
-            if (overrides == null) overrides = new JSONObject(); // Empty json object
-            
-            // Get the time series collection via the MOSJ parameter, and make 
-            // sure any custom defined order is applied.
-            //TimeSeriesCollection timeSeriesCollection = resolveTimeSeriesOrdering(timeSeriesColl);
-            
-            
-            List<TimeSeriesDataUnit> units = timeSeriesColl.getUnits();
-            //System.out.println("units: " + units);
-            Iterator<TimeSeriesDataUnit> iUnits = units.iterator();
-            
-            // Enforce equal steps?
-            boolean xAxisEnforceEqualSteps = false;
-            try { xAxisEnforceEqualSteps = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_ENFORCE_EQUAL_STEPS)); } catch(Exception ee) {}
-            if (xAxisEnforceEqualSteps) {
-                timeSeriesColl = fillTimeMarkerGaps(timeSeriesColl);
+            writeConfiguration(sb);
+            return sb.toString();
+        } catch (Exception e) {
+            //e.printStackTrace();
+            if (LOG.isErrorEnabled()) {
+                LOG.error("Fatal error creating Highcharts-munchable config string.", e);
             }
-            
-            String type = "zoomType: 'x'";
-            int step = timeSeriesColl.getTimeMarkersCount() / 8;
-            if (this.containsDateSeries()) {
-                step = 0;
+        }
+        return null;
+    }
+    
+    /**
+     * Writes the chart configuration to the given target, e.g. a JSP's output 
+     * writer.
+     * <p>
+     * The configuration is written in a single pass, without first building 
+     * it in memory, and is identical to the string returned by 
+     * {@link #getChartConfigurationString()}.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails, or if the configuration could not be created (in which case a partial configuration may have been written).
+     */
+    public void writeChartConfiguration(Appendable out) throws IOException {
+        try {
+            writeConfiguration(out);
+        } catch (JSONException e) {
+            throw new IOException("Fatal error creating Highcharts-munchable config.", e);
+        }
+    }
+    
+    /**
+     * Writes the chart configuration to the given target.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails.
+     * @throws JSONException If the overrides could not be read.
+     */
+    private void writeConfiguration(Appendable out) throws IOException, JSONException {
+        // Prevent NPE
+        if (overrides == null) overrides = new JSONObject(); // Empty json object
+        
+        // Get the time series collection via the MOSJ parameter, and make 
+        // sure any custom defined order is applied.
+        //TimeSeriesCollection timeSeriesCollection = resolveTimeSeriesOrdering(timeSeriesColl);
+        
+        
+        List<TimeSeriesDataUnit> units = timeSeriesColl.getUnits();
+        //System.out.println("units: " + units);
+        Iterator<TimeSeriesDataUnit> iUnits = units.iterator();
+        
+        // Enforce equal steps?
+        boolean xAxisEnforceEqualSteps = false;
+        try { xAxisEnforceEqualSteps = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_ENFORCE_EQUAL_STEPS)); } catch(Exception ee) {}
+        if (xAxisEnforceEqualSteps) {
+            timeSeriesColl = fillTimeMarkerGaps(timeSeriesColl);
+        }
+        
+        String type = "zoomType: 'x'";
+        int step = timeSeriesColl.getTimeMarkersCount() / 8;
+        if (this.containsDateSeries()) {
+            step = 0;
+        }
+        int maxStaggerLines = -1;
+        int xLabelRotation = -1;
+        boolean hideMarkers = false;
+        String stacking = null;
+        //boolean errorBarsAlwaysOn = false;
+        boolean xAxisOnTop = false;
+        boolean invertGrouping = false;
+        
+        try { type = "type: '" + overrides.getString(OVERRIDE_KEY_TYPE_STRING) + "'"; } catch(Exception ee) {}
+        try { step = Integer.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_LABEL_STEP_INT)); } catch(Exception ee) {}
+        try { maxStaggerLines = Integer.valueOf(overrides.getString(OVERRIDE_KEY_MAX_STAGGER_LINES_INT)); } catch(Exception ee) {}
+        try { xLabelRotation = Integer.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_LABEL_ROTATION_INT)); } catch(Exception ee) {}
+        try { hideMarkers = !Boolean.valueOf(overrides.getString(OVERRIDE_KEY_HIDE_MARKERS_BOOL)); } catch(Exception ee) {}
+        try { stacking = overrides.getString(OVERRIDE_KEY_STACKING); } catch (Exception ee) {}
+        //try { errorBarsAlwaysOn = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_ERROR_TOGGLER)); } catch(Exception ee) {}
+        try { xAxisOnTop = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_ON_TOP)); } catch(Exception ee) {}
+        try { invertGrouping = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_INVERT_GROUPING_BOOL)); } catch(Exception ee) {}
+        
+        
+        out.append("{ ");
+        // Chart type
+        out.append("\nchart: { ");
+        if (overrides.has(OVERRIDE_KEY_CREDIT_TEXT)) {
+            out.append("\nspacingBottom: 50,"); // Allow some air between legend and credit
+        }
+        out.append(type);
+        // Swap grouping and series names? 
+        // Important: The js method toggleHighChartsGrouping(jQuery) MUST be available
+        //if (invertGrouping || ) {
+            out.append(",");
+            out.append("\nevents: {");
+                out.append("\nload: function() {");
+                    if (invertGrouping) {
+                        out.append("\nvar customSettings = {};");
+                        if (overrides != null) {                                
+                            out.append("\ncustomSettings = " + overrides.toString() + ";");
+                        }
+                        out.append("\ntoggleHighChartsGrouping(this, customSettings);");
+                    }
+                    out.append("\nfillEmptyData(this);"); // Enables AJAX-loading of data, see getValuesForTimeSeries() and fillEmptyData() in commons.js
+                out.append("\n}");
+            out.append("\n}");
+        //}
+        out.append("}, ");
+        
+        out.append("\ntitle: { text: '" + timeSeriesColl.getTitle().replaceAll("'", "\\\\'") + "' }, ");
+        out.append("\nurl: '" + timeSeriesColl.getURL() + "', ");
+        
+        //if (hideMarkers || timeSeriesCollection.getTimeSeries().size() == 1 || stacking != null) {
+            String plotOptionsSeries = "";
+            if (hideMarkers) {
+                plotOptionsSeries += "\nmarker: { enabled: false }";
             }
-            int maxStaggerLines = -1;
-            int xLabelRotation = -1;
-            boolean hideMarkers = false;
-            String stacking = null;
-            //boolean errorBarsAlwaysOn = false;
-            boolean xAxisOnTop = false;
-            boolean invertGrouping = false;
             
-            try { type = "type: '" + overrides.getString(OVERRIDE_KEY_TYPE_STRING) + "'"; } catch(Exception ee) {}
-            try { step = Integer.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_LABEL_STEP_INT)); } catch(Exception ee) {}
-            try { maxStaggerLines = Integer.valueOf(overrides.getString(OVERRIDE_KEY_MAX_STAGGER_LINES_INT)); } catch(Exception ee) {}
-            try { xLabelRotation = Integer.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_LABEL_ROTATION_INT)); } catch(Exception ee) {}
-            try { hideMarkers = !Boolean.valueOf(overrides.getString(OVERRIDE_KEY_HIDE_MARKERS_BOOL)); } catch(Exception ee) {}
-            try { stacking = overrides.getString(OVERRIDE_KEY_STACKING); } catch (Exception ee) {}
-            //try { errorBarsAlwaysOn = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_ERROR_TOGGLER)); } catch(Exception ee) {}
-            try { xAxisOnTop = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_X_AXIS_ON_TOP)); } catch(Exception ee) {}
-            try { invertGrouping = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_INVERT_GROUPING_BOOL)); } catch(Exception ee) {}
             
             
-            s += "{ ";
-            // Chart type
-            s += "\nchart: { ";
-            if (overrides.has(OVERRIDE_KEY_CREDIT_TEXT)) {
-                s += "\nspacingBottom: 50,"; // Allow some air between legend and credit
-            }
-            s += type;
-            // Swap grouping and series names? 
-            // Important: The js method toggleHighChartsGrouping(jQuery) MUST be available
-            //if (invertGrouping || ) {
-                s += ",";
-                s += "\nevents: {";
-                    s += "\nload: function() {";
-                        if (invertGrouping) {
-                            s += "\nvar customSettings = {};"; 
-                            if (overrides != null) {                                
-                                s += "\ncustomSettings = " + overrides.toString() + ";";
+            // If there is only 1 time series, disable "click to hide"
+            //if (timeSeriesCollection.getTimeSeries().size() == 1) {
+                plotOptionsSeries += plotOptionsSeries.length() > 0 ? "," : "";
+                //plotOptionsSeries += "\npoint: { ";
+                    plotOptionsSeries += "\nevents: { ";
+                        plotOptionsSeries += "\nlegendItemClick: function(e) { ";
+                                                
+                            // Make the function that shows/hides the error bars when clicking on the dummy series name in the legend
+                            if (timeSeriesColl.hasErrorBarSeries()) {
+                                plotOptionsSeries += "e.preventDefault();";
+                                plotOptionsSeries += "\nif(this.options.connectTo) { // Error bar series"
+                                                        + "\nvar parentSeries = this.chart.get(this.options.connectTo);"
+                                                        + "\nif (this.chart.get(parentSeries.options.linkedTo).visible) {"
+                                                            + "\nthis.chart.get(this.options.connectTo).setVisible(!this.visible);"
+                                                            + "\nthis.setVisible(!this.visible);"
+                                                        + "\n}"
+                                                    + "\n}"
+                                                    + "\nelse { // Regular series"
+                                                        + "\nvar id = this.options.id;"
+                                                        + "\nthis.setVisible(!this.visible);"
+                                                        + "\nthis.chart.get(id + \"-error\").setVisible(false);"
+                                                        + "\nthis.chart.get(id + \"-error-toggler\").setVisible(false);"
+                                                    + "\n}";
                             }
-                            s += "\ntoggleHighChartsGrouping(this, customSettings);";
-                        }
-                        s += "\nfillEmptyData(this);"; // Enables AJAX-loading of data, see getValuesForTimeSeries() and fillEmptyData() in commons.js
-                    s += "\n}";
-                s += "\n}";
+                            // If there is only a single time series AND it's not an error bar series, make in unhideable
+                            else if (timeSeriesColl.getTimeSeries().size() == 1) {
+                                plotOptionsSeries += "\nreturn false;";
+                            }
+                                                
+                        plotOptionsSeries += "\n}";
+                    plotOptionsSeries += "\n}";
+                //plotOptionsSeries += "\n}";
             //}
-            s += "}, ";
             
-            s += "\ntitle: { text: '" + timeSeriesColl.getTitle().replaceAll("'", "\\\\'") + "' }, ";
-            s += "\nurl: '" + timeSeriesColl.getURL() + "', ";
             
-            //if (hideMarkers || timeSeriesCollection.getTimeSeries().size() == 1 || stacking != null) {
-                String plotOptionsSeries = "";
-                if (hideMarkers) {
-                    plotOptionsSeries += "\nmarker: { enabled: false }";
-                }
-                
+            if (stacking != null) {
+                plotOptionsSeries += plotOptionsSeries.length() > 0 ? "," : "";
+                plotOptionsSeries += "\nstacking: '" + stacking + "'";
+            }
                 
                 
-                // If there is only 1 time series, disable "click to hide"
-                //if (timeSeriesCollection.getTimeSeries().size() == 1) {
-                    plotOptionsSeries += plotOptionsSeries.length() > 0 ? "," : "";
-                    //plotOptionsSeries += "\npoint: { ";
-                        plotOptionsSeries += "\nevents: { ";
-                            plotOptionsSeries += "\nlegendItemClick: function(e) { ";
-                                                    
-                                // Make the function that shows/hides the error bars when clicking on the dummy series name in the legend
-                                if (timeSeriesColl.hasErrorBarSeries()) {
-                                    plotOptionsSeries += "e.preventDefault();";
-                                    plotOptionsSeries += "\nif(this.options.connectTo) { // Error bar series"
-                                                            + "\nvar parentSeries = this.chart.get(this.options.connectTo);"
-                                                            + "\nif (this.chart.get(parentSeries.options.linkedTo).visible) {"
-                                                                + "\nthis.chart.get(this.options.connectTo).setVisible(!this.visible);"
-                                                                + "\nthis.setVisible(!this.visible);"
-                                                            + "\n}"
-                                                        + "\n}"
-                                                        + "\nelse { // Regular series"
-                                                            + "\nvar id = this.options.id;"
-                                                            + "\nthis.setVisible(!this.visible);"
-                                                            + "\nthis.chart.get(id + \"-error\").setVisible(false);"
-                                                            + "\nthis.chart.get(id + \"-error-toggler\").setVisible(false);"
-                                                        + "\n}";
-                                }
-                                // If there is only a single time series AND it's not an error bar series, make in unhideable
-                                else if (timeSeriesColl.getTimeSeries().size() == 1) {
-                                    plotOptionsSeries += "\nreturn false;";
-                                }
-                                                    
-                            plotOptionsSeries += "\n}";
-                        plotOptionsSeries += "\n}";
-                    //plotOptionsSeries += "\n}";
-                //}
-                
+            if (!plotOptionsSeries.isEmpty()) {
+                //plotOptionsSeries = plotOptionsSeries;
+                out.append("\nplotOptions: { ");
+                    out.append("\nseries: { " + plotOptionsSeries + "\n}");
+                out.append("\n}, ");
+            }
+        //}
+        
+        /*if (stacking != null) {
+            out.append("\nplotOptions: { ");
+                out.append("\nseries: { ");
+                    out.append("\nstacking: '" + stacking + "'");
+                out.append("\n}");
+            out.append("\n}, ");
+        }*/
+        
+        // Credits
+        // See http://jsfiddle.net/gh/get/jquery/3.1.1/highcharts/highcharts/tree/master/samples/highcharts/credits/href/
+        out.append("\ncredits: { ");
+            if (overrides.has(OVERRIDE_KEY_CREDIT_TEXT) && overrides.has(OVERRIDE_KEY_CREDIT_URI)) {
+                out.append("\ntext: '" + overrides.getString(OVERRIDE_KEY_CREDIT_TEXT) + "',");
+                out.append("\nhref: '" + overrides.getString(OVERRIDE_KEY_CREDIT_URI) + "',");
+                out.append("\nstyle : { 'color':'#555', 'fontSize':'0.6rem' }");
+            } else {
+                out.append("\nenabled: false");
+            }
+        out.append("\n}, ");
                 
-                if (stacking != null) {
-                    plotOptionsSeries += plotOptionsSeries.length() > 0 ? "," : "";
-                    plotOptionsSeries += "\nstacking: '" + stacking + "'";
-                }
-                    
-                    
-                if (!plotOptionsSeries.isEmpty()) {
-                    //plotOptionsSeries = plotOptionsSeries;
-                    s += "\nplotOptions: { ";
-                        s += "\nseries: { " + plotOptionsSeries + "\n}";
-                    s += "\n}, ";
-                }
-            //}
-            
-            /*if (stacking != null) {
-                s += "\nplotOptions: { ";
-                    s += "\nseries: { ";
-                        s += "\nstacking: '" + stacking + "'";
-                    s += "\n}";
-                s += "\n}, ";
-            }*/
-            
-            // Credits
-            // See http://jsfiddle.net/gh/get/jquery/3.1.1/highcharts/highcharts/tree/master/samples/highcharts/credits/href/
-            s += "\ncredits: { ";
-                if (overrides.has(OVERRIDE_KEY_CREDIT_TEXT) && overrides.has(OVERRIDE_KEY_CREDIT_URI)) {
-                    s += "\ntext: '" + overrides.getString(OVERRIDE_KEY_CREDIT_TEXT) + "',";
-                    s += "\nhref: '" + overrides.getString(OVERRIDE_KEY_CREDIT_URI) + "',";
-                    s += "\nstyle : { 'color':'#555', 'fontSize':'0.6rem' }";
+        
+        // The x axis
+        out.append("\nxAxis: [{ ");
+                boolean useCategory = true;
+                try {
+                    if (this.containsDateSeries()) {
+                        useCategory = false;
+                    }
+                } catch (Exception e) {}
+                if (useCategory) {
+                    // ToDo: Default should be datetime, not categories
+                    // .... or SHOULD IT..? See http://stackoverflow.com/questions/23816474/highcharts-xaxis-yearly-data
+                    out.append("\ncategories: [");
+                    writeCategories(out, timeSeriesColl);
+                    out.append("], ");
                 } else {
-                    s += "\nenabled: false";
+                    out.append("\ntype: 'datetime', ");
+                }
+                if (xAxisOnTop) {
+                    out.append("\nopposite: true,");
                 }
-            s += "\n}, ";
+                out.append("\nlabels: { ");
+                    out.append("\nstep: " + step + "");
+                    if (maxStaggerLines > 0) {
+                        out.append(",\nmaxStaggerLines: " + maxStaggerLines);
+                    }
+                    if (xLabelRotation > 0) {
+                        out.append(",\nrotation: " + xLabelRotation);
+                    }
+                out.append("\n}");
+        out.append("\n}], ");
+        
+        // The y axis / axes
+        out.append("\nyAxis: [ ");
+                int i = 0;
+                while (iUnits.hasNext()/* && i < 4*/) {
+                    TimeSeriesDataUnit unit = iUnits.next();
                     
-            
-            // The x axis
-            s += "\nxAxis: [{ ";
-                    boolean useCategory = true;
-                    try {
-                        if (this.containsDateSeries()) {
-                            useCategory = false;
+                    // Resolve some info about the values of this time series: 
+                    boolean integerValuesOnly = true; // Flag: Non-decimal values only? 
+                    boolean positiveValuesOnly = true; // Flag: Non-negative values only?
+                    double largestValue = Double.MAX_VALUE; // The maximum value
+                    
+                    List<TimeSeries> axisSeriesList = timeSeriesColl.getTimeSeriesWithUnit(unit); // Get the time series for this axis
+                    Iterator<TimeSeries> iAxisSeries = axisSeriesList.iterator();
+                    while (iAxisSeries.hasNext()) {
+                        TimeSeries axisSeries = iAxisSeries.next();
+                        
+                        try {
+                            if (axisSeries.getMaxValue() > largestValue) {
+                                largestValue = axisSeries.getMaxValue();
+                            }
+                        } catch (Exception whut) {}
+                        
+                        if (!axisSeries.isIntegerValuesOnlySeries()) {
+                            integerValuesOnly = false;
                         }
-                    } catch (Exception e) {}
-                    if (useCategory) {
-                        // ToDo: Default should be datetime, not categories
-                        // .... or SHOULD IT..? See http://stackoverflow.com/questions/23816474/highcharts-xaxis-yearly-data
-                        s += "\ncategories: [" + makeCategoriesString(timeSeriesColl) + "], ";
-                    } else {
-                        s += "\ntype: 'datetime', ";
-                    }
-                    if (xAxisOnTop) {
-                        s += "\nopposite: true,";
+                        if (!axisSeries.isPositiveValuesOnlySeries()) {
+                            positiveValuesOnly = false;
+                        }
+                        if (!integerValuesOnly && !positiveValuesOnly)
+                            break;
                     }
-                    s += "\nlabels: { ";
-                        s += "\nstep: " + step + "";
-                        if (maxStaggerLines > 0) {
-                            s += ",\nmaxStaggerLines: " + maxStaggerLines;
+                    
+                    // Should we define a minimum value for the y-axis?
+                    Integer min = null; // null = don't set a minimum value for the y-axis (let Highcharts decide)
+                    /*if (positiveValuesOnly && largestValue <= 100) { // 100 because 100 %
+                        min = 0; // 0 = set the minimum value to zero
+                    }*/
+                    
+                    try { 
+                        if (overrides.has(OVERRIDE_KEY_Y_AXIS_INTEGERS_ONLY)) {
+                            integerValuesOnly = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_Y_AXIS_INTEGERS_ONLY));
                         }
-                        if (xLabelRotation > 0) {
-                            s += ",\nrotation: " + xLabelRotation;
+                    } catch(Exception ee) {
+                    }
+                    try { 
+                        if (overrides.has(OVERRIDE_KEY_Y_AXIS_MIN)) {
+                            min = Integer.valueOf(overrides.getString(OVERRIDE_KEY_Y_AXIS_MIN)); // set the minimum value accordingly
                         }
-                    s += "\n}";
-            s += "\n}], ";
-            
-            // The y axis / axes
-            s += "\nyAxis: [ ";
-                    int i = 0;
-                    while (iUnits.hasNext()/* && i < 4*/) {
-                        TimeSeriesDataUnit unit = iUnits.next();
-                        
-                        // Resolve some info about the values of this time series: 
-                        boolean integerValuesOnly = true; // Flag: Non-decimal values only? 
-                        boolean positiveValuesOnly = true; // Flag: Non-negative values only?
-                        double largestValue = Double.MAX_VALUE; // The maximum value
-                        
-                        List<TimeSeries> axisSeriesList = timeSeriesColl.getTimeSeriesWithUnit(unit); // Get the time series for this axis
-                        Iterator<TimeSeries> iAxisSeries = axisSeriesList.iterator();
-                        while (iAxisSeries.hasNext()) {
-                            TimeSeries axisSeries = iAxisSeries.next();
-                            
-                            try {
-                                if (axisSeries.getMaxValue() > largestValue) {
-                                    largestValue = axisSeries.getMaxValue();
-                                }
-                            } catch (Exception whut) {}
-                            
-                            if (!axisSeries.isIntegerValuesOnlySeries()) {
-                                integerValuesOnly = false;
-                            }
-                            if (!axisSeries.isPositiveValuesOnlySeries()) {
-                                positiveValuesOnly = false;
-                            }
-                            if (!integerValuesOnly && !positiveValuesOnly)
-                                break;
+                    } catch(Exception ee) {
+                    }
+                    
+                    
+                    out.append("\n{ ");
+                        if (integerValuesOnly) {
+                            out.append("\nallowDecimals: false,");
                         }
-                        
-                        // Should we define a minimum value for the y-axis?
-                        Integer min = null; // null = don't set a minimum value for the y-axis (let Highcharts decide)
-                        /*if (positiveValuesOnly && largestValue <= 100) { // 100 because 100 %
-                            min = 0; // 0 = set the minimum value to zero
-                        }*/
-                        
-                        try { 
-                            if (overrides.has(OVERRIDE_KEY_Y_AXIS_INTEGERS_ONLY)) {
-                                integerValuesOnly = Boolean.valueOf(overrides.getString(OVERRIDE_KEY_Y_AXIS_INTEGERS_ONLY));
-                            }
-                        } catch(Exception ee) {
+                        if (min != null) {
+                            out.append("\nmin: " + min + ",");
                         }
-                        try { 
-                            if (overrides.has(OVERRIDE_KEY_Y_AXIS_MIN)) {
-                                min = Integer.valueOf(overrides.getString(OVERRIDE_KEY_Y_AXIS_MIN)); // set the minimum value accordingly
-                            }
-                        } catch(Exception ee) {
+                        if (xAxisOnTop) {
+                            out.append("\nreversed: true,");
                         }
+                        out.append("\nlabels: { ");
+                                //s += "\nformat: '{value} " + unit.getShortForm() + "', ";
+                                out.append("\nformat: '{value}', ");
+                                out.append("\nstyle: { ");
+                                    out.append("\ncolor: Highcharts.getOptions().colors[" + i + "] ");
+                                out.append("\n}");
+                        out.append("\n}, ");
+                        out.append("\ntitle: { ");
+                                out.append("\nuseHTML: true,");
+                                out.append("\ntext: '" + CmsStringUtil.escapeJavaScript(unit.getLongForm() + (unit.hasShortForm() ? "  ( ".concat(unit.getShortForm()).concat(" )") : "")) + "', ");
+                                out.append("\nstyle: { ");
+                                    out.append("color: Highcharts.getOptions().colors[" + i + "] ");
+                                out.append("}");
+                        out.append("\n}");
                         
-                        
-                        s += "\n{ ";
-                            if (integerValuesOnly) {
-                                s += "\nallowDecimals: false,";
-                            }
-                            if (min != null) {
-                                s += "\nmin: " + min + ",";
-                            }
-                            if (xAxisOnTop) {
-                                s += "\nreversed: true,";
-                            }
-                            s += "\nlabels: { "; 
-                                    //s += "\nformat: '{value} " + unit.getShortForm() + "', ";
-                                    s += "\nformat: '{value}', ";
-                                    s += "\nstyle: { ";
-                                        s += "\ncolor: Highcharts.getOptions().colors[" + i + "] ";
-                                    s += "\n}";
-                            s += "\n}, ";
-                            s += "\ntitle: { ";
-                                    s += "\nuseHTML: true,";
-                                    s += "\ntext: '" + CmsStringUtil.escapeJavaScript(unit.getLongForm() + (unit.hasShortForm() ? "  ( ".concat(unit.getShortForm()).concat(" )") : "")) + "', ";
-                                    s += "\nstyle: { ";
-                                        s += "color: Highcharts.getOptions().colors[" + i + "] ";
-                                    s += "}";
-                            s += "\n}";
-                            
-                            if (i >= 1) {
-                                s += ", \nopposite: true";
-                            }
-                        s += "\n}";
-                        i++;
-                        if (/*i < 4 && */iUnits.hasNext()) {
-                            s += ",";
+                        if (i >= 1) {
+                            out.append(", \nopposite: true");
                         }
-                    }                    
-            s += " ], ";
-            
-            s += "\ntooltip: { ";
-                s += "\nshared: true";
-                if (this.containsDateSeries()) {
-                    s += ", ";
-                    s += "\nxDateFormat: '%Y-%m-%d'";
-                }
-            s += "\n}, ";
-            
-            // The actual data
-            s += "\nseries: [ ";
-                s += getSeriesDetails(timeSeriesColl, overrides);
-            s += " ]";
-            
-            s += "\n}";
-            
-            
-            /*
-            // Return both the container div and the javascript
-            return "<div id=\"chart-" + this.mosjParameter.getID() + "\" class=\"time-series-chart highcharts-chart\"></div>\n"
-                    + "<script type=\"text/javascript\">\n"
-                        + "$(function () {\n"
-                            + "$('#chart-" + this.mosjParameter.getID() + "').highcharts(\n" 
-                                + s + "\n" 
-                            + ")\n"
-                        + "});\n"
-                    + "</script>\n";
-            */
-            
-            // Better to return just the JSON string:
-            // This allows for easier modification by the client / renderer JSP (should the need arise).
-            // It also allows for more flexible placement of the javascript bit.
-            return s;
-            
-            //return new JSONObject(s); // Nah, this can be done by the client if needed ...
-        } catch (Exception e) {
-            //e.printStackTrace();
-            if (LOG.isErrorEnabled()) {
-                LOG.error("Fatal error creating Highcharts-munchable config string.", e);
+                    out.append("\n}");
+                    i++;
+                    if (/*i < 4 && */iUnits.hasNext()) {
+                        out.append(",");
+                    }
+                }                    
+        out.append(" ], ");
+        
+        out.append("\ntooltip: { ");
+            out.append("\nshared: true");
+            if (this.containsDateSeries()) {
+                out.append(", ");
+                out.append("\nxDateFormat: '%Y-%m-%d'");
             }
-        }       
+        out.append("\n}, ");
         
-        return null;
+        // The actual data
+        out.append("\nseries: [ ");
+            writeSeriesDetails(out, timeSeriesColl, overrides);
+        out.append(" ]");
+        
+        out.append("\n}");
+        
+        
+        /*
+        // Return both the container div and the javascript
+        return "<div id=\"chart-" + this.mosjParameter.getID() + "\" class=\"time-series-chart highcharts-chart\"></div>\n"
+                + "<script type=\"text/javascript\">\n"
+                    + "$(function () {\n"
+                        + "$('#chart-" + this.mosjParameter.getID() + "').highcharts(\n" 
+                            + s + "\n" 
+                        + ")\n"
+                    + "});\n"
+                + "</script>\n";
+        */
+        
+        // Better to output just the JSON string:
+        // This allows for easier modification by the client / renderer JSP (should the need arise).
+        // It also allows for more flexible placement of the javascript bit.
+        
+        //return new JSONObject(s); // Nah, this can be done by the client if needed ...
     }
     
     /**
@@ -671,13 +707,33 @@ public class HighchartsChart {
      * @param timeSeriesCollection The time series collection. Mandatory.
      * @param overrides The overrides. Can be <code>null</code>.
      * @return The configuration string part for the series in the given collection.
+     * @see #writeSeriesDetails(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection, org.opencms.json.JSONObject) 
      */
     protected String getSeriesDetails(TimeSeriesCollection timeSeriesCollection, JSONObject overrides) {
+        StringBuilder sb = new StringBuilder(1024);
+        try {
+            writeSeriesDetails(sb, timeSeriesCollection, overrides);
+        } catch (IOException e) {
+            // Not possible with a StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the configuration details for all time series in the given 
+     * collection to the given target, applying overrides according to the 
+     * given override object.
+     * 
+     * @param out The target to write to.
+     * @param timeSeriesCollection The time series collection. Mandatory.
+     * @param overrides The overrides. Can be <code>null</code>.
+     * @throws IOException If writing fails.
+     */
+    protected void writeSeriesDetails(Appendable out, TimeSeriesCollection timeSeriesCollection, JSONObject overrides) throws IOException {
         try { if (overrides == null) overrides = new JSONObject(); } catch (Exception e) {} // 
         
-        ResourceBundle labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        ResourceBundle labels = Labels.getBundle(displayLocale);
         
-        String s = "";
         List<TimeSeries> timeSeriesList = timeSeriesCollection.getTimeSeries();
         if (!timeSeriesList.isEmpty()) {
             Iterator<TimeSeries> iTimeSeries = timeSeriesList.iterator();
@@ -771,7 +827,7 @@ public class HighchartsChart {
                 }
                 
                 
-                s += "\n{ ";
+                out.append("\n{ ");
                 try {
                     List<TimeSeriesDataUnit> units = new ArrayList<TimeSeriesDataUnit>(timeSeriesCollection.getUnits());
                     //int yAxis = units.indexOf( new MOSJDataUnit(timeSeries.getUnit(), timeSeries.getUnitVerbose(displayLocale)) );
@@ -789,40 +845,42 @@ public class HighchartsChart {
                     }
                     */
                             
-                    s += "\nname: '" + CmsStringUtil.escapeJavaScript(seriesName) + "',";
-                    s += "\ntype: '" + seriesType + "',";
-                    s += "\nid: '" + timeSeries.getId() + "',";
-                    s += "\nurl: '" + timeSeries.getURL(new MOSJService(displayLocale, true)) + "',";
-                    s += "\nyAxis: " + yAxis + ",";
+                    out.append("\nname: '" + CmsStringUtil.escapeJavaScript(seriesName) + "',");
+                    out.append("\ntype: '" + seriesType + "',");
+                    out.append("\nid: '" + timeSeries.getId() + "',");
+                    out.append("\nurl: '" + timeSeries.getURL(new MOSJService(displayLocale, true)) + "',");
+                    out.append("\nyAxis: " + yAxis + ",");
                     if (timeSeries.isChartOffByDefault()) {
-                        s += "\nvisible: false,";
+                        out.append("\nvisible: false,");
                     }
                     if (timeSeries.isTrendLine() || timeSeries.isChartConnectNulls()) {
-                        s += "\nconnectNulls: true,";
+                        out.append("\nconnectNulls: true,");
                     }
                     if (hideMarkers || timeSeries.isTrendLine() || timeSeries.getChartMarkersThickness() != null) {
                         //s += "\nmarker: { enabled: false },";
-                        s += "\nmarker: { ";
+                        out.append("\nmarker: { ");
                         if (hideMarkers || timeSeries.isTrendLine()) {
-                            s += "\nenabled: false" + (timeSeries.getChartMarkersThickness() != null ? "," : "");
+                            out.append("\nenabled: false" + (timeSeries.getChartMarkersThickness() != null ? "," : ""));
                         }
                         if (timeSeries.getChartMarkersThickness() != null) {
-                            s += "\nradius: " + timeSeries.getChartMarkersThickness();
+                            out.append("\nradius: " + timeSeries.getChartMarkersThickness());
                         }
-                        s += "\n}, ";
+                        out.append("\n}, ");
                     }
                     if (timeSeries.getChartColor() != null) {
-                        s += "\ncolor: '" + timeSeries.getChartColor() + "',";
+                        out.append("\ncolor: '" + timeSeries.getChartColor() + "',");
                     }
                     if (timeSeries.getChartDashStyle() != null) {
-                        s += "\ndashStyle: '" + timeSeries.getChartDashStyle() + "',";
+                        out.append("\ndashStyle: '" + timeSeries.getChartDashStyle() + "',");
                     }
-                    s += "\ndata: [ " + getValuesForTimeSeries(timeSeriesCollection, timeSeries, false) + " ], ";
+                    out.append("\ndata: [ ");
+                    writeValuesForTimeSeries(out, timeSeriesCollection, timeSeries, false);
+                    out.append(" ], ");
                     if (timeSeries.getChartLineThickness() != null) {
-                        s += "\nlineWidth: " + timeSeries.getChartLineThickness() + ",";
+                        out.append("\nlineWidth: " + timeSeries.getChartLineThickness() + ",");
                     }
                     if (timeSeries.getValuesPerDataPoint() == 5) {
-                        s += "\ntooltip: { "
+                        out.append("\ntooltip: { "
                                 + "\npointFormat: '" 
                                                 + labels.getString(Labels.TIME_SERIES_POINT_VALUE_MAX_0) + ": {point.high} " + timeSeries.getUnit().getShortForm() + "<br/>"
                                                 + labels.getString(Labels.TIME_SERIES_POINT_VALUE_HIGH_0) + ": {point.q3} " + timeSeries.getUnit().getShortForm() + "<br/>"
@@ -830,64 +888,67 @@ public class HighchartsChart {
                                                 + labels.getString(Labels.TIME_SERIES_POINT_VALUE_LOW_0) + ": {point.q1} " + timeSeries.getUnit().getShortForm() + "<br/>"
                                                 + labels.getString(Labels.TIME_SERIES_POINT_VALUE_MIN_0) + ": {point.low} " + timeSeries.getUnit().getShortForm() + "<br/>"
                                                 + "'"
-                            + "\n}";
+                            + "\n}");
                     } else {
-                        s += "\ntooltip: {"
+                        out.append("\ntooltip: {"
                                 + "\npointFormat: '<span style=\"font-weight: bold; color: {series.color}\">{series.name}</span>: <b>{point.y} " 
                                         + timeSeries.getUnit().getShortForm() + "</b>" + (timeSeries.isErrorBarSeries() ? (errorBarsAlwaysOn ? " " : "<br/>") : "<br/>") + "'"
-                            + "\n}";
+                            + "\n}");
                     }
                     
                     // is this a time series with error bars?
                     if (timeSeries.isErrorBarSeries()) {
-                        s += "},\n{";
+                        out.append("},\n{");
                         
                         // first we define the actual error bar series.
                         // its "parent" will be the series directly above here.
                         String errorBarSeriesName = CmsStringUtil.escapeJavaScript(seriesName) + " " + labels.getString(Labels.TIME_SERIES_POINT_ERROR_0).toLowerCase();
                         //s += "\nname: '" + timeSeriesCollection.getTitleForTimeSeries(timeSeries) + " error',";
-                        s += "\nname: '" + errorBarSeriesName + "',";
-                        s += "\nid: '" + timeSeries.getId() + "-error" + "',";
-                        s += "\ntype: '" + "errorbar" + "',";
-                        s += "\nyAxis: " + yAxis + ",";
-                        s += "\nvisible: " + errorBarsAlwaysOn + ",";
-                        s += "\nlinkedTo: '" + timeSeries.getId()  + "',";
+                        out.append("\nname: '" + errorBarSeriesName + "',");
+                        out.append("\nid: '" + timeSeries.getId() + "-error" + "',");
+                        out.append("\ntype: '" + "errorbar" + "',");
+                        out.append("\nyAxis: " + yAxis + ",");
+                        out.append("\nvisible: " + errorBarsAlwaysOn + ",");
+                        out.append("\nlinkedTo: '" + timeSeries.getId()  + "',");
                         //if (!errorBarsAlwaysOn) {
                         //    s += "\nlinkedTo: null,";
                         //    s += "\nvisible: false,";
                         //}
-                        s += "\ndata: [" + getValuesForTimeSeries(timeSeriesCollection, timeSeries, true) + "],";
-                        s += "\ntooltip: {"
+                        out.append("\ndata: [");
+                        writeValuesForTimeSeries(out, timeSeriesCollection, timeSeries, true);
+                        out.append("],");
+                        out.append("\ntooltip: {"
                                     + "\npointFormat: '({point.low}-{point.high} " + timeSeries.getUnit().getShortForm() + ")<br/>'"
-                                + "\n}";
+                                + "\n}");
                         
                         // second, we define the dummy series that will act as
                         // the visibility toggler in the chart legend.
                         if (!errorBarsAlwaysOn) {
-                            s += "},\n{";
-                            s += "\nname: '" + errorBarSeriesName + "',"; // Use the same name
-                            s += "\nid: '" + timeSeries.getId() + "-error-toggler" + "',";
-                            s += "\ntype: '" + "errorbar" + "',";
-                            s += "\nlinkedTo: null,";
-                            s += "\nvisible: " + errorBarsAlwaysOn + ",";
-                            s += "\nconnectTo: '" + timeSeries.getId() + "-error" + "'";
+                            out.append("},\n{");
+                            out.append("\nname: '" + errorBarSeriesName + "',"); // Use the same name
+                            out.append("\nid: '" + timeSeries.getId() + "-error-toggler" + "',");
+                            out.append("\ntype: '" + "errorbar" + "',");
+                            out.append("\nlinkedTo: null,");
+                            out.append("\nvisible: " + errorBarsAlwaysOn + ",");
+                            out.append("\nconnectTo: '" + timeSeries.getId() + "-error" + "'");
                         }
                     }
                     
+                } catch (IOException e) {
+                    throw e;
                 } catch (Exception e) {
                     //e.printStackTrace();
                     if (LOG.isErrorEnabled()) {
                         LOG.error("Error creating Highcharts-munchable config string for time series '" + timeSeries.getId() +"'.", e);
                     }
                 }
-                s += "\n}";
+                out.append("\n}");
                 if (iTimeSeries.hasNext()) {
-                    s += ",";
+                    out.append(",");
                 }
                 timeSeriesIndex++; // Important!
             }
         }
-        return s;
     }
     
     /**
@@ -946,38 +1007,36 @@ public class HighchartsChart {
     }
     
     /**
-     * Gets the values for a single time series, in the context of the given 
+     * Writes the values for a single time series, in the context of the given 
      * time series collection.
      * <p>
-     * The returned values string is "aware" of other time series in the given 
+     * The written values are "aware" of other time series in the given 
      * collection, and will contain <code>null</code> values for any time 
      * markers where the specific time series lacks a value.
      * <p>
      * For charts of type <code>datetime</code>, when the time series contains 
-     * a large number (500 or more) of data points, an empty string will be 
-     * returned, meaning the values will have to be added manually at a later 
-     * time. (Typically this is done in the chart's <code>load</code> event.)
+     * a large number (500 or more) of data points, nothing will be written, 
+     * meaning the values will have to be added manually at a later time. 
+     * (Typically this is done in the chart's <code>load</code> event.)
+     * <p>
+     * Numbers and dates are written directly to the target, so the cost is 
+     * linear in the number of time markers.
      * 
-     * @param timeSeries The time series.
+     * @param out The target to write to.
      * @param timeSeriesCollection The time series collection to use as context.
+     * @param timeSeries The time series.
      * @param errorBarValues Whether or not to produce error bar values.
-     * @return The values for the single time series, with <code>null</code> values where necessary.
+     * @throws IOException If writing fails.
      */
-    private String getValuesForTimeSeries(TimeSeriesCollection timeSeriesCollection, TimeSeries timeSeries, boolean errorBarValues) {
-        //System.out.print("Generating series data ...");
-        long a = System.currentTimeMillis();
-        
-        
-        String s = "";
-        
+    private void writeValuesForTimeSeries(Appendable out, TimeSeriesCollection timeSeriesCollection, TimeSeries timeSeries, boolean errorBarValues) throws IOException {
         TimeSeriesTimestamp firstTimestamp = timeSeries.getTimestamps().get(0);
         
         // If we're dealing with dated series / single values
         //*
         if (timeSeries.isSingleValueSeries() && firstTimestamp.getType() == TimeSeriesTimestamp.TYPE_DATE && timeSeries.size() >= MAX_ALLOWED_INLINE_POINTS) {
-            // return empty string => values must be filled later (usually done 
+            // write nothing => values must be filled later (usually done 
             // in the chart's load event)
-            return s; 
+            return; 
         }//*/
         /*
         if (firstTimestamp.isMorePreciseThan(TimeSeriesTimestamp.TYPE_YEAR) && !firstTimestamp.isLiteralType()) {
@@ -997,68 +1056,79 @@ public class HighchartsChart {
                 s += "{ 'error' : '" + e.getMessage() + "' }";
             }
         }
-        //*/ 
-        else {
+        //*/
+        
+        // Resolve this once, not for every missing value
+        boolean dateSeries = this.containsDateSeries();
 
-            // We must loop all time markers to ensure we get proper null values
-            // at time markers where the time series is missing a value
-            Iterator<TimeSeriesTimestamp> iTimeMark = timeSeriesCollection.getTimeMarkerIterator();//= getDataSet().keySet().iterator();
+        // We must loop all time markers to ensure we get proper null values
+        // at time markers where the time series is missing a value
+        Iterator<TimeSeriesTimestamp> iTimeMark = timeSeriesCollection.getTimeMarkerIterator();
+        // The data points of the particular time series that we're interested in, aligned with the time markers
+        TimeSeriesDataPoint[] dataPoints = timeSeries.getDataPointsForTimeMarkers(timeSeriesCollection.getTimeMarkers());
+        int timeMarkIndex = 0;
 
-            // Loop all time markers of the given time series collection
-            while (iTimeMark.hasNext()) {
-                // Get the time marker
-                TimeSeriesTimestamp timeMark = iTimeMark.next();
+        // Loop all time markers of the given time series collection
+        while (iTimeMark.hasNext()) {
+            // Advance to the next time marker
+            iTimeMark.next();
 
-                // Extract the data points for ALL time series for this time marker (each cell in the array represents one time series - so e.g. 3 cells = 3 time series)
-                //TimeSeriesDataPoint[] timeMarkData = timeSeriesCollection.getDataPointsForTimeMarker(timeMark); 
+            // Get the data point for the particular time series that we're interested in
+            TimeSeriesDataPoint dataPoint = dataPoints[timeMarkIndex++];
 
-                try {
-                    // Get the data point for the particular time series that we're interested in
-                    //TimeSeriesDataPoint dataPoint = timeSeriesClone.removeDataPointForTimeMarker(timeMark);
-                    TimeSeriesDataPoint dataPoint = timeSeries.getDataPointForTimeMarker(timeMark);
-
-                    if (!errorBarValues) {
-                        TimeSeriesTimestamp timestamp = dataPoint.getTimestamp();
-                        if (timestamp.isMorePreciseThan(TimeSeriesTimestamp.TYPE_YEAR) && !timestamp.isLiteralType()) {
-                            //s += "[Date.UTC(" + timestamp.getUTCDate() + "), " + dataPoint.getValue() + "]";
-                            s += "[" + getDateUTC(timestamp) + ", " + dataPoint.getValue() + "]";
-                            //s += "[" + getDateUTC(timestamp) + ", " + dataPoint.getValue("#.#####################", NUMBER_FORMAT_LOCALE) + "]";
-                        } else {
-                            if (dataPoint.getPointCount() == 5) {
-                                s += "[" + dataPoint.getAllValues("#.#####################", NUMBER_FORMAT_LOCALE) + "]";
-                            } else {
-                                s += dataPoint.getValue();
-                                //s += dataPoint.getValue("#.#####################", NUMBER_FORMAT_LOCALE);
-                            }
-                        }
-                    } else {
-                        String hiLoStr = dataPoint.getHighLow("#.######################", ",", NUMBER_FORMAT_LOCALE);
-                        if (hiLoStr != null) {
-                            s += "[" + hiLoStr + "]";
-                        } else {
-                            s += "[null,null]";
-                        }
-                    }
+            if (dataPoint == null) {
+                // No data for our particular time series at this time marker 
+                if (!dateSeries) {
+                    out.append("null");
                     if (iTimeMark.hasNext()) {
-                        s += ", ";
+                        out.append(", ");
                     }
-                } catch (Exception e) {
-                    // No data for our particular time series at this time marker 
-                    if (!this.containsDateSeries()) {
-                        s += "null";
-                        if (iTimeMark.hasNext()) {
-                            s += ", ";
-                        }
+                } else {
+                    // xAxis has type:datetime => just skip this one
+                }
+                continue;
+            }
+
+            if (!errorBarValues) {
+                TimeSeriesTimestamp timestamp = dataPoint.getTimestamp();
+                if (timestamp.isMorePreciseThan(TimeSeriesTimestamp.TYPE_YEAR) && !timestamp.isLiteralType()) {
+                    out.append('[');
+                    appendDateUTC(out, timestamp);
+                    out.append(", ");
+                    NumberWriter.append(out, dataPoint.getValue(), NUMBER_FORMAT_FRACTION_DIGITS);
+                    out.append(']');
+                } else {
+                    if (dataPoint.getPointCount() == 5) {
+                        out.append('[');
+                        NumberWriter.append(out, dataPoint.get(TimeSeriesDataPoint.VALUE_MIN), NUMBER_FORMAT_FRACTION_DIGITS);
+                        out.append(", ");
+                        NumberWriter.append(out, dataPoint.get(TimeSeriesDataPoint.VALUE_LOW), NUMBER_FORMAT_FRACTION_DIGITS);
+                        out.append(", ");
+                        NumberWriter.append(out, dataPoint.getValue(), NUMBER_FORMAT_FRACTION_DIGITS);
+                        out.append(", ");
+                        NumberWriter.append(out, dataPoint.get(TimeSeriesDataPoint.VALUE_HIGH), NUMBER_FORMAT_FRACTION_DIGITS);
+                        out.append(", ");
+                        NumberWriter.append(out, dataPoint.get(TimeSeriesDataPoint.VALUE_MAX), NUMBER_FORMAT_FRACTION_DIGITS);
+                        out.append(']');
                     } else {
-                        // xAxis has type:datetime => just skip this one
+                        NumberWriter.append(out, dataPoint.getValue(), NUMBER_FORMAT_FRACTION_DIGITS);
                     }
                 }
+            } else {
+                if (dataPoint.hasHighLow()) {
+                    out.append('[');
+                    NumberWriter.append(out, dataPoint.get(TimeSeriesDataPoint.VALUE_LOW), NUMBER_FORMAT_FRACTION_DIGITS);
+                    out.append(',');
+                    NumberWriter.append(out, dataPoint.get(TimeSeriesDataPoint.VALUE_HIGH), NUMBER_FORMAT_FRACTION_DIGITS);
+                    out.append(']');
+                } else {
+                    out.append("[null,null]");
+                }
+            }
+            if (iTimeMark.hasNext()) {
+                out.append(", ");
             }
         }
-        long b = System.currentTimeMillis();
-        //System.out.println(" done (" + (b-a) + "ms).");
-        
-        return s;
     }
     
     // Old version
@@ -1120,6 +1190,57 @@ public class HighchartsChart {
         return s;
     }*/
     
+    /**
+     * Writes the given timestamp as a "Date.UTC(2009,2,18)" type string.
+     * <p>
+     * The date parts are read directly from the original timestamp whenever 
+     * it is on the form "yyyy-MM" or "yyyy-MM-dd[...]", which avoids creating 
+     * any objects. Other timestamps are converted via {@link #getDateUTC(no.npolar.data.api.TimeSeriesTimestamp)}.
+     * 
+     * @param out The target to write to.
+     * @param ts The timestamp to convert.
+     * @throws IOException If writing fails.
+     */
+    private void appendDateUTC(Appendable out, TimeSeriesTimestamp ts) throws IOException {
+        String t = ts.getOriginal();
+        if (t != null && t.length() >= 7 && t.charAt(4) == '-') {
+            int year = parseDigits(t, 0, 4);
+            int month = parseDigits(t, 5, 2);
+            int date = t.length() >= 10 && t.charAt(7) == '-' ? parseDigits(t, 8, 2) : 1;
+            if (year >= 0 && month >= 1 && date >= 1) {
+                out.append("Date.UTC(");
+                NumberWriter.append(out, year, 0);
+                out.append(',');
+                NumberWriter.append(out, month - 1, 0);
+                out.append(',');
+                NumberWriter.append(out, date, 0);
+                out.append(')');
+                return;
+            }
+        }
+        out.append(getDateUTC(ts));
+    }
+    
+    /**
+     * Parses a fixed number of decimal digits in the given string.
+     * 
+     * @param s The string.
+     * @param start The index of the first digit.
+     * @param len The number of digits.
+     * @return The parsed number, or -1 if any of the characters was not a digit.
+     */
+    private static int parseDigits(String s, int start, int len) {
+        int n = 0;
+        for (int i = start; i < start + len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+    
     /**
      * Converts the given timestamp to a "Date.UTC(2009,2,18)" type string.
      * <p>
@@ -1139,27 +1260,39 @@ public class HighchartsChart {
      * Get a Highcharts-munchable HTML table with all time series data.
      * 
      * @return A Highcharts-munchable HTML table.
+     * @see #writeHtmlTable(java.lang.Appendable) 
      */
     public String getHtmlTable() {
-        String s = "";
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeHtmlTable(sb);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes a Highcharts-munchable HTML table with all time series data to 
+     * the given target.
+     * <p>
+     * The table is written while it is being generated, one row at a time, 
+     * so the memory footprint does not grow with the size of the collection.
+     * 
+     * @param out The target to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writeHtmlTable(Appendable out) throws IOException {
         if (!timeSeriesColl.hasAccuracyCompatibleTimeSeries()) {
-            s += "\n<!-- Error: Parameter has multiple time series, with incompatible datetime accuracy levels. Table will probably not be Highcharts-munchable. -->\n";
+            out.append("\n<!-- Error: Parameter has multiple time series, with incompatible datetime accuracy levels. Table will probably not be Highcharts-munchable. -->\n");
         }
         
-        s += "<table id=\"" + getId() + "-data\" class=\"wcag-off-screen\">\n";
-        s += "<caption>" + timeSeriesColl.getTitle() + "</caption>\n";
+        out.append("<table id=\"" + getId() + "-data\" class=\"wcag-off-screen\">\n");
+        out.append("<caption>" + timeSeriesColl.getTitle() + "</caption>\n");
         
-        try {
-            s += getHtmlTableRows( timeSeriesColl );
-        } catch (Exception e) {
-            //e.printStackTrace();
-            if (LOG.isErrorEnabled()) {
-                LOG.error("Creating Highcharts-munchable table from time series collection '" + timeSeriesColl.getURL() + "' failed.", e);
-            }
-        }
+        writeHtmlTableRows(out, timeSeriesColl);
         
-        s += "</table>";
-        return s;
+        out.append("</table>");
     }
     
     /**
@@ -1182,57 +1315,82 @@ public class HighchartsChart {
      * 
      * @param tsc The time series collection.
      * @return Html table rows containing the data in the given time series collection.
+     * @see #writeHtmlTableRows(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection) 
      */
     protected String getHtmlTableRows(TimeSeriesCollection tsc) {
-        String s = "";
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeHtmlTableRows(sb, tsc);
+        } catch (IOException e) {
+            // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes table rows containing the data in the given time series 
+     * collection to the given target.
+     * <p>
+     * The data points are aligned with the time markers through the series'
+     * timestamp indexes (see {@link TimeSeriesCollection#getDataPointsForTimeMarkers()}),
+     * so this does not depend on the order of the data points.
+     * 
+     * @param out The target to write to.
+     * @param tsc The time series collection.
+     * @throws IOException If writing fails.
+     */
+    protected void writeHtmlTableRows(Appendable out, TimeSeriesCollection tsc) throws IOException {
         try {
             List<TimeSeries> timeSeriesList = tsc.getTimeSeries();
             if (!timeSeriesList.isEmpty()) {
-                Iterator<TimeSeries> iTimeSeries = timeSeriesList.iterator();
-
-                s += "<thead>\n<tr><th></th>";
-                while (iTimeSeries.hasNext()) {
-                    TimeSeries ts = iTimeSeries.next();
+                int numSeries = timeSeriesList.size();
+                NumberWriter[] numberWriters = new NumberWriter[numSeries];
+                
+                out.append("<thead>\n<tr><th></th>");
+                for (int i = 0; i < numSeries; i++) {
+                    TimeSeries ts = timeSeriesList.get(i);
                     String tsTitle = ts.getLabel();
                     //String tsTitle = tsc.getTitleForTimeSeries(ts);
-                    s += "<th>" + tsTitle + "</th>";
+                    out.append("<th>" + tsTitle + "</th>");
+                    
+                    numberWriters[i] = NumberWriter.forPattern("#.#####################", ts.getDisplayLocale());
                 }
-                s += "</tr>\n</thead>\n";
-                s += "<tbody>\n";
+                out.append("</tr>\n</thead>\n");
+                out.append("<tbody>\n");
                 
+                TimeSeriesDataPoint[][] rows = tsc.getDataPointsForTimeMarkers();
+                int rowIndex = 0;
                 Iterator<TimeSeriesTimestamp> iTimeMark = tsc.getTimeMarkerIterator();
-
                 while (iTimeMark.hasNext()) {
-                    s += "<tr>";
+                    out.append("<tr>");
                     TimeSeriesTimestamp timeMarker = iTimeMark.next();
-                    s += "<th><span class=\"hs-time-marker\">" + timeMarker + "</span></th>"; // The span is vital for Highslide (but not the span's class)
-                    TimeSeriesDataPoint[] timeMarkerData = tsc.getDataPointsForTimeMarker(timeMarker); // Get the array of data points for this time marker
-
-                    for (int i = 0; i < timeMarkerData.length; i++) {
-                        s += "<td>";
-                        try {
-                            TimeSeriesDataPoint dp = timeMarkerData[i];
-                            s += dp.getValue("#.#####################");
-                        } catch (Exception ee) {
-                            //s += "null"; // No, just leave empty
-                            // ToDo: Log this ?
-                            //s += "<!-- Error: " + ee.getMessage() + " -->";
+                    TimeSeriesDataPoint[] row = rows[rowIndex++];
+                    out.append("<th><span class=\"hs-time-marker\">"); // The span is vital for Highslide (but not the span's class)
+                    out.append(String.valueOf(timeMarker));
+                    out.append("</span></th>");
+                    
+                    for (int i = 0; i < numSeries; i++) {
+                        out.append("<td>");
+                        TimeSeriesDataPoint dp = row[i];
+                        if (dp != null) {
+                            numberWriters[i].write(out, dp.getValue());
                         }
-                        s += "</td>";
+                        out.append("</td>");
                     }
 
-                    s += "</tr>\n";
+                    out.append("</tr>\n");
                 }
-                s += "</tbody>\n";
+                out.append("</tbody>\n");
             }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             //e.printStackTrace();
             if (LOG.isErrorEnabled()) {
                 LOG.error("Error creating html table for time series collection '" + tsc.getTitle() + "'.", e);
             }
-            s += "\n<!-- Error: " + e.getMessage() + " -->\n";
+            out.append("\n<!-- Error: " + e.getMessage() + " -->\n");
         }
-        return s;
     }
     
     /**
@@ -1241,19 +1399,38 @@ public class HighchartsChart {
      * 
      * @param tsc The time series collection.
      * @return The categories (time markers) for the time series collection, comma-separated.
+     * @see #writeCategories(java.lang.Appendable, no.npolar.data.api.TimeSeriesCollection) 
      */
     protected String makeCategoriesString(TimeSeriesCollection tsc) {
-        String s = "";
+        StringBuilder sb = new StringBuilder(512);
+        try {
+            writeCategories(sb, tsc);
+        } catch (IOException e) {
+            // Not possible with a StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Writes the categories (time markers) for the time series collection, 
+     * comma-separated, to the given target.
+     * 
+     * @param out The target to write to.
+     * @param tsc The time series collection.
+     * @throws IOException If writing fails.
+     */
+    protected void writeCategories(Appendable out, TimeSeriesCollection tsc) throws IOException {
         try {
             Iterator<TimeSeriesTimestamp> itr = tsc.getTimeMarkerIterator();
             while (itr.hasNext()) {
-                s += "'" + itr.next() + "'";
-                if (itr.hasNext()) s += ", ";
+                out.append('\'').append(itr.next().toString()).append('\'');
+                if (itr.hasNext()) out.append(", ");
             }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             //e.printStackTrace();
             LOG.error("Error creating Highcharts config part 'categories' for time series '" + tsc.getTitle() + "'.", e);
         }
-        return s;
     }
 }
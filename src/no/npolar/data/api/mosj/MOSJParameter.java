@@ -1,9 +1,12 @@
 package no.npolar.data.api.mosj;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 import no.npolar.data.api.APIEntry;
 import no.npolar.data.api.APIEntryInterface;
@@ -49,6 +52,8 @@ public class MOSJParameter extends APIEntry implements APIEntryInterface {
     /*protected Locale displayLocale = null;*/
     /** Localized strings. */
     protected ResourceBundle labels = null;
+    /** The time (in milliseconds) that cached time series responses are considered fresh. */
+    private long cacheTtl = MOSJService.CACHE_TTL;
     /** Default locale string. */
     public static final String DEFAULT_LOCALE = "en";
     
@@ -84,7 +89,22 @@ public class MOSJParameter extends APIEntry implements APIEntryInterface {
      * @throws InstantiationException If anything goes wrong when reading the 'id' property from the JSON object.
      */
     public MOSJParameter(JSONObject o, Locale displayLocale) throws InstantiationException {
+        this(o, displayLocale, MOSJService.CACHE_TTL);
+    }
+    
+    /**
+     * Constructs a new parameter instance, based on the given JSON object, which
+     * is typically read from the Data Centre API, and reads its related time 
+     * series using the given cache time-to-live.
+     * 
+     * @param o The JSON object to base this parameter instance on.
+     * @param displayLocale The preferred language.
+     * @param cacheTtl The time (in milliseconds) that cached time series responses are considered fresh, typically the reading service's {@link MOSJService#getCacheTimeToLive() time-to-live}.
+     * @throws InstantiationException If anything goes wrong when reading the 'id' property from the JSON object.
+     */
+    public MOSJParameter(JSONObject o, Locale displayLocale, long cacheTtl) throws InstantiationException {
         super(o, displayLocale);
+        this.cacheTtl = cacheTtl;
         //this.displayLocale = displayLocale;
         this.relatedTimeSeries = new ArrayList<TimeSeries>(2);
         
@@ -95,7 +115,7 @@ public class MOSJParameter extends APIEntry implements APIEntryInterface {
             throw new InstantiationException("Error attempting to create MOSJ parameter instance from JSON object: " + e.getMessage());
         }*/
         
-        this.labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        this.labels = Labels.getBundle(displayLocale);
         
         resolveTimeSeries();
     }
@@ -118,7 +138,7 @@ public class MOSJParameter extends APIEntry implements APIEntryInterface {
         this.customTitle = title;
         this.relatedTimeSeries = new ArrayList<TimeSeries>(2);
         this.id = id;
-        this.labels = ResourceBundle.getBundle(Labels.getBundleName(), displayLocale);
+        this.labels = Labels.getBundle(displayLocale);
         resolveTimeSeries();
     }
     
@@ -155,27 +175,40 @@ public class MOSJParameter extends APIEntry implements APIEntryInterface {
         if (o.has(Key.RELATED_TIME_SERIES)) {
             try {   
                 JSONArray relatedTimeSeriesArr = o.getJSONArray(Key.RELATED_TIME_SERIES); // Each array entry is a URLs to a related time series
+                List<String> relatedTimeSeriesUrls = new ArrayList<String>(relatedTimeSeriesArr.length());
                 for (int i = 0; i < relatedTimeSeriesArr.length(); i++) {
                     try {
                         String relatedTimeSeriesUrl = APIUtil.toApiUrl(relatedTimeSeriesArr.getString(i));
-                        if (relatedTimeSeriesUrl == null) {
-                            continue;
+                        if (relatedTimeSeriesUrl != null) {
+                            relatedTimeSeriesUrls.add(relatedTimeSeriesUrl);
+                        }
+                    } catch (Exception e) {
+                        if (LOG.isWarnEnabled()) {
+                            LOG.warn("MOSJ parameter " + id + " includes an unreadable time series reference at index " + i + ".", e);
+                        }
+                    }
+                }
+                
+                Map<String, JSONObject> timeSeriesJSONs = queryTimeSeries(relatedTimeSeriesUrls);
+                
+                // Create the time series in the order they are listed
+                for (String relatedTimeSeriesUrl : relatedTimeSeriesUrls) {
+                    try {
+                        JSONObject timeSeriesJSON = timeSeriesJSONs.get(relatedTimeSeriesUrl);
+                        if (timeSeriesJSON == null) {
+                            // Not in the batch response: fall back to reading it directly
+                            timeSeriesJSON = APIUtil.queryService(relatedTimeSeriesUrl, cacheTtl);
                         }
-                        JSONObject timeSeriesJSON = APIUtil.queryService(relatedTimeSeriesUrl);
                         if (timeSeriesJSON == null) {
                             if (LOG.isWarnEnabled()) {
                                 LOG.warn("MOSJ parameter " + id + " includes a problem time series at " + relatedTimeSeriesUrl);
                             }
                         } else {
-                            long a = System.currentTimeMillis();
-                            TimeSeries ts = new TimeSeries(timeSeriesJSON, displayLocale);
-                            long b = System.currentTimeMillis();
-                            //System.out.println("Created time series (" + (b-a) +"ms).");
-                            this.addTimeSeries(ts);
+                            this.addTimeSeries(new TimeSeries(timeSeriesJSON, displayLocale));
                         }
                     } catch (Exception e) {
                         if (LOG.isWarnEnabled()) {
-                            LOG.warn("Error resolving related time series for MOSJ parameter " + id + ".", e);
+                            LOG.warn("Error resolving related time series at " + relatedTimeSeriesUrl + " for MOSJ parameter " + id + ".", e);
                         }
                     }
                 }
@@ -201,6 +234,65 @@ public class MOSJParameter extends APIEntry implements APIEntryInterface {
         return this;
     }
     
+    /**
+     * Reads the time series at the given URLs, using as few requests as 
+     * possible.
+     * <p>
+     * URLs are grouped by their base URL (everything up to the ID), and each 
+     * group is read using a single query that filters on all the group's IDs 
+     * (<code>filter-id=a|b|c</code>).
+     * <p>
+     * Any time series that could not be read is simply missing from the 
+     * returned map, and should be read individually by the caller.
+     * 
+     * @param timeSeriesUrls The time series URLs.
+     * @return The JSON for each time series that could be read, keyed by its URL (as given).
+     */
+    private Map<String, JSONObject> queryTimeSeries(List<String> timeSeriesUrls) {
+        Map<String, JSONObject> timeSeriesJSONs = new HashMap<String, JSONObject>(timeSeriesUrls.size());
+        
+        // Group the IDs by base URL
+        Map<String, List<String>> idsByBaseUrl = new LinkedHashMap<String, List<String>>(1);
+        for (String url : timeSeriesUrls) {
+            int idStart = url.lastIndexOf("/") + 1;
+            if (idStart <= 0 || idStart >= url.length() || url.contains("?")) {
+                continue;
+            }
+            String baseUrl = url.substring(0, idStart);
+            List<String> ids = idsByBaseUrl.get(baseUrl);
+            if (ids == null) {
+                ids = new ArrayList<String>();
+                idsByBaseUrl.put(baseUrl, ids);
+            }
+            ids.add(url.substring(idStart));
+        }
+        
+        for (String baseUrl : idsByBaseUrl.keySet()) {
+            List<String> ids = idsByBaseUrl.get(baseUrl);
+            if (ids.size() < 2) {
+                continue; // A query is no better than reading it directly
+            }
+            String queryUrl = baseUrl
+                    + "?q=" 
+                    + "&" + MOSJService.Param.FORMAT + "=" + MOSJService.ParamVal.FORMAT_JSON
+                    + "&" + MOSJService.Param.RESULTS_LIMIT + "=" + ids.size()
+                    + "&" + MOSJService.Param.FACETS + "=" + MOSJService.ParamVal.FACETS_NONE
+                    + "&" + MOSJService.modFilter(TimeSeries.Key.ID) + "=" + MOSJService.combine(MOSJService.Delimiter.OR, ids.toArray(new String[ids.size()]));
+            try {
+                JSONArray tsEntries = APIUtil.queryService(queryUrl, cacheTtl).getJSONObject(MOSJService.Key.FEED).getJSONArray(MOSJService.Key.ENTRIES);
+                for (int i = 0; i < tsEntries.length(); i++) {
+                    JSONObject tsEntry = tsEntries.getJSONObject(i);
+                    timeSeriesJSONs.put(baseUrl + tsEntry.getString(TimeSeries.Key.ID), tsEntry);
+                }
+            } catch (Exception e) {
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Unable to batch-read the time series for MOSJ parameter " + id + " via '" + queryUrl + "'. Reading them one by one instead.", e);
+                }
+            }
+        }
+        return timeSeriesJSONs;
+    }
+    
     /**
      * Sets the preferred locale.
      * <p>
@@ -0,0 +1,575 @@
+package no.npolar.data.api.mosj;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import no.npolar.data.api.MOSJService;
+import no.npolar.data.api.TimeSeriesCollection;
+import no.npolar.data.api.util.APIUtil;
+import no.npolar.data.api.util.ResponseCache;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps "hot" MOSJ parameters ready for rendering, by reading them - and
+ * building their charts - in the background, instead of on the page request
+ * thread.
+ * <p>
+ * A parameter is hot if it has been {@link #addHotParameter(java.lang.String, java.util.Locale) added}
+ * explicitly, or if it has been {@link #get(java.lang.String, java.util.Locale) requested}
+ * recently (within the idle timeout). Each hot parameter is kept as a
+ * {@link PreparedParameter}: the parameter itself, its time series collection,
+ * and its serialized Highcharts configuration and HTML table.
+ * <p>
+ * Hot parameters are refreshed at a regular interval, with some random
+ * jitter, so that parameters added at the same time are not all refreshed at
+ * the same time. Only one refresh per parameter (and locale) is in progress at
+ * any time: a page request for a parameter that is being read simply waits
+ * for that read.
+ * <p>
+ * If a refresh fails, the previously prepared parameter is kept (and
+ * served) until the next successful refresh. A parameter that cannot be read
+ * at all (e.g. an unknown ID) does not become hot - or, if it was added
+ * explicitly, is dropped after its first failed read.
+ * <p>
+ * Prepared parameters are shared between request threads, and must be
+ * treated as read-only.
+ * <p>
+ * Instances are thread-safe, and are intended to be shared - typically one
+ * per application, created at startup and {@link #shutdown() shut down} when
+ * the application stops.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @see MOSJService#get(java.lang.String)
+ */
+public class MOSJRefreshService {
+    /** The logger. */
+    private static final Log LOG = LogFactory.getLog(MOSJRefreshService.class);
+
+    /** The default refresh interval, in milliseconds. */
+    public static final long DEFAULT_REFRESH_INTERVAL = 15 * 60 * 1000;
+    /** The default jitter, as a fraction of the refresh interval. */
+    public static final double DEFAULT_JITTER = 0.2;
+    /** The default time, in milliseconds, that a requested parameter stays hot after it was last requested. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 24 * 60 * 60 * 1000;
+    /** The default maximum number of hot parameters. */
+    public static final int DEFAULT_MAX_HOT = 200;
+
+    /** Flag indicating whether or not to use https. */
+    private final boolean secure;
+    /** The refresh interval, in milliseconds. */
+    private final long refreshInterval;
+    /** The jitter, as a fraction of the refresh interval. */
+    private final double jitter;
+    /** The time, in milliseconds, that a requested parameter stays hot after it was last requested. */
+    private final long idleTimeout;
+    /** The maximum number of hot parameters. */
+    private final int maxHot;
+
+    /** The hot parameters, keyed by ID and locale. */
+    private final ConcurrentMap<String, HotParameter> hot = new ConcurrentHashMap<String, HotParameter>();
+    /** The reads currently in progress, keyed by ID and locale. */
+    private final ConcurrentMap<String, FutureTask<PreparedParameter>> inFlight = new ConcurrentHashMap<String, FutureTask<PreparedParameter>>();
+    /** The scheduler that runs the refreshes. */
+    private final ScheduledExecutorService scheduler;
+    /** Random numbers, for the jitter. */
+    private final Random random = new Random();
+
+    /** Number of successful reads. */
+    private final AtomicLong refreshes = new AtomicLong();
+    /** Number of failed reads. */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Creates a new refresh service, using the default interval, jitter, idle
+     * timeout and maximum number of hot parameters.
+     *
+     * @param secure Set to true to use https, false to use http.
+     * @see #DEFAULT_REFRESH_INTERVAL
+     * @see #DEFAULT_JITTER
+     * @see #DEFAULT_IDLE_TIMEOUT
+     * @see #DEFAULT_MAX_HOT
+     */
+    public MOSJRefreshService(boolean secure) {
+        this(secure, DEFAULT_REFRESH_INTERVAL, DEFAULT_JITTER, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_HOT);
+    }
+
+    /**
+     * Creates a new refresh service.
+     *
+     * @param secure Set to true to use https, false to use http.
+     * @param refreshInterval The refresh interval, in milliseconds.
+     * @param jitter The jitter, as a fraction of the refresh interval, e.g. 0.2 to refresh every 80-120% of the interval.
+     * @param idleTimeout The time, in milliseconds, that a requested parameter stays hot after it was last requested.
+     * @param maxHot The maximum number of hot parameters. When exceeded, the least recently requested parameters (that were not added explicitly) are dropped.
+     */
+    public MOSJRefreshService(boolean secure, long refreshInterval, double jitter, long idleTimeout, int maxHot) {
+        if (refreshInterval < 1 || jitter < 0 || jitter >= 1 || idleTimeout < 0 || maxHot < 1) {
+            throw new IllegalArgumentException("The interval must be positive, the jitter in the range [0,1), the idle timeout non-negative, and at least 1 hot parameter allowed.");
+        }
+        this.secure = secure;
+        this.refreshInterval = refreshInterval;
+        this.jitter = jitter;
+        this.idleTimeout = idleTimeout;
+        this.maxHot = maxHot;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "npolar-mosj-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Gets the prepared MOSJ parameter with the given ID, in the given
+     * language.
+     * <p>
+     * If the parameter is hot, the prepared parameter is returned
+     * immediately. If not, it is read (on the calling thread) and - if that
+     * succeeds - becomes hot.
+     *
+     * @param id The parameter ID.
+     * @param locale The preferred language.
+     * @return The prepared MOSJ parameter, or <code>null</code> if it could not be read.
+     */
+    public PreparedParameter get(String id, Locale locale) {
+        String key = toKey(id, locale);
+        HotParameter hp = hot.get(key);
+        if (hp == null) {
+            hp = new HotParameter(key, id, locale);
+            hp.lastRequested = System.currentTimeMillis();
+            PreparedParameter prepared = load(hp);
+            if (prepared != null) {
+                track(hp, prepared);
+            }
+            return prepared;
+        }
+        hp.lastRequested = System.currentTimeMillis();
+        PreparedParameter prepared = hp.prepared;
+        if (prepared != null) {
+            return prepared;
+        }
+        return load(hp);
+    }
+
+    /**
+     * Adds the MOSJ parameter with the given ID, in the given language, as a
+     * hot parameter that is kept prepared until it is
+     * {@link #removeHotParameter(java.lang.String, java.util.Locale) removed}.
+     * <p>
+     * The parameter is read in the background, shortly after. If that read
+     * fails, the parameter is dropped again.
+     *
+     * @param id The parameter ID.
+     * @param locale The preferred language.
+     */
+    public void addHotParameter(String id, Locale locale) {
+        String key = toKey(id, locale);
+        HotParameter newHp = new HotParameter(key, id, locale);
+        newHp.pinned = true;
+        newHp.lastRequested = System.currentTimeMillis();
+        HotParameter hp = hot.putIfAbsent(key, newHp);
+        if (hp == null) {
+            // Read soon, spread out a little
+            scheduleRefresh(newHp, (long)(random.nextDouble() * refreshInterval * jitter));
+            evictExcess();
+        } else {
+            hp.pinned = true;
+        }
+    }
+
+    /**
+     * Removes the MOSJ parameter with the given ID, in the given language,
+     * from the hot parameters.
+     *
+     * @param id The parameter ID.
+     * @param locale The preferred language.
+     */
+    public void removeHotParameter(String id, Locale locale) {
+        HotParameter hp = hot.remove(toKey(id, locale));
+        if (hp != null) {
+            hp.cancel();
+        }
+    }
+
+    /**
+     * Stops all refreshing. Prepared parameters are still served, but are no
+     * longer refreshed.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Gets the number of hot parameters.
+     *
+     * @return The number of hot parameters.
+     */
+    public int getHotCount() { return hot.size(); }
+
+    /**
+     * Gets the number of successful reads (including refreshes).
+     *
+     * @return The number of successful reads.
+     */
+    public long getRefreshCount() { return refreshes.get(); }
+
+    /**
+     * Gets the number of failed reads (including refreshes).
+     *
+     * @return The number of failed reads.
+     */
+    public long getFailureCount() { return failures.get(); }
+
+    /**
+     * Gets the refresh interval.
+     *
+     * @return The refresh interval, in milliseconds.
+     */
+    public long getRefreshInterval() { return refreshInterval; }
+
+    /**
+     * Makes the given (requested, and successfully read) parameter hot, unless
+     * it already is.
+     *
+     * @param hp The parameter.
+     * @param prepared The prepared parameter, as just read.
+     */
+    private void track(HotParameter hp, PreparedParameter prepared) {
+        // The read may have been done for another instance (with the same key)
+        if (hp.prepared == null) {
+            hp.prepared = prepared;
+        }
+        HotParameter existing = hot.putIfAbsent(hp.key, hp);
+        if (existing == null) {
+            // Read by the caller, so refresh at the interval
+            scheduleRefresh(hp, nextDelay());
+            evictExcess();
+        } else {
+            existing.lastRequested = hp.lastRequested;
+            if (existing.prepared == null) {
+                existing.prepared = prepared;
+            }
+        }
+    }
+
+    /**
+     * Drops the least recently requested (non-pinned) hot parameters, until
+     * the number of hot parameters is within the maximum.
+     */
+    private void evictExcess() {
+        while (hot.size() > maxHot) {
+            HotParameter eldest = null;
+            for (HotParameter hp : hot.values()) {
+                if (!hp.pinned && (eldest == null || hp.lastRequested < eldest.lastRequested)) {
+                    eldest = hp;
+                }
+            }
+            if (eldest == null) {
+                return; // All pinned
+            }
+            if (hot.remove(eldest.key, eldest)) {
+                eldest.cancel();
+            }
+        }
+    }
+
+    /**
+     * Reads and prepares the given hot parameter, unless a read is already in
+     * progress - in which case that read is waited for instead.
+     *
+     * @param hp The hot parameter.
+     * @return The prepared parameter - or, if the read failed, the previously prepared parameter (if any).
+     */
+    private PreparedParameter load(final HotParameter hp) {
+        FutureTask<PreparedParameter> task = inFlight.get(hp.key);
+        // A completed task may linger briefly, until done() has removed it
+        if (task == null || task.isDone()) {
+            final FutureTask<PreparedParameter> newTask = new FutureTask<PreparedParameter>(new Callable<PreparedParameter>() {
+                @Override
+                public PreparedParameter call() throws Exception {
+                    return prepare(hp);
+                }
+            }) {
+                @Override
+                protected void done() {
+                    inFlight.remove(hp.key, this);
+                }
+            };
+            boolean shared = task == null
+                    ? inFlight.putIfAbsent(hp.key, newTask) == null
+                    : inFlight.replace(hp.key, task, newTask);
+            if (shared) {
+                newTask.run();
+                task = newTask;
+            } else {
+                task = inFlight.get(hp.key);
+                if (task == null) {
+                    // The other read has already completed (for this or another instance)
+                    HotParameter tracked = hot.get(hp.key);
+                    return tracked != null && tracked.prepared != null ? tracked.prepared : hp.prepared;
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Unable to prepare MOSJ parameter " + hp.id + " (" + hp.locale + ").", e.getCause());
+            }
+        }
+        return hp.prepared;
+    }
+
+    /**
+     * Reads the given hot parameter, and builds its time series collection,
+     * chart configuration and HTML table.
+     *
+     * @param hp The hot parameter.
+     * @return The prepared parameter.
+     * @throws Exception If the parameter could not be read or prepared.
+     */
+    // MOSJParameter is deprecated in favour of TimeSeriesCollection, but it is 
+    // still what MOSJ pages render from (title, URL, related time series), so 
+    // prepared parameters carry it until those pages have moved on
+    @SuppressWarnings("deprecation")
+    private PreparedParameter prepare(HotParameter hp) throws Exception {
+        MOSJService service = new MOSJService(hp.locale, secure);
+        // Used for both the parameter and its time series
+        service.setCacheTimeToLive(getRefreshTimeToLive());
+
+        MOSJParameter mp = service.get(hp.id);
+        if (mp == null) {
+            throw new InstantiationException("No MOSJ parameter " + hp.id + " could be read.");
+        }
+        TimeSeriesCollection tsc = mp.getTimeSeriesCollection();
+        if (tsc == null) {
+            throw new InstantiationException("No time series collection could be created for MOSJ parameter " + hp.id + ".");
+        }
+        HighchartsChart chart = new HighchartsChart(mp.getId(), tsc, null);
+        PreparedParameter prepared = new PreparedParameter(
+                mp,
+                tsc,
+                chart.getChartConfigurationString(),
+                chart.getHtmlTable(),
+                System.currentTimeMillis()
+        );
+        hp.prepared = prepared;
+        refreshes.incrementAndGet();
+        return prepared;
+    }
+
+    /**
+     * Gets the time-to-live to use for the responses read by a refresh.
+     * <p>
+     * This is short enough that, by the time of the next refresh, any cached
+     * response read by this refresh has expired <em>beyond</em> the response
+     * cache's stale-while-revalidate window. Each refresh therefore revalidates
+     * the responses before using them, instead of being served stale ones.
+     * <p>
+     * With a refresh interval that is shorter than that window, this is not
+     * possible. The time-to-live is then 1 ms (rather than 0, which would
+     * bypass the cache altogether), so refreshes may be served stale responses
+     * while these are revalidated in the background.
+     *
+     * @return The time-to-live to use for the responses read by a refresh, in milliseconds. Always positive.
+     */
+    private long getRefreshTimeToLive() {
+        long shortestDelay = refreshInterval - (long)Math.ceil(refreshInterval * jitter);
+        ResponseCache cache = APIUtil.getResponseCache();
+        return Math.max(1, shortestDelay - (cache == null ? 0 : cache.getStaleWhileRevalidate()));
+    }
+
+    /**
+     * Refreshes the given hot parameter, and schedules the next refresh -
+     * unless it is no longer hot, or has never been read successfully.
+     *
+     * @param hp The hot parameter.
+     */
+    private void refresh(HotParameter hp) {
+        if (hot.get(hp.key) != hp) {
+            return; // Removed
+        }
+        if (!hp.pinned && System.currentTimeMillis() - hp.lastRequested > idleTimeout) {
+            // Not requested for a while: no longer hot
+            hot.remove(hp.key, hp);
+            return;
+        }
+        boolean readable = true;
+        try {
+            readable = load(hp) != null;
+        } finally {
+            if (readable) {
+                scheduleRefresh(hp, nextDelay());
+            } else {
+                // Never read (e.g. an unknown ID): don't keep retrying it, and
+                // don't let it take the place of a readable parameter
+                hot.remove(hp.key, hp);
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Dropped hot MOSJ parameter " + hp.id + " (" + hp.locale + "), as it could not be read.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a refresh of the given hot parameter.
+     *
+     * @param hp The hot parameter.
+     * @param delay The delay, in milliseconds.
+     */
+    private void scheduleRefresh(final HotParameter hp, long delay) {
+        try {
+            hp.next = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    refresh(hp);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Gets the delay until the next refresh: the refresh interval, plus or
+     * minus a random jitter.
+     *
+     * @return The delay until the next refresh, in milliseconds.
+     */
+    private long nextDelay() {
+        double spread = refreshInterval * jitter;
+        return refreshInterval + (long)((random.nextDouble() * 2 - 1) * spread);
+    }
+
+    /**
+     * Gets the key for the given ID and language.
+     *
+     * @param id The parameter ID.
+     * @param locale The preferred language.
+     * @return The key for the given ID and language.
+     */
+    private static String toKey(String id, Locale locale) {
+        return id + "|" + locale;
+    }
+
+    /**
+     * A hot parameter, and its state.
+     */
+    private static class HotParameter {
+        /** The key (ID and locale). */
+        final String key;
+        /** The parameter ID. */
+        final String id;
+        /** The preferred language. */
+        final Locale locale;
+        /** Flag indicating whether or not the parameter was added explicitly. */
+        volatile boolean pinned = false;
+        /** When the parameter was last requested. */
+        volatile long lastRequested = 0;
+        /** The prepared parameter, or <code>null</code> if not (yet) read. */
+        volatile PreparedParameter prepared = null;
+        /** The next scheduled refresh. */
+        volatile ScheduledFuture<?> next = null;
+
+        HotParameter(String key, String id, Locale locale) {
+            this.key = key;
+            this.id = id;
+            this.locale = locale;
+        }
+
+        /**
+         * Cancels the next scheduled refresh, if any.
+         */
+        void cancel() {
+            ScheduledFuture<?> f = next;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A MOSJ parameter that is ready for rendering.
+     */
+    // See prepare(HotParameter) on why MOSJParameter is still used here
+    @SuppressWarnings("deprecation")
+    public static class PreparedParameter {
+        /** The MOSJ parameter. */
+        private final MOSJParameter parameter;
+        /** The parameter's time series collection. */
+        private final TimeSeriesCollection timeSeriesCollection;
+        /** The serialized Highcharts configuration. */
+        private final String chartConfiguration;
+        /** The Highcharts-munchable HTML table. */
+        private final String htmlTable;
+        /** When the parameter was prepared. */
+        private final long preparedAt;
+
+        PreparedParameter(MOSJParameter parameter, TimeSeriesCollection timeSeriesCollection,
+                String chartConfiguration, String htmlTable, long preparedAt) {
+            this.parameter = parameter;
+            this.timeSeriesCollection = timeSeriesCollection;
+            this.chartConfiguration = chartConfiguration;
+            this.htmlTable = htmlTable;
+            this.preparedAt = preparedAt;
+        }
+
+        /**
+         * Gets the MOSJ parameter.
+         *
+         * @return The MOSJ parameter.
+         */
+        public MOSJParameter getParameter() { return parameter; }
+
+        /**
+         * Gets the parameter's time series collection.
+         *
+         * @return The parameter's time series collection.
+         */
+        public TimeSeriesCollection getTimeSeriesCollection() { return timeSeriesCollection; }
+
+        /**
+         * Gets the serialized Highcharts configuration, built without any
+         * overrides.
+         *
+         * @return The serialized Highcharts configuration, or <code>null</code> if it could not be created.
+         * @see HighchartsChart#getChartConfigurationString()
+         */
+        public String getChartConfigurationString() { return chartConfiguration; }
+
+        /**
+         * Gets the Highcharts-munchable HTML table.
+         *
+         * @return The Highcharts-munchable HTML table.
+         * @see HighchartsChart#getHtmlTable()
+         */
+        public String getHtmlTable() { return htmlTable; }
+
+        /**
+         * Gets the time when the parameter was prepared.
+         *
+         * @return The time when the parameter was prepared, in milliseconds since the epoch.
+         */
+        public long getPreparedAt() { return preparedAt; }
+    }
+}
@@ -1,19 +1,22 @@
 package no.npolar.data.api.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.Collator;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import no.npolar.data.api.APIEntry;
 import no.npolar.data.api.APIEntry.TimestampPattern;
 import no.npolar.data.api.APIService;
@@ -67,26 +70,152 @@ public class APIUtil {
             // followed by a delimiter character
             + "($|(,|;|\\s).*)";
     
+    /** The HTTP transport used for all service requests. */
+    private static volatile HttpTransport httpTransport = new DefaultHttpTransport();
+    
+    /**
+     * Sets the HTTP transport to use for all service requests.
+     * <p>
+     * Typically invoked once, at application startup, e.g. to configure 
+     * timeouts other than the defaults.
+     * 
+     * @param transport The HTTP transport to use. If <code>null</code>, a {@link DefaultHttpTransport} with default settings is used.
+     * @see DefaultHttpTransport
+     */
+    public static void setHttpTransport(HttpTransport transport) {
+        httpTransport = transport == null ? new DefaultHttpTransport() : transport;
+    }
+    
+    /**
+     * Gets the HTTP transport currently used for all service requests.
+     * 
+     * @return The HTTP transport currently used for all service requests.
+     */
+    public static HttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+    
+    /** The response cache shared by all service requests, or <code>null</code> if caching is disabled. */
+    private static volatile ResponseCache responseCache = new ResponseCache();
+    
+    /**
+     * Sets the response cache to use for all service requests.
+     * 
+     * @param cache The response cache to use, or <code>null</code> to disable caching.
+     * @see ResponseCache
+     */
+    public static void setResponseCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+    
+    /**
+     * Gets the response cache currently used for all service requests, e.g. 
+     * to read its hit / miss / eviction counters.
+     * 
+     * @return The response cache currently used, or <code>null</code> if caching is disabled.
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+    
+    /**
+     * Gets the time when the snapshot last served for the given URL was 
+     * stored, if the configured {@link HttpTransport} is a 
+     * {@link SnapshotTransport}.
+     * 
+     * @param url The request URL.
+     * @return The time (in milliseconds since the epoch) when the snapshot was stored, or -1 if the last response for the given URL was not served from a snapshot.
+     * @see SnapshotTransport#getSnapshotTime(java.lang.String) 
+     */
+    public static long getSnapshotTime(String url) {
+        HttpTransport transport = httpTransport;
+        if (transport instanceof SnapshotTransport) {
+            return ((SnapshotTransport)transport).getSnapshotTime(url);
+        }
+        return -1;
+    }
+    
     /**
      * Requests the given URL and returns the response as a String.
+     * <p>
+     * The request is issued via the configured {@link HttpTransport}, 
+     * bypassing the {@link #getResponseCache() response cache}. To use the 
+     * cache, see {@link #httpResponseAsString(java.lang.String, long)}.
      * 
      * @param url The URL to request.
      * @return The response, as a string.
      * @throws MalformedURLException
      * @throws IOException
+     * @see #setHttpTransport(no.npolar.data.api.util.HttpTransport) 
+     * @see #httpResponseAsString(java.lang.String, long) 
      */
     public static String httpResponseAsString(String url) 
             throws MalformedURLException, IOException {
-        
-        BufferedReader in = new BufferedReader(new InputStreamReader(new URL(url).openConnection().getInputStream(), APIService.SERVICE_CHARSET));
-        StringBuilder s = new StringBuilder();
-        String oneLine;
-        while ((oneLine = in.readLine()) != null) {
-            s.append(oneLine);
+        return httpResponseAsString(url, 0);
+    }
+    
+    /**
+     * Requests the given URL and returns the response as a String.
+     * <p>
+     * The request is issued via the configured {@link HttpTransport}, unless 
+     * a fresh response is available from the {@link #getResponseCache() response cache}.
+     * 
+     * @param url The URL to request.
+     * @param ttl How long (in milliseconds) a cached response is considered fresh. If 0 or less, the cache is bypassed.
+     * @return The response, as a string.
+     * @throws MalformedURLException
+     * @throws IOException
+     * @see ResponseCache#get(java.lang.String, long, no.npolar.data.api.util.HttpTransport) 
+     */
+    public static String httpResponseAsString(String url, long ttl) 
+            throws MalformedURLException, IOException {
+        ResponseCache cache = responseCache;
+        if (cache == null) {
+            return httpTransport.get(url);
         }
-        in.close();
-
-        return s.toString();
+        return cache.get(url, ttl, httpTransport);
+    }
+    
+    /**
+     * Requests the given URL and returns a reader for the response body.
+     * <p>
+     * The request is issued via the configured {@link HttpTransport}, 
+     * bypassing the {@link #getResponseCache() response cache}. To use the 
+     * cache, see {@link #httpResponseAsReader(java.lang.String, long)}. The 
+     * caller must close the returned reader.
+     * 
+     * @param url The URL to request.
+     * @return A reader for the response body.
+     * @throws MalformedURLException
+     * @throws IOException
+     * @see #httpResponseAsReader(java.lang.String, long) 
+     */
+    public static Reader httpResponseAsReader(String url) 
+            throws MalformedURLException, IOException {
+        return httpResponseAsReader(url, 0);
+    }
+    
+    /**
+     * Requests the given URL and returns a reader for the response body.
+     * <p>
+     * The request is issued via the configured {@link HttpTransport}, unless 
+     * a fresh response is available from the {@link #getResponseCache() response cache}. 
+     * The caller must close the returned reader.
+     * 
+     * @param url The URL to request.
+     * @param ttl How long (in milliseconds) a cached response is considered fresh. If 0 or less, the cache is bypassed.
+     * @return A reader for the response body.
+     * @throws MalformedURLException
+     * @throws IOException
+     * @see ResponseCache#getReader(java.lang.String, long, no.npolar.data.api.util.HttpTransport) 
+     */
+    public static Reader httpResponseAsReader(String url, long ttl) 
+            throws MalformedURLException, IOException {
+        ResponseCache cache = responseCache;
+        if (cache == null) {
+            return httpTransport.getReader(url);
+        }
+        return cache.getReader(url, ttl, httpTransport);
     }
     
     /**
@@ -149,14 +278,30 @@ public class APIUtil {
     /**
      * Queries the service at the given URL, and tries to return the service 
      * response as a JSON object.
+     * <p>
+     * The response cache is bypassed. To use the cache, see 
+     * {@link #queryService(java.lang.String, long)}.
      * 
      * @param url The URL to use for querying the service.
      * @return The service response as a JSON object, or null if anything goes wrong.
+     * @see #queryService(java.lang.String, long) 
      */
     public static JSONObject queryService(String url) {
+        return queryService(url, 0);
+    }
+    
+    /**
+     * Queries the service at the given URL, and tries to return the service 
+     * response as a JSON object.
+     * 
+     * @param url The URL to use for querying the service.
+     * @param ttl How long (in milliseconds) a cached response is considered fresh. If 0 or less, the cache is bypassed.
+     * @return The service response as a JSON object, or null if anything goes wrong.
+     */
+    public static JSONObject queryService(String url, long ttl) {
         try {
             //System.out.println("Querying API @ " + url);
-            JSONObject serviceResponseObject = new JSONObject(httpResponseAsString(url));
+            JSONObject serviceResponseObject = new JSONObject(httpResponseAsString(url, ttl));
             return serviceResponseObject;
         } catch (java.io.FileNotFoundException missingFileException) {
             if (LOG.isWarnEnabled()) {
@@ -418,76 +563,19 @@ public class APIUtil {
      * <p>
      * Note that each value in the returned map may contain multiple values 
      * split by e.g. the "AND" or "OR" delimiter (see {@link APIService.Delimiter#AND}).
+     * Values are not decoded, and the parameters are kept in the order they 
+     * appear in the URI. If a parameter occurs multiple times, only its first 
+     * value is included.
+     * <p>
+     * For repeated lookups / modifications, consider using {@link QueryParams} 
+     * directly.
      * 
      * @param uri The URI string to extract parameters from.
      * @return The parameters pulled from the given URI string, or an empty map if none.
+     * @see QueryParams#fromUri(java.lang.String) 
      */
     public static Map<String, String> getParametersInQueryString(String uri) {
-    //public static Map<String, List<String>> getParametersInQueryString(String uri) {
-        // The parameter map
-        Map<String, String> m = new HashMap<String, String>();
-        //Map<String, List<String>> m = new HashMap<String, List<String>>();
-        //System.out.println("#getParametersInQueryString invoked with '" + uri + "'");
-        // Require that there was a URI string, and that it did contain a "?"
-        if (uri == null || uri.isEmpty() || !uri.contains("?")) {
-            //System.out.println("NULL or no query string: " + uri);
-            return m; // Nope => return empty map
-        }
-        
-        // Require that there was in fact something AFTER the "?" as well.
-        String queryString = getQueryString(uri);
-        if (queryString.isEmpty()) {
-            return m; // Nope => return empty map
-        }
-            
-        /*
-        uri = uri.substring(uri.indexOf("?"));
-        if (uri.length() <= 1) {
-            return m; // No? Then don't continue
-        } else {
-            uri = uri.substring(1); // OK! Now let's remove the trailing "?", so we're left with only the parameters
-        }*/
-        
-        // Split on "&" to separate each parameter's key-value pair, then loop
-        String[] keyValPairs = queryString.split("\\&");
-        for (int i = 0; i < keyValPairs.length; i++) {
-            // Separate key and value, and inject into the map
-            String[] keyVal = keyValPairs[i].split("=");
-            String key = keyVal[0];
-            
-            // Handle cases of HTML-escaped ampersand
-            if (key.startsWith("amp;")) {
-                key = key.substring("amp;".length());
-            }
-            m.put(key, "");
-            //System.out.print("#getParametersInQueryString MAPPING " + key);
-            //m.put(key, new ArrayList<String>());
-            // The try/catch is vital to handles cases of "key exists but not value" properly
-            try {
-                m.put(key, keyVal[1]);
-                //System.out.println("=" + keyVal[1]);
-                /*if (keyVal[1].contains(",")) {
-                
-                    //
-                    // The routine below is BAD because the delimiter may 
-                    // alo be "|", ".." (and possibly other ones)
-                    //
-                
-                    String[] vals = keyVal[1].split(","); // Split the value on "," to separate multiple values, then loop
-                    for (int j = 0; j < vals.length; j++) {
-                        String val = vals[j]; // Get the single value string and ... 
-                        m.get(key).add(val); // ... add it to the list
-                    }
-                } else {
-                    m.get(key).add(keyVal[1]); // Add the single value string
-                }*/
-                
-            } catch (Exception e) {
-                //System.out.println("=[EMPTY]");
-            }
-        }
-        //System.out.println("Done, returning " + m.size() + " mapped parameters");
-        return m;
+        return QueryParams.fromUri(uri).toMap();
     }
     
     /**
@@ -497,26 +585,7 @@ public class APIUtil {
      * @return All the parameter keys present in the given URI, or empty list if none.
      */
     public static List<String> getParametersKeysInQueryString(String uri) {
-        List<String> keys = new ArrayList<String>();
-        
-        // Require that there was a URI string, and that it did contain a "?"
-        if (uri == null || uri.isEmpty() || !uri.contains("?"))
-            return keys; // Nope => return empty list
-        
-        // Require that there was in fact something AFTER the "?" as well.
-        String queryString = getQueryString(uri);
-        if (queryString.isEmpty())
-            return keys; // Nope => return empty list
-        
-        // Extract and store each key
-        String[] keyValPairs = queryString.split("\\&");
-        for (String keyValPair : keyValPairs) {
-            try {
-                keys.add(keyValPair.split("=")[0]);
-            } catch (Exception e) {}
-        }
-        
-        return keys;
+        return new ArrayList<String>(QueryParams.fromUri(uri).getNames());
     }
     
     /**
@@ -530,27 +599,7 @@ public class APIUtil {
      * @return A string representation of the the given parameter map, ready to use in a URI.
      */
     public static String getParameterString(Map<String, String> keyValuePairs) {
-    //public static String getParameterString(Map<String, List<String>> m) {
-        String s = "";
-        Iterator<String> iKeys = keyValuePairs.keySet().iterator();
-        while (iKeys.hasNext()) {
-            String key = iKeys.next();
-            s += key + "=" + keyValuePairs.get(key) + (iKeys.hasNext() ? "&" : "");
-            /*
-            s += key + "=";
-            List<String> vals = m.get(key);
-            Iterator<String> iVals = vals.iterator();
-            while (iVals.hasNext()) {
-                s += iVals.next();
-                if (iVals.hasNext()) 
-                    s+= ",";
-            }
-            
-            if (iKeys.hasNext())
-                s += "&";
-            */
-        }
-        return s;
+        return toQueryString(keyValuePairs);
     }
     
     /**
@@ -564,13 +613,14 @@ public class APIUtil {
      * @return A string representation of the the given parameter map, ready to use in a URI.
      */
     public static String toQueryString(Map<String, String> keyValuePairs) {
-        String s = "";
-        Iterator<String> iKeys = keyValuePairs.keySet().iterator();
-        while (iKeys.hasNext()) {
-            String key = iKeys.next();
-            s += key + "=" + keyValuePairs.get(key) + (iKeys.hasNext() ? "&" : "");
+        StringBuilder s = new StringBuilder(keyValuePairs.size() * 16);
+        for (Map.Entry<String, String> keyValuePair : keyValuePairs.entrySet()) {
+            if (s.length() > 0) {
+                s.append('&');
+            }
+            s.append(keyValuePair.getKey()).append('=').append(keyValuePair.getValue());
         }
-        return s;
+        return s.toString();
     }
     
     /**
@@ -585,23 +635,7 @@ public class APIUtil {
         if (params.isEmpty()) {
             return "";
         }
-
-        List<String> e = new ArrayList<String>(0);
-        for (String exclusion : exclusions) {
-            e.add(exclusion);
-        }
-
-        String s = "";
-        Iterator<String> i = params.keySet().iterator();
-        while (i.hasNext()) {
-            String key = i.next(); // e.g. "facets" (parameter name)
-            if (e.contains(key)) {
-                continue;
-            }
-            String[] values = params.get(key); // e.g. get the parameter value(s) for "facets"
-            s += (s.isEmpty() ? "" : "&") + key + "=" + APIService.combine(APIService.Delimiter.AND, values);
-        }
-        return s;
+        return QueryParams.of(params, APIService.Delimiter.AND).without(Arrays.asList(exclusions)).toString();
     }
     
     /**
@@ -697,6 +731,69 @@ public class APIUtil {
         }
     }
     
+    /** The collators, by locale. */
+    private static final ConcurrentMap<Locale, Collator> COLLATORS = new ConcurrentHashMap<Locale, Collator>();
+    
+    /**
+     * Gets a collator for the given locale.
+     * <p>
+     * The returned collator is a private copy, which the caller is free to 
+     * modify (e.g. its strength), but which is not thread-safe. Get one per 
+     * sort operation, rather than one per comparison - or use 
+     * {@link #compareCollated(java.util.Locale, java.lang.String, java.lang.String)}.
+     * 
+     * @param locale The locale.
+     * @return A new collator for the given locale.
+     */
+    public static Collator getCollator(Locale locale) {
+        Collator c = getSharedCollator(locale);
+        synchronized (c) {
+            return (Collator)c.clone();
+        }
+    }
+    
+    /**
+     * Compares the given strings, using the collation rules for the given 
+     * locale.
+     * <p>
+     * Uses a shared collator, and is safe to use from multiple threads at 
+     * once. For sorting large collections, consider using collation keys 
+     * from a {@link #getCollator(java.util.Locale) private collator} instead.
+     * 
+     * @param locale The locale.
+     * @param s1 The first string.
+     * @param s2 The second string.
+     * @return A negative integer, zero, or a positive integer as the first string is less than, equal to, or greater than the second.
+     * @see Collator#compare(java.lang.String, java.lang.String) 
+     */
+    public static int compareCollated(Locale locale, String s1, String s2) {
+        Collator c = getSharedCollator(locale);
+        synchronized (c) {
+            return c.compare(s1, s2);
+        }
+    }
+    
+    /**
+     * Gets the shared collator for the given locale, creating it if necessary.
+     * <p>
+     * The shared collator must never be modified or handed out, and must be 
+     * synchronized on while in use.
+     * 
+     * @param locale The locale.
+     * @return The shared collator for the given locale.
+     */
+    private static Collator getSharedCollator(Locale locale) {
+        Collator c = COLLATORS.get(locale);
+        if (c == null) {
+            c = Collator.getInstance(locale);
+            Collator existing = COLLATORS.putIfAbsent(locale, c);
+            if (existing != null) {
+                c = existing;
+            }
+        }
+        return c;
+    }
+    
     /**
      * Determines if the given locale represents some kind of English.
      * 
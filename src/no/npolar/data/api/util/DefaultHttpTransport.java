@@ -0,0 +1,485 @@
+package no.npolar.data.api.util;
+
+import java.io.FileNotFoundException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import no.npolar.data.api.APIService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Default HTTP transport, based on {@link HttpURLConnection}.
+ * <p>
+ * Compared to simply reading from <code>URL.openConnection()</code>, this
+ * transport:
+ * <ul>
+ * <li>applies connect and read timeouts, so a hanging service cannot block the
+ *  calling thread forever;</li>
+ * <li>negotiates gzip / deflate compressed responses;</li>
+ * <li>limits the number of concurrent requests per host, waiting at most the
+ *  connect timeout for a free slot. A thread that already has an open response
+ *  from a host (e.g. while an {@link no.npolar.data.api.EntryHandler} is
+ *  processing a streamed response) is not limited for further requests to that
+ *  host, as it would otherwise wait for a slot held by itself;</li>
+ * <li>reads error responses to the end, and drains whatever is left (up to
+ *  {@link #DRAIN_LIMIT} bytes) of responses that are closed early, so that 
+ *  the underlying connection is handed back to the JDK's keep-alive 
+ *  connection cache and reused by the next request. Connections with more 
+ *  than that left unread are discarded instead.</li>
+ * </ul>
+ * <p>
+ * The keep-alive cache itself is managed by the JDK. Its size (number of idle
+ * connections kept per host) is bounded by the <code>http.maxConnections</code>
+ * system property (default 5), and should be at least as large as the
+ * per-host concurrency limit set here for optimal connection reuse.
+ * <p>
+ * Instances are thread-safe, and are intended to be shared.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+public class DefaultHttpTransport implements HttpTransport {
+    /** The logger. */
+    private static final Log LOG = LogFactory.getLog(DefaultHttpTransport.class);
+
+    /** The default connect timeout, in milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    /** The default read timeout, in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT = 20000;
+    /** The default maximum number of concurrent requests per host. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    /** The content encodings we accept. */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    /** The size of the character buffer used when reading responses. */
+    private static final int BUFFER_SIZE = 8192;
+    /** The maximum number of unread bytes to drain from a response that is closed early. */
+    public static final int DRAIN_LIMIT = 65536;
+
+    /** The connect timeout, in milliseconds. */
+    private final int connectTimeout;
+    /** The read timeout, in milliseconds. */
+    private final int readTimeout;
+    /** The maximum number of concurrent requests per host. */
+    private final int maxConnectionsPerHost;
+    /** Per-host permits, used to limit the number of concurrent requests. */
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+    /** Per-host number of permits held by the current thread. */
+    private final ThreadLocal<ConcurrentMap<String, AtomicInteger>> heldPermits = new ThreadLocal<ConcurrentMap<String, AtomicInteger>>() {
+        @Override
+        protected ConcurrentMap<String, AtomicInteger> initialValue() {
+            return new ConcurrentHashMap<String, AtomicInteger>();
+        }
+    };
+
+    /**
+     * Creates a new transport, using the default timeouts and per-host limit.
+     *
+     * @see #DEFAULT_CONNECT_TIMEOUT
+     * @see #DEFAULT_READ_TIMEOUT
+     * @see #DEFAULT_MAX_CONNECTIONS_PER_HOST
+     */
+    public DefaultHttpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Creates a new transport, using the given timeouts and per-host limit.
+     *
+     * @param connectTimeout The connect timeout, in milliseconds. Also used as the maximum time to wait for a free per-host slot.
+     * @param readTimeout The read timeout, in milliseconds.
+     * @param maxConnectionsPerHost The maximum number of concurrent requests per host.
+     */
+    public DefaultHttpTransport(int connectTimeout, int readTimeout, int maxConnectionsPerHost) {
+        if (connectTimeout < 0 || readTimeout < 0 || maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("Timeouts cannot be negative, and at least 1 connection per host is required.");
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * @see HttpTransport#get(java.lang.String)
+     */
+    @Override
+    public String get(String url) throws MalformedURLException, IOException {
+        Reader r = getReader(url);
+        try {
+            StringBuilder s = new StringBuilder(BUFFER_SIZE);
+            char[] buf = new char[BUFFER_SIZE];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                s.append(buf, 0, n);
+            }
+            return s.toString();
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * @see HttpTransport#getReader(java.lang.String)
+     */
+    @Override
+    public Reader getReader(String url) throws MalformedURLException, IOException {
+        return getConditional(url, null, null).getReader();
+    }
+
+    /**
+     * @see HttpTransport#getConditional(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public HttpResponse getConditional(String url, String ifNoneMatch, String ifModifiedSince) 
+            throws MalformedURLException, IOException {
+        URL u = new URL(url);
+        Permit permit = acquire(u);
+        try {
+            return open(u, ifNoneMatch, ifModifiedSince, permit);
+        } catch (IOException e) {
+            permit.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires a permit for a request to the host of the given URL.
+     * <p>
+     * If the current thread already holds a permit for the host, the returned 
+     * permit is not counted against the per-host limit.
+     *
+     * @param u The URL to request.
+     * @return The acquired permit.
+     * @throws IOException If no permit could be acquired within the connect timeout.
+     */
+    private Permit acquire(URL u) throws IOException {
+        String host = getHostKey(u);
+        ConcurrentMap<String, AtomicInteger> held = heldPermits.get();
+        AtomicInteger heldForHost = held.get(host);
+        if (heldForHost == null) {
+            heldForHost = new AtomicInteger();
+            held.put(host, heldForHost);
+        }
+        if (heldForHost.get() > 0) {
+            // Nested request (e.g. from an entry handler): don't wait for ourselves
+            return new Permit(null, null);
+        }
+        Semaphore permits = getPermits(host);
+        try {
+            if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a free connection to " + u.getHost() + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a free connection to " + u.getHost() + ".");
+        }
+        heldForHost.incrementAndGet();
+        return new Permit(permits, heldForHost);
+    }
+
+    /**
+     * A permit for a single request, released when the response is closed.
+     * <p>
+     * Can be released from any thread, and releasing more than once has no 
+     * effect.
+     */
+    private static class Permit {
+        /** The per-host permits, or <code>null</code> if this permit is not counted. */
+        private final Semaphore permits;
+        /** The number of permits held by the acquiring thread, or <code>null</code> if this permit is not counted. */
+        private final AtomicInteger held;
+        /** Flag indicating whether or not this permit is released. */
+        private boolean released = false;
+
+        Permit(Semaphore permits, AtomicInteger held) {
+            this.permits = permits;
+            this.held = held;
+        }
+
+        synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (permits != null) {
+                held.decrementAndGet();
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Issues the actual GET request, and returns the response.
+     *
+     * @param u The URL to request.
+     * @param ifNoneMatch The If-None-Match request header value, or <code>null</code> if none.
+     * @param ifModifiedSince The If-Modified-Since request header value, or <code>null</code> if none.
+     * @param permit The (already acquired) permit for the URL's host, to release when the returned response is closed.
+     * @return The response, with a reader for the (decoded) response body, if any.
+     * @throws IOException If anything goes wrong.
+     */
+    private HttpResponse open(URL u, String ifNoneMatch, String ifModifiedSince, Permit permit) throws IOException {
+        URLConnection conn = u.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        if (ifNoneMatch != null) {
+            conn.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            conn.setRequestProperty("If-Modified-Since", ifModifiedSince);
+        }
+
+        if (!(conn instanceof HttpURLConnection)) {
+            // Not HTTP (e.g. file:), just read it
+            return new HttpResponse(
+                    HttpURLConnection.HTTP_OK, 
+                    null, 
+                    null, 
+                    new ResponseReader(conn.getInputStream(), conn.getContentEncoding(), null, permit)
+            );
+        }
+
+        HttpURLConnection http = (HttpURLConnection)conn;
+        int responseCode = http.getResponseCode();
+        String etag = http.getHeaderField("ETag");
+        String lastModified = http.getHeaderField("Last-Modified");
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            // No body - close right away, handing the connection back to the cache
+            try { http.getInputStream().close(); } catch (Exception e) { }
+            permit.release();
+            return new HttpResponse(responseCode, etag, lastModified, null);
+        }
+        if (responseCode >= 400) {
+            // Drain the error stream, so the connection can be reused
+            InputStream err = http.getErrorStream();
+            if (err != null) {
+                try {
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    while (err.read(buf) != -1) {
+                    }
+                } catch (Exception e) {
+                    http.disconnect();
+                } finally {
+                    try { err.close(); } catch (Exception e) { }
+                }
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_GONE) {
+                throw new FileNotFoundException(u.toString());
+            }
+            throw new IOException("Service at '" + u + "' responded " + responseCode + ".");
+        }
+        try {
+            return new HttpResponse(
+                    responseCode, 
+                    etag, 
+                    lastModified, 
+                    new ResponseReader(http.getInputStream(), http.getContentEncoding(), http, permit)
+            );
+        } catch (IOException e) {
+            // Don't put a possibly broken connection back in the cache
+            http.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps the given stream in a decoding stream, according to the given 
+     * content encoding.
+     *
+     * @param in The stream to decode.
+     * @param contentEncoding The content encoding, as stated in the response headers. Can be <code>null</code>.
+     * @return The decoding stream, or the given stream if no decoding is needed.
+     * @throws IOException If anything goes wrong.
+     */
+    private static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            return new DeflateInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * Inflating stream for deflate encoded responses.
+     * <p>
+     * Because we provide the inflater ourselves (in order to set the buffer 
+     * size), the standard implementation will not release it on close. This 
+     * one does, so the inflater's native memory is freed right away instead 
+     * of on finalization.
+     */
+    private static class DeflateInputStream extends InflaterInputStream {
+        DeflateInputStream(InputStream in) {
+            super(in, new Inflater(), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * Reader for a response body.
+     * <p>
+     * Closing the reader releases the per-host permit, and hands the 
+     * connection back to the keep-alive cache - unless a read failed, or more 
+     * than {@link #DRAIN_LIMIT} bytes were left unread, in which case the 
+     * connection is discarded.
+     */
+    private static class ResponseReader extends FilterReader {
+        /** The raw (not decoded) response stream. */
+        private final InputStream raw;
+        /** The connection, if HTTP. */
+        private final HttpURLConnection http;
+        /** The per-host permit to release on close. */
+        private final Permit permit;
+        /** Flag indicating whether or not a read has failed. */
+        private boolean broken = false;
+        /** Flag indicating whether or not this reader is closed. */
+        private boolean closed = false;
+
+        ResponseReader(InputStream raw, String contentEncoding, HttpURLConnection http, Permit permit) throws IOException {
+            super(new InputStreamReader(decode(raw, contentEncoding), APIService.SERVICE_CHARSET));
+            this.raw = raw;
+            this.http = http;
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            try {
+                return super.read(cbuf, off, len);
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (!broken && http != null && !drain()) {
+                    broken = true;
+                }
+                super.close();
+            } finally {
+                if (broken && http != null) {
+                    http.disconnect();
+                }
+                permit.release();
+            }
+        }
+
+        /**
+         * Reads and discards what is left of the raw response, up to 
+         * {@link #DRAIN_LIMIT} bytes.
+         *
+         * @return <code>true</code> if the end of the response was reached, <code>false</code> if not.
+         */
+        private boolean drain() {
+            try {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int drained = 0;
+                int n;
+                while (drained <= DRAIN_LIMIT) {
+                    if ((n = raw.read(buf)) == -1) {
+                        return true;
+                    }
+                    drained += n;
+                }
+            } catch (Exception e) {
+                // Fall through
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gets the key identifying the host of the given URL.
+     *
+     * @param u The URL.
+     * @return The key identifying the host of the given URL.
+     */
+    private static String getHostKey(URL u) {
+        return u.getHost() + ":" + u.getPort();
+    }
+
+    /**
+     * Gets the permits for the given host.
+     *
+     * @param host The key identifying the host, see {@link #getHostKey(java.net.URL)}.
+     * @return The permits for the given host.
+     */
+    private Semaphore getPermits(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(maxConnectionsPerHost, true);
+            permits = hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Allowing max " + maxConnectionsPerHost + " concurrent connections to " + host + ".");
+                }
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Gets the connect timeout.
+     *
+     * @return The connect timeout, in milliseconds.
+     */
+    public int getConnectTimeout() { return connectTimeout; }
+
+    /**
+     * Gets the read timeout.
+     *
+     * @return The read timeout, in milliseconds.
+     */
+    public int getReadTimeout() { return readTimeout; }
+
+    /**
+     * Gets the maximum number of concurrent requests per host.
+     *
+     * @return The maximum number of concurrent requests per host.
+     */
+    public int getMaxConnectionsPerHost() { return maxConnectionsPerHost; }
+}
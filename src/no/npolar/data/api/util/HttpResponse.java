@@ -0,0 +1,94 @@
+package no.npolar.data.api.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * A response from a (possibly conditional) request issued via
+ * {@link HttpTransport#getConditional(java.lang.String, java.lang.String, java.lang.String)}.
+ * <p>
+ * Holds the response status, the validators (ETag / Last-Modified) needed to
+ * revalidate the response later, and - unless the status is "304 Not
+ * Modified" - a reader for the response body.
+ * <p>
+ * The response <strong>must</strong> be closed after use.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+public class HttpResponse implements Closeable {
+    /** The HTTP status code. */
+    private final int statusCode;
+    /** The ETag response header, if any. */
+    private final String etag;
+    /** The Last-Modified response header, if any. */
+    private final String lastModified;
+    /** The reader for the response body, if any. */
+    private final Reader body;
+
+    /**
+     * Creates a new response.
+     *
+     * @param statusCode The HTTP status code.
+     * @param etag The ETag response header. Can be <code>null</code>.
+     * @param lastModified The Last-Modified response header. Can be <code>null</code>.
+     * @param body The reader for the response body. Can be <code>null</code> if there is no body.
+     */
+    public HttpResponse(int statusCode, String etag, String lastModified, Reader body) {
+        this.statusCode = statusCode;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.body = body;
+    }
+
+    /**
+     * Gets the HTTP status code.
+     *
+     * @return The HTTP status code.
+     */
+    public int getStatusCode() { return statusCode; }
+
+    /**
+     * Gets a flag indicating whether or not the service responded "304 Not
+     * Modified".
+     *
+     * @return <code>true</code> if the service responded "304 Not Modified", <code>false</code> if not.
+     */
+    public boolean isNotModified() { return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED; }
+
+    /**
+     * Gets the ETag response header.
+     *
+     * @return The ETag response header, or <code>null</code> if none.
+     */
+    public String getETag() { return etag; }
+
+    /**
+     * Gets the Last-Modified response header.
+     *
+     * @return The Last-Modified response header, or <code>null</code> if none.
+     */
+    public String getLastModified() { return lastModified; }
+
+    /**
+     * Gets the reader for the response body.
+     * <p>
+     * Closing the returned reader is equivalent to closing this response.
+     *
+     * @return The reader for the response body, or <code>null</code> if none (e.g. "304 Not Modified").
+     */
+    public Reader getReader() { return body; }
+
+    /**
+     * Closes the response body, if any.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (body != null) {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package no.npolar.data.api.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+
+/**
+ * The HTTP transport layer used when talking to the Data Centre.
+ * <p>
+ * All requests issued by {@link no.npolar.data.api.APIService} and
+ * {@link APIUtil#queryService(java.lang.String)} go through an instance of
+ * this interface. The default implementation is {@link DefaultHttpTransport},
+ * and a different implementation can be plugged in via
+ * {@link APIUtil#setHttpTransport(no.npolar.data.api.util.HttpTransport)}.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+public interface HttpTransport {
+
+    /**
+     * Requests the given URL (using HTTP GET) and returns the response body as
+     * a string.
+     * <p>
+     * Implementations should throw a {@link java.io.FileNotFoundException}
+     * when the service responds "404 Not Found" (or "410 Gone"), as callers
+     * use that to tell "no such entry" apart from other errors.
+     *
+     * @param url The URL to request.
+     * @return The response body, as a string.
+     * @throws MalformedURLException If the given URL is not a valid URL.
+     * @throws IOException If the request fails, times out, or the service responds with an error.
+     */
+    public String get(String url) throws MalformedURLException, IOException;
+    
+    /**
+     * Requests the given URL (using HTTP GET) and returns a reader for the 
+     * response body, allowing it to be consumed without first reading all of 
+     * it into memory.
+     * <p>
+     * The caller <strong>must</strong> close the returned reader. Error 
+     * responses are handled as described in {@link #get(java.lang.String)}.
+     *
+     * @param url The URL to request.
+     * @return A reader for the response body.
+     * @throws MalformedURLException If the given URL is not a valid URL.
+     * @throws IOException If the request fails, times out, or the service responds with an error.
+     */
+    public Reader getReader(String url) throws MalformedURLException, IOException;
+    
+    /**
+     * Requests the given URL (using HTTP GET), conditionally.
+     * <p>
+     * If any of the given validators are present, they are sent as 
+     * <code>If-None-Match</code> / <code>If-Modified-Since</code> request 
+     * headers. If the service then responds "304 Not Modified", the returned 
+     * response has no body.
+     * <p>
+     * The caller <strong>must</strong> close the returned response. Error 
+     * responses are handled as described in {@link #get(java.lang.String)}.
+     *
+     * @param url The URL to request.
+     * @param ifNoneMatch The ETag of the cached response, or <code>null</code> if none.
+     * @param ifModifiedSince The Last-Modified value of the cached response, or <code>null</code> if none.
+     * @return The response.
+     * @throws MalformedURLException If the given URL is not a valid URL.
+     * @throws IOException If the request fails, times out, or the service responds with an error.
+     * @see ResponseCache
+     */
+    public HttpResponse getConditional(String url, String ifNoneMatch, String ifModifiedSince) 
+            throws MalformedURLException, IOException;
+}
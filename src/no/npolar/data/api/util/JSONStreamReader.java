@@ -0,0 +1,389 @@
+package no.npolar.data.api.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.opencms.json.JSONException;
+
+/**
+ * Minimal pull-based JSON reader, used to walk large service responses
+ * without reading the entire response into memory first.
+ * <p>
+ * The reader only knows about the JSON structure (objects, arrays, names and
+ * values). Any value can be captured as raw JSON text via
+ * {@link #nextRawValue()}, and then handed to e.g.
+ * {@link org.opencms.json.JSONObject#JSONObject(java.lang.String)} - so only
+ * the part of the response that is currently in use needs to be held as a
+ * JSON tree.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * r.beginObject();
+ * while (r.hasNext()) {
+ *     String name = r.nextName();
+ *     if ("entries".equals(name)) {
+ *         r.beginArray();
+ *         while (r.hasNext()) {
+ *             JSONObject entry = new JSONObject(r.nextRawValue());
+ *             // ...
+ *         }
+ *         r.endArray();
+ *     } else {
+ *         r.skipValue();
+ *     }
+ * }
+ * r.endObject();
+ * </pre>
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+public class JSONStreamReader {
+    /** The size of the read buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The underlying reader. */
+    private final Reader in;
+    /** The read buffer. */
+    private final char[] buf = new char[BUFFER_SIZE];
+    /** The position of the next character to read in the buffer. */
+    private int pos = 0;
+    /** The number of valid characters in the buffer. */
+    private int limit = 0;
+    /** Reusable builder for strings and raw values. */
+    private final StringBuilder sb = new StringBuilder(256);
+
+    /**
+     * Creates a new reader, reading from the given reader.
+     *
+     * @param in The reader to read from.
+     */
+    public JSONStreamReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Consumes the start of an object.
+     *
+     * @throws IOException If reading fails.
+     * @throws JSONException If the next value is not an object.
+     */
+    public void beginObject() throws IOException, JSONException {
+        expect('{');
+    }
+
+    /**
+     * Consumes the end of an object.
+     *
+     * @throws IOException If reading fails.
+     * @throws JSONException If the current object has not ended.
+     */
+    public void endObject() throws IOException, JSONException {
+        expect('}');
+    }
+
+    /**
+     * Consumes the start of an array.
+     *
+     * @throws IOException If reading fails.
+     * @throws JSONException If the next value is not an array.
+     */
+    public void beginArray() throws IOException, JSONException {
+        expect('[');
+    }
+
+    /**
+     * Consumes the end of an array.
+     *
+     * @throws IOException If reading fails.
+     * @throws JSONException If the current array has not ended.
+     */
+    public void endArray() throws IOException, JSONException {
+        expect(']');
+    }
+
+    /**
+     * Checks whether the current object or array has more members.
+     * <p>
+     * Any member-separating comma is consumed.
+     *
+     * @return <code>true</code> if there are more members, <code>false</code> if the current object or array has ended.
+     * @throws IOException If reading fails.
+     * @throws JSONException If the end of the input was reached.
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c == ',') {
+            pos++;
+            c = peekNonWhitespace();
+        }
+        if (c == -1) {
+            throw new JSONException("Unexpected end of input.");
+        }
+        return c != '}' && c != ']';
+    }
+
+    /**
+     * Gets the type of the next value, in the form of its first character:
+     * <code>{</code> for objects, <code>[</code> for arrays, <code>"</code>
+     * for strings, and the first character of any other literal.
+     *
+     * @return The first character of the next value, or -1 if the end of the input was reached.
+     * @throws IOException If reading fails.
+     */
+    public int peek() throws IOException {
+        return peekNonWhitespace();
+    }
+
+    /**
+     * Reads the name of the next object member, and consumes the following
+     * name-value separator.
+     *
+     * @return The member name.
+     * @throws IOException If reading fails.
+     * @throws JSONException If the next token is not a member name.
+     */
+    public String nextName() throws IOException, JSONException {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Reads the next string value.
+     *
+     * @return The (unescaped) string value.
+     * @throws IOException If reading fails.
+     * @throws JSONException If the next value is not a string.
+     */
+    public String nextString() throws IOException, JSONException {
+        expect('"');
+        sb.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new JSONException("Unterminated string.");
+            } else if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'u':
+                        int u = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int d = Character.digit(read(), 16);
+                            if (d < 0) {
+                                throw new JSONException("Illegal unicode escape.");
+                            }
+                            u = (u << 4) | d;
+                        }
+                        sb.append((char)u);
+                        break;
+                    case -1: throw new JSONException("Unterminated string.");
+                    default: sb.append((char)c);
+                }
+            } else {
+                sb.append((char)c);
+            }
+        }
+    }
+
+    /**
+     * Reads the next value - no matter its type - and returns it as raw JSON
+     * text.
+     *
+     * @return The next value, as raw JSON text.
+     * @throws IOException If reading fails.
+     * @throws JSONException If the input is malformed.
+     */
+    public String nextRawValue() throws IOException, JSONException {
+        sb.setLength(0);
+        consumeValue(true);
+        return sb.toString();
+    }
+
+    /**
+     * Skips the next value - no matter its type.
+     *
+     * @throws IOException If reading fails.
+     * @throws JSONException If the input is malformed.
+     */
+    public void skipValue() throws IOException, JSONException {
+        consumeValue(false);
+    }
+
+    /**
+     * Consumes the end of the input, which is required to contain nothing but
+     * whitespace after the last value.
+     * <p>
+     * Invoke this after the top-level value has been read, to signal that the
+     * entire input was read successfully (e.g. so that it can be cached).
+     *
+     * @throws IOException If reading fails.
+     * @throws JSONException If there is more than whitespace left.
+     */
+    public void endDocument() throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c != -1) {
+            throw new JSONException("Expected end of input, found '" + (char)c + "'.");
+        }
+    }
+
+    /**
+     * Closes the underlying reader.
+     *
+     * @throws IOException If closing fails.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Consumes the next value, optionally copying it to the string builder.
+     *
+     * @param copy Whether or not to copy the consumed characters.
+     * @throws IOException If reading fails.
+     * @throws JSONException If the input is malformed.
+     */
+    private void consumeValue(boolean copy) throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c == -1) {
+            throw new JSONException("Unexpected end of input.");
+        }
+        int depth = 0;
+        boolean inString = false;
+        while (true) {
+            c = read();
+            if (c == -1) {
+                throw new JSONException("Unexpected end of input.");
+            }
+            if (inString) {
+                if (copy) sb.append((char)c);
+                if (c == '\\') {
+                    c = read();
+                    if (c == -1) {
+                        throw new JSONException("Unterminated string.");
+                    }
+                    if (copy) sb.append((char)c);
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+            if (copy && !isWhitespace(c)) sb.append((char)c);
+            if (depth == 0) {
+                if (c == '}' || c == ']') {
+                    return;
+                }
+                if (!inString) {
+                    // Literal (number, true, false, null): ends right before a delimiter
+                    int next = peekRaw();
+                    if (next == -1 || next == ',' || next == '}' || next == ']' || isWhitespace(next)) {
+                        return;
+                    }
+                }
+            } else if (depth < 0) {
+                throw new JSONException("Unexpected '" + (char)c + "'.");
+            }
+        }
+    }
+
+    /**
+     * Consumes the next non-whitespace character, which is required to be
+     * the given character.
+     *
+     * @param expected The expected character.
+     * @throws IOException If reading fails.
+     * @throws JSONException If the next non-whitespace character was not the expected one.
+     */
+    private void expect(char expected) throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c != expected) {
+            throw new JSONException("Expected '" + expected + "', found " + (c == -1 ? "end of input" : "'" + (char)c + "'") + ".");
+        }
+        pos++;
+    }
+
+    /**
+     * Skips whitespace, and returns the next character without consuming it.
+     *
+     * @return The next non-whitespace character, or -1 if the end of the input was reached.
+     * @throws IOException If reading fails.
+     */
+    private int peekNonWhitespace() throws IOException {
+        while (true) {
+            int c = peekRaw();
+            if (c == -1 || !isWhitespace(c)) {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Returns the next character without consuming it.
+     *
+     * @return The next character, or -1 if the end of the input was reached.
+     * @throws IOException If reading fails.
+     */
+    private int peekRaw() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    /**
+     * Consumes and returns the next character.
+     *
+     * @return The next character, or -1 if the end of the input was reached.
+     * @throws IOException If reading fails.
+     */
+    private int read() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    /**
+     * Refills the buffer.
+     *
+     * @return <code>true</code> if at least one character was read, <code>false</code> if the end of the input was reached.
+     * @throws IOException If reading fails.
+     */
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        pos = 0;
+        limit = n < 0 ? 0 : n;
+        return n > 0;
+    }
+
+    /**
+     * Checks if the given character is JSON whitespace.
+     *
+     * @param c The character to check.
+     * @return <code>true</code> if the given character is JSON whitespace.
+     */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+}
@@ -2,6 +2,7 @@ package no.npolar.data.api.util;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -31,6 +32,27 @@ public class Mapper {
         m = new HashMap<String, String>();
     }
     
+    /**
+     * Creates a new mapper, backed by the given map.
+     * 
+     * @param m The map holding the mappings.
+     */
+    protected Mapper(Map<String, String> m) {
+        this.m = m;
+    }
+    
+    /**
+     * Creates a read-only copy of this mapper.
+     * <p>
+     * The copy is safe to share between threads. Any attempt to add mappings 
+     * to it will throw an {@link UnsupportedOperationException}.
+     * 
+     * @return A read-only copy of this mapper.
+     */
+    public Mapper toUnmodifiable() {
+        return new Mapper(Collections.unmodifiableMap(new HashMap<String, String>(m)));
+    }
+    
     /**
      * Adds all key-value mappings in the given string to this mapper.
      * <p>
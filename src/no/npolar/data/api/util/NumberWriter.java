@@ -0,0 +1,242 @@
+package no.npolar.data.api.util;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Writes numbers in plain (non-scientific) decimal notation, with "." as the
+ * decimal separator and no grouping - e.g. for javascript, JSON or CSV
+ * output.
+ * <p>
+ * The output is identical to that of a {@link DecimalFormat} with a pattern
+ * like "#.#####" (in an English locale), but typical values - those that are
+ * exactly representable with no more than 15 significant digits - are
+ * written directly to the target, without creating any objects. Other values
+ * (e.g. those that need rounding) are formatted using a {@link DecimalFormat}
+ * that is created once and re-used.
+ * <p>
+ * The static methods are thread-safe. Instances, created via
+ * {@link #forPattern(java.lang.String, java.util.Locale)}, produce the same
+ * output as a localized {@link DecimalFormat}, and are - like the format -
+ * <strong>not</strong> thread-safe; create one per export / rendering.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ */
+public final class NumberWriter {
+    /** Powers of ten, up to and including 10^15. */
+    private static final long[] POW10 = new long[16];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+    /** The largest integer that can be represented exactly as a double (2^53). */
+    private static final long MAX_EXACT = 1L << 53;
+    /** The fallback formats, per thread, indexed by the maximum number of fraction digits. Created on demand. */
+    private static final ThreadLocal<DecimalFormat[]> FALLBACK_FORMATS = new ThreadLocal<DecimalFormat[]>() {
+        @Override
+        protected DecimalFormat[] initialValue() {
+            return new DecimalFormat[POW10.length];
+        }
+    };
+
+    /** The localized format, used when the fast path cannot be. */
+    private final DecimalFormat format;
+    /** The maximum number of fraction digits in the format. */
+    private final int maxFractionDigits;
+    /** Flag indicating whether or not the format's symbols are those written by the fast path. */
+    private final boolean plain;
+
+    /**
+     * Creates a new number writer, equivalent to the given format.
+     *
+     * @param format The localized format.
+     */
+    private NumberWriter(DecimalFormat format) {
+        DecimalFormatSymbols dfs = format.getDecimalFormatSymbols();
+        this.format = format;
+        this.maxFractionDigits = format.getMaximumFractionDigits();
+        this.plain = dfs.getDecimalSeparator() == '.'
+                && dfs.getMinusSign() == '-'
+                && dfs.getZeroDigit() == '0'
+                && !format.isGroupingUsed()
+                && format.getMinimumFractionDigits() == 0
+                && format.getMinimumIntegerDigits() <= 1
+                && format.getPositivePrefix().isEmpty()
+                && format.getPositiveSuffix().isEmpty()
+                && format.getNegativePrefix().equals("-")
+                && format.getNegativeSuffix().isEmpty()
+                && format.getMultiplier() == 1;
+    }
+
+    /**
+     * Creates a new number writer, producing the same output as a
+     * {@link DecimalFormat} for the given locale, with the given pattern
+     * applied.
+     * <p>
+     * The typical pattern is like "#.#####". Whenever the locale's symbols
+     * permit it, numbers are written without creating any objects.
+     *
+     * @param pattern The format pattern, e.g. "#.####".
+     * @param locale The locale.
+     * @return A new number writer.
+     */
+    public static NumberWriter forPattern(String pattern, Locale locale) {
+        DecimalFormat df = (DecimalFormat)NumberFormat.getInstance(locale);
+        df.applyPattern(pattern);
+        return new NumberWriter(df);
+    }
+
+    /**
+     * Writes the given number to the given target.
+     *
+     * @param out The target to write to.
+     * @param number The number to write.
+     * @throws IOException If writing fails.
+     */
+    public void write(Appendable out, double number) throws IOException {
+        if (!plain || !appendExact(out, number, maxFractionDigits)) {
+            out.append(format.format(number));
+        }
+    }
+
+    /**
+     * Writes the given number to the given target.
+     *
+     * @param out The target to write to.
+     * @param number The number to write.
+     * @param maxFractionDigits The maximum number of fraction digits, e.g. 5 for an equivalent of "#.#####".
+     * @throws IOException If writing fails.
+     */
+    public static void append(Appendable out, double number, int maxFractionDigits) throws IOException {
+        if (!appendExact(out, number, maxFractionDigits)) {
+            out.append(getFallbackFormat(maxFractionDigits).format(number));
+        }
+    }
+
+    /**
+     * Writes the given number to the given target, if it is exactly
+     * representable with no more than the given number of fraction digits
+     * (and no more than 15 significant digits).
+     * <p>
+     * Otherwise, nothing is written, and the caller must format the number
+     * (e.g. round it) in some other way.
+     *
+     * @param out The target to write to.
+     * @param number The number to write.
+     * @param maxFractionDigits The maximum number of fraction digits.
+     * @return <code>true</code> if the number was written, <code>false</code> if not.
+     * @throws IOException If writing fails.
+     */
+    private static boolean appendExact(Appendable out, double number, int maxFractionDigits) throws IOException {
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            return false;
+        }
+        double abs = Math.abs(number);
+        int maxScale = Math.min(maxFractionDigits, POW10.length - 1);
+        for (int scale = 0; scale <= maxScale; scale++) {
+            // Need the scaled value to be an exact integer, and the unit in
+            // the last place to be small enough that no other decimal with
+            // this scale could round to the same double
+            double scaled = abs * POW10[scale];
+            if (scaled >= MAX_EXACT || Math.ulp(abs) * POW10[scale] >= 0.5) {
+                break;
+            }
+            long digits = Math.round(scaled);
+            if ((double)digits / POW10[scale] == abs) {
+                if (number < 0 || (number == 0 && 1 / number < 0)) {
+                    out.append('-');
+                }
+                appendDigits(out, digits, scale);
+                return true;
+            }
+        }
+        // E.g. values that need rounding, or very large or very small numbers
+        return false;
+    }
+
+    /**
+     * Writes the given non-negative integer, with a decimal point inserted
+     * before the given number of trailing digits.
+     * <p>
+     * Leading zeroes are added as necessary (e.g. "0.05" for digits 5 and
+     * scale 2), and trailing zero fraction digits are dropped.
+     *
+     * @param out The target to write to.
+     * @param digits The digits, as a non-negative integer.
+     * @param scale The number of fraction digits in the given digits.
+     * @throws IOException If writing fails.
+     */
+    private static void appendDigits(Appendable out, long digits, int scale) throws IOException {
+        // Drop trailing zero fraction digits
+        while (scale > 0 && digits % 10 == 0) {
+            digits /= 10;
+            scale--;
+        }
+        long intPart = digits / POW10[scale];
+        long fracPart = digits % POW10[scale];
+        appendInteger(out, intPart);
+        if (scale > 0) {
+            out.append('.');
+            for (int i = scale - 1; i >= 0; i--) {
+                out.append((char)('0' + (fracPart / POW10[i]) % 10));
+            }
+        }
+    }
+
+    /**
+     * Writes the given non-negative integer.
+     *
+     * @param out The target to write to.
+     * @param n The integer.
+     * @throws IOException If writing fails.
+     */
+    private static void appendInteger(Appendable out, long n) throws IOException {
+        int numDigits = 1;
+        while (numDigits < POW10.length && n >= POW10[numDigits]) {
+            numDigits++;
+        }
+        for (int i = numDigits - 1; i >= 0; i--) {
+            out.append((char)('0' + (n / POW10[i]) % 10));
+        }
+    }
+
+    /**
+     * Gets a number format equivalent to the output of this class, for use by
+     * the current thread only.
+     * <p>
+     * Formats for typical numbers of fraction digits are created once per
+     * thread, and re-used.
+     *
+     * @param maxFractionDigits The maximum number of fraction digits.
+     * @return A number format.
+     */
+    private static DecimalFormat getFallbackFormat(int maxFractionDigits) {
+        if (maxFractionDigits < 0 || maxFractionDigits >= POW10.length) {
+            return createFallbackFormat(maxFractionDigits);
+        }
+        DecimalFormat[] formats = FALLBACK_FORMATS.get();
+        if (formats[maxFractionDigits] == null) {
+            formats[maxFractionDigits] = createFallbackFormat(maxFractionDigits);
+        }
+        return formats[maxFractionDigits];
+    }
+
+    /**
+     * Creates a number format equivalent to the output of this class.
+     *
+     * @param maxFractionDigits The maximum number of fraction digits.
+     * @return A new number format.
+     */
+    private static DecimalFormat createFallbackFormat(int maxFractionDigits) {
+        StringBuilder pattern = new StringBuilder("#.");
+        for (int i = 0; i < maxFractionDigits; i++) {
+            pattern.append('#');
+        }
+        return new DecimalFormat(pattern.toString(), DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+    }
+}
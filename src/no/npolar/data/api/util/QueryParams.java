@@ -0,0 +1,545 @@
+package no.npolar.data.api.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import no.npolar.data.api.APIService;
+
+/**
+ * An immutable, parsed query string: the parameters of a URI, in order.
+ * <p>
+ * Values are kept as they appear in the query string (that is, still
+ * percent-encoded), so that a query string is always reproduced exactly as
+ * given, except for the changes made to it. Use the "decoded" getters - e.g.
+ * {@link #get(java.lang.String)} and
+ * {@link #getValues(java.lang.String, no.npolar.data.api.APIService.Delimiter)} -
+ * to read the actual values; the latter splits on the delimiter
+ * <em>before</em> decoding, so an encoded delimiter character inside a value
+ * is not mistaken for a delimiter.
+ * <p>
+ * A parameter may occur multiple times. Unless stated otherwise, the getters
+ * consider only its first occurrence, and the "with" / "without" methods
+ * affect all of its occurrences.
+ * <p>
+ * Changes are made by deriving new instances, e.g.
+ * {@link #with(java.lang.String, java.lang.String)}. A derived instance
+ * shares the unchanged parts of the one it was derived from, so deriving
+ * many variants of the same query string (e.g. one for each facet term) is
+ * cheap. The query string itself is created only when needed, and only once.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @see APIUtil#getParametersInQueryString(java.lang.String)
+ */
+public final class QueryParams {
+    /** An empty query string. */
+    public static final QueryParams EMPTY = new QueryParams(new String[0], new String[0]);
+
+    /** The character set used when decoding values. */
+    private static final String CHARSET = APIService.SERVICE_CHARSET;
+
+    /** The parameter names, in order. Never modified. */
+    private final String[] names;
+    /** The (raw) parameter values, by position. Never modified. */
+    private final String[] values;
+    /** The query string, created on demand. */
+    private volatile String queryString = null;
+
+    /**
+     * Creates a new instance, using the given arrays as-is.
+     *
+     * @param names The parameter names.
+     * @param values The (raw) parameter values.
+     */
+    private QueryParams(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Parses the query string of the given URI.
+     *
+     * @param uri The URI - may or may not contain a query string. Can be <code>null</code>.
+     * @return The parameters in the query string of the given URI, or {@link #EMPTY} if none.
+     */
+    public static QueryParams fromUri(String uri) {
+        if (uri == null) {
+            return EMPTY;
+        }
+        int q = uri.indexOf('?');
+        return q < 0 ? EMPTY : parse(uri, q + 1);
+    }
+
+    /**
+     * Parses the given query string.
+     *
+     * @param queryString The query string, without the leading "?". Can be <code>null</code>.
+     * @return The parameters in the given query string, or {@link #EMPTY} if none.
+     */
+    public static QueryParams parse(String queryString) {
+        return queryString == null ? EMPTY : parse(queryString, 0);
+    }
+
+    /**
+     * Creates an instance holding the given parameters.
+     * <p>
+     * Multiple values for the same parameter are combined into a single
+     * value, separated by the given delimiter.
+     *
+     * @param params The parameters, e.g. a request's parameter map. Not modified.
+     * @param delimiter The delimiter to use when combining multiple values.
+     * @return An instance holding the given parameters.
+     */
+    public static QueryParams of(Map<String, String[]> params, APIService.Delimiter delimiter) {
+        if (params.isEmpty()) {
+            return EMPTY;
+        }
+        String[] n = new String[params.size()];
+        String[] v = new String[params.size()];
+        int i = 0;
+        for (Map.Entry<String, String[]> param : params.entrySet()) {
+            n[i] = param.getKey();
+            v[i] = APIService.combine(delimiter, param.getValue());
+            i++;
+        }
+        return new QueryParams(n, v);
+    }
+
+    /**
+     * Gets the base part of the given URI, that is, everything before the
+     * query string.
+     *
+     * @param uri The URI - may or may not contain a query string.
+     * @return The base part of the given URI.
+     */
+    public static String getBase(String uri) {
+        int q = uri.indexOf('?');
+        return q < 0 ? uri : uri.substring(0, q);
+    }
+
+    /**
+     * Parses the query string that starts at the given position.
+     *
+     * @param s The string containing the query string.
+     * @param start The position of the first character in the query string.
+     * @return The parsed query string.
+     */
+    private static QueryParams parse(String s, int start) {
+        int end = s.length();
+        if (start >= end) {
+            return EMPTY;
+        }
+        List<String> n = new ArrayList<String>(8);
+        List<String> v = new ArrayList<String>(8);
+        int pos = start;
+        while (pos <= end) {
+            int amp = s.indexOf('&', pos);
+            if (amp < 0) {
+                amp = end;
+            }
+            if (amp > pos) {
+                int eq = s.indexOf('=', pos);
+                String name;
+                String value;
+                if (eq < 0 || eq > amp) {
+                    name = s.substring(pos, amp);
+                    value = "";
+                } else {
+                    name = s.substring(pos, eq);
+                    value = s.substring(eq + 1, amp);
+                }
+                // Handle cases of HTML-escaped ampersand
+                if (name.startsWith("amp;")) {
+                    name = name.substring("amp;".length());
+                }
+                if (!name.isEmpty()) {
+                    n.add(name);
+                    v.add(value);
+                }
+            }
+            pos = amp + 1;
+        }
+        return n.isEmpty() ? EMPTY : new QueryParams(n.toArray(new String[n.size()]), v.toArray(new String[v.size()]));
+    }
+
+    /**
+     * Gets the number of parameters (counting each occurrence).
+     *
+     * @return The number of parameters.
+     */
+    public int size() { return names.length; }
+
+    /**
+     * Gets a flag indicating whether or not there are any parameters.
+     *
+     * @return True if there are no parameters, false if there are.
+     */
+    public boolean isEmpty() { return names.length == 0; }
+
+    /**
+     * Gets a flag indicating whether or not the given parameter is present.
+     *
+     * @param name The parameter name.
+     * @return True if the given parameter is present, false if not.
+     */
+    public boolean contains(String name) { return indexOf(name) > -1; }
+
+    /**
+     * Gets the parameter names, in order, without duplicates.
+     *
+     * @return The parameter names, as a read-only list.
+     */
+    public List<String> getNames() {
+        List<String> n = new ArrayList<String>(names.length);
+        for (String name : names) {
+            if (!n.contains(name)) {
+                n.add(name);
+            }
+        }
+        return Collections.unmodifiableList(n);
+    }
+
+    /**
+     * Gets the (raw) value of the given parameter, as it appears in the query
+     * string.
+     *
+     * @param name The parameter name.
+     * @return The raw value of the given parameter, or <code>null</code> if not present.
+     */
+    public String getRaw(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Gets the (decoded) value of the given parameter.
+     *
+     * @param name The parameter name.
+     * @return The decoded value of the given parameter, or <code>null</code> if not present.
+     */
+    public String get(String name) {
+        String raw = getRaw(name);
+        return raw == null ? null : decode(raw);
+    }
+
+    /**
+     * Gets the (decoded) values of the given parameter, split on the given
+     * delimiter.
+     * <p>
+     * E.g. for <code>filter-topics=marine,biology</code> and
+     * {@link APIService.Delimiter#AND}, the values are "marine" and "biology".
+     *
+     * @param name The parameter name.
+     * @param delimiter The delimiter that separates multiple values.
+     * @return The decoded values of the given parameter, or an empty list if not present (or empty).
+     */
+    public List<String> getValues(String name, APIService.Delimiter delimiter) {
+        String raw = getRaw(name);
+        if (raw == null || raw.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> vals = split(raw, delimiter.toString());
+        for (int i = 0; i < vals.size(); i++) {
+            vals.set(i, decode(vals.get(i)));
+        }
+        return vals;
+    }
+
+    /**
+     * Counts the values of the given parameter, split on the given
+     * delimiter.
+     * <p>
+     * Equivalent to, but cheaper than,
+     * <code>getValues(name, delimiter).size()</code>.
+     *
+     * @param name The parameter name.
+     * @param delimiter The delimiter that separates multiple values.
+     * @return The number of values of the given parameter, or 0 if not present (or empty).
+     */
+    public int countValues(String name, APIService.Delimiter delimiter) {
+        String raw = getRaw(name);
+        if (raw == null || raw.isEmpty()) {
+            return 0;
+        }
+        String d = delimiter.toString();
+        int count = 1;
+        int pos = raw.indexOf(d);
+        while (pos > -1) {
+            count++;
+            pos = raw.indexOf(d, pos + d.length());
+        }
+        return count;
+    }
+
+    /**
+     * Derives a new instance, where the given parameter has the given value.
+     * <p>
+     * If the parameter is present, its (first) occurrence gets the new value,
+     * and any other occurrences are removed. If not, it is added last.
+     *
+     * @param name The parameter name.
+     * @param rawValue The value, as it should appear in the query string (that is, encoded where necessary).
+     * @return A new instance with the given parameter value - or this instance, if it already had that value.
+     */
+    public QueryParams with(String name, String rawValue) {
+        int i = indexOf(name);
+        if (i < 0) {
+            String[] n = Arrays.copyOf(names, names.length + 1);
+            String[] v = Arrays.copyOf(values, values.length + 1);
+            n[names.length] = name;
+            v[values.length] = rawValue;
+            return new QueryParams(n, v);
+        }
+        if (indexOf(name, i + 1) > -1) {
+            // Multiple occurrences: remove the others first
+            return without(name).with(name, rawValue);
+        }
+        if (rawValue.equals(values[i])) {
+            return this;
+        }
+        // Same names: share them
+        String[] v = values.clone();
+        v[i] = rawValue;
+        return new QueryParams(names, v);
+    }
+
+    /**
+     * Derives a new instance, where the given value is added to the given
+     * parameter's values, using the given delimiter.
+     *
+     * @param name The parameter name.
+     * @param delimiter The delimiter that separates multiple values.
+     * @param rawValue The value to add, as it should appear in the query string.
+     * @return A new instance with the given value added.
+     */
+    public QueryParams withValueAdded(String name, APIService.Delimiter delimiter, String rawValue) {
+        String raw = getRaw(name);
+        return with(name, raw == null || raw.isEmpty() ? rawValue : raw + delimiter + rawValue);
+    }
+
+    /**
+     * Derives a new instance, where the given value is removed from the given
+     * parameter's values, using the given delimiter. If no values remain, the
+     * parameter is removed.
+     *
+     * @param name The parameter name.
+     * @param delimiter The delimiter that separates multiple values.
+     * @param rawValue The value to remove, as it appears in the query string.
+     * @return A new instance with the given value removed - or this instance, if the value was not present.
+     */
+    public QueryParams withValueRemoved(String name, APIService.Delimiter delimiter, String rawValue) {
+        String raw = getRaw(name);
+        if (raw == null) {
+            return this;
+        }
+        String d = delimiter.toString();
+        List<String> vals = split(raw, d);
+        if (!vals.remove(rawValue)) {
+            return this;
+        }
+        if (vals.isEmpty()) {
+            return without(name);
+        }
+        StringBuilder s = new StringBuilder(raw.length());
+        for (String val : vals) {
+            if (s.length() > 0) {
+                s.append(d);
+            }
+            s.append(val);
+        }
+        return with(name, s.toString());
+    }
+
+    /**
+     * Derives a new instance, without the given parameter.
+     *
+     * @param name The parameter name.
+     * @return A new instance without the given parameter - or this instance, if it was not present.
+     */
+    public QueryParams without(String name) {
+        return without(Collections.singleton(name));
+    }
+
+    /**
+     * Derives a new instance, without any of the given parameters.
+     * <p>
+     * Use this to remove several parameters (e.g. all preset parameters) in
+     * one go.
+     *
+     * @param names The parameter names.
+     * @return A new instance without the given parameters - or this instance, if none of them were present.
+     */
+    public QueryParams without(Collection<String> names) {
+        int remove = 0;
+        for (String name : this.names) {
+            if (names.contains(name)) {
+                remove++;
+            }
+        }
+        if (remove == 0) {
+            return this;
+        }
+        if (remove == this.names.length) {
+            return EMPTY;
+        }
+        String[] n = new String[this.names.length - remove];
+        String[] v = new String[n.length];
+        int j = 0;
+        for (int i = 0; i < this.names.length; i++) {
+            if (!names.contains(this.names[i])) {
+                n[j] = this.names[i];
+                v[j] = values[i];
+                j++;
+            }
+        }
+        return new QueryParams(n, v);
+    }
+
+    /**
+     * Gets the parameters as a map of (raw) values, in order.
+     * <p>
+     * Only the first occurrence of each parameter is included. The returned
+     * map is a copy, and can be modified.
+     *
+     * @return The parameters as a map of (raw) values.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> m = new LinkedHashMap<String, String>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            if (!m.containsKey(names[i])) {
+                m.put(names[i], values[i]);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Creates a URI from the given URI base and this query string (if any).
+     *
+     * @param base The URI base, e.g. "http://api.npolar.no/publication/".
+     * @return The URI, i.e. the base followed by this query string (if any).
+     */
+    public String toUri(String base) {
+        if (names.length == 0) {
+            return base;
+        }
+        String qs = toString();
+        return new StringBuilder(base.length() + 1 + qs.length()).append(base).append('?').append(qs).toString();
+    }
+
+    /**
+     * Gets the query string, without the leading "?".
+     *
+     * @return The query string, e.g. "q=&amp;filter-topics=marine,biology", or an empty string if there are no parameters.
+     */
+    @Override
+    public String toString() {
+        String qs = queryString;
+        if (qs == null) {
+            int length = 0;
+            for (int i = 0; i < names.length; i++) {
+                length += names[i].length() + values[i].length() + 2;
+            }
+            StringBuilder s = new StringBuilder(length);
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    s.append('&');
+                }
+                s.append(names[i]).append('=').append(values[i]);
+            }
+            qs = s.toString();
+            queryString = qs;
+        }
+        return qs;
+    }
+
+    /**
+     * @see Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof QueryParams && this.toString().equals(that.toString());
+    }
+
+    /**
+     * @see Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * Gets the position of the first occurrence of the given parameter.
+     *
+     * @param name The parameter name.
+     * @return The position of the first occurrence of the given parameter, or -1 if not present.
+     */
+    private int indexOf(String name) {
+        return indexOf(name, 0);
+    }
+
+    /**
+     * Gets the position of the first occurrence of the given parameter, at or
+     * after the given position.
+     *
+     * @param name The parameter name.
+     * @param from The position to start at.
+     * @return The position of the first occurrence of the given parameter, or -1 if not present.
+     */
+    private int indexOf(String name, int from) {
+        for (int i = from; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits the given string on the given (literal) delimiter.
+     *
+     * @param s The string to split.
+     * @param d The delimiter.
+     * @return The parts, as a modifiable list.
+     */
+    private static List<String> split(String s, String d) {
+        List<String> parts = new ArrayList<String>(4);
+        int start = 0;
+        int pos = s.indexOf(d);
+        while (pos > -1) {
+            parts.add(s.substring(start, pos));
+            start = pos + d.length();
+            pos = s.indexOf(d, start);
+        }
+        parts.add(s.substring(start));
+        return parts;
+    }
+
+    /**
+     * Decodes the given (percent-encoded) value.
+     *
+     * @param raw The value, as it appears in the query string.
+     * @return The decoded value - or the given value, if it could not be decoded.
+     */
+    private static String decode(String raw) {
+        if (raw.indexOf('%') < 0 && raw.indexOf('+') < 0) {
+            return raw;
+        }
+        try {
+            return URLDecoder.decode(raw, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            return raw;
+        } catch (IllegalArgumentException e) {
+            // Malformed escape sequence
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package no.npolar.data.api.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * In-memory cache for service responses.
+ * <p>
+ * Responses are keyed on the normalized request URL (see
+ * {@link #normalize(java.lang.String)}), so that URLs that differ only in
+ * the order of their parameters share the same entry.
+ * <p>
+ * The cache is bounded both by number of entries and by total size (in
+ * characters). When either bound is exceeded, the least recently used
+ * entries are evicted. Responses that are too large to be cached (more than
+ * a quarter of the total size) are passed through without being stored, as
+ * are responses that are closed before they were read to the end.
+ * <p>
+ * The time-to-live is given by the caller on each lookup, so that each
+ * service can decide how long its responses stay fresh. When a cached
+ * response has expired:
+ * <ul>
+ * <li>within the stale-while-revalidate window, the stale response is
+ *  returned immediately, and revalidated in the background;</li>
+ * <li>beyond that window, it is revalidated before it is returned.</li>
+ * </ul>
+ * Revalidation is done using conditional requests (ETag / Last-Modified)
+ * where the service supports it, so an unchanged response costs only a
+ * "304 Not Modified" round-trip.
+ * <p>
+ * Instances are thread-safe, and are intended to be shared.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @see APIUtil#setResponseCache(no.npolar.data.api.util.ResponseCache)
+ */
+public class ResponseCache {
+    /** The logger. */
+    private static final Log LOG = LogFactory.getLog(ResponseCache.class);
+
+    /** The default maximum number of cached responses. */
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+    /** The default maximum total size of all cached responses, in characters. */
+    public static final long DEFAULT_MAX_WEIGHT = 16 * 1024 * 1024;
+    /** The default stale-while-revalidate window, in milliseconds. */
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE = 5 * 60 * 1000;
+    /** The maximum number of threads used for background revalidation. */
+    public static final int REVALIDATOR_THREADS = 2;
+
+    /** The maximum number of cached responses. */
+    private final int maxEntries;
+    /** The maximum total size of all cached responses, in characters. */
+    private final long maxWeight;
+    /** The stale-while-revalidate window, in milliseconds. */
+    private final long staleWhileRevalidate;
+
+    /** The cached responses, in least-recently-used order. Guarded by <code>this</code>. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    /** The total size of all cached responses, in characters. Guarded by <code>this</code>. */
+    private long weight = 0;
+
+    /** The URLs currently being revalidated in the background. */
+    private final ConcurrentMap<String, Boolean> revalidating = new ConcurrentHashMap<String, Boolean>();
+    /** The executor used for background revalidation. Created on demand. */
+    private volatile ExecutorService revalidator = null;
+
+    /** Number of lookups served from the cache (including stale responses). */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of lookups that required a full request. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Number of revalidations answered with "304 Not Modified". */
+    private final AtomicLong revalidations = new AtomicLong();
+    /** Number of evicted responses. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new cache, using the default bounds and stale-while-revalidate
+     * window.
+     *
+     * @see #DEFAULT_MAX_ENTRIES
+     * @see #DEFAULT_MAX_WEIGHT
+     * @see #DEFAULT_STALE_WHILE_REVALIDATE
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_STALE_WHILE_REVALIDATE);
+    }
+
+    /**
+     * Creates a new cache, using the given bounds and stale-while-revalidate
+     * window.
+     *
+     * @param maxEntries The maximum number of cached responses.
+     * @param maxWeight The maximum total size of all cached responses, in characters.
+     * @param staleWhileRevalidate The stale-while-revalidate window, in milliseconds. Use 0 to always revalidate expired responses before returning them.
+     */
+    public ResponseCache(int maxEntries, long maxWeight, long staleWhileRevalidate) {
+        if (maxEntries < 1 || maxWeight < 1 || staleWhileRevalidate < 0) {
+            throw new IllegalArgumentException("The cache must allow at least 1 entry and 1 character, and the stale window cannot be negative.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Gets the response for the given URL, as a string.
+     *
+     * @param url The URL to request.
+     * @param ttl How long (in milliseconds) a cached response is considered fresh. If 0 or less, the cache is bypassed.
+     * @param transport The transport to use for requests.
+     * @return The response body, as a string.
+     * @throws MalformedURLException If the given URL is not a valid URL.
+     * @throws IOException If the request fails.
+     */
+    public String get(String url, long ttl, HttpTransport transport)
+            throws MalformedURLException, IOException {
+        if (ttl <= 0) {
+            return transport.get(url);
+        }
+        Reader r = getReader(url, ttl, transport);
+        try {
+            StringBuilder s = new StringBuilder();
+            char[] buf = new char[8192];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                s.append(buf, 0, n);
+            }
+            return s.toString();
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Gets a reader for the response for the given URL.
+     * <p>
+     * On a cache miss, the response is streamed to the caller while it is
+     * being copied to the cache. It is stored when the caller closes the
+     * reader, provided that it was read successfully <em>to the end</em>. 
+     * (A reader that is closed early is assumed to have been rejected, and 
+     * is discarded.)
+     * <p>
+     * The caller <strong>must</strong> close the returned reader.
+     *
+     * @param url The URL to request.
+     * @param ttl How long (in milliseconds) a cached response is considered fresh. If 0 or less, the cache is bypassed.
+     * @param transport The transport to use for requests.
+     * @return A reader for the response body.
+     * @throws MalformedURLException If the given URL is not a valid URL.
+     * @throws IOException If the request fails.
+     */
+    public Reader getReader(String url, long ttl, HttpTransport transport)
+            throws MalformedURLException, IOException {
+        if (ttl <= 0) {
+            return transport.getReader(url);
+        }
+        String key = normalize(url);
+        Entry cached = lookup(key);
+        long now = System.currentTimeMillis();
+
+        if (cached != null) {
+            if (now < cached.storedAt + ttl) {
+                hits.incrementAndGet();
+                return new StringReader(cached.body);
+            }
+            if (now < cached.storedAt + ttl + staleWhileRevalidate) {
+                hits.incrementAndGet();
+                revalidateInBackground(url, key, cached, transport);
+                return new StringReader(cached.body);
+            }
+        }
+
+        misses.incrementAndGet();
+        HttpResponse response = cached == null
+                ? transport.getConditional(url, null, null)
+                : transport.getConditional(url, cached.etag, cached.lastModified);
+        if (response.isNotModified()) {
+            revalidations.incrementAndGet();
+            if (cached != null) {
+                store(key, new Entry(cached.body, cached.etag, cached.lastModified, now));
+                return new StringReader(cached.body);
+            }
+            // Unsolicited 304: we have nothing to serve, so request unconditionally
+            return transport.getReader(url);
+        }
+        return new CachingReader(response, key);
+    }
+
+    /**
+     * Removes the cached response (if any) for the given URL.
+     *
+     * @param url The URL.
+     */
+    public synchronized void invalidate(String url) {
+        Entry removed = entries.remove(normalize(url));
+        if (removed != null) {
+            weight -= removed.body.length();
+        }
+    }
+
+    /**
+     * Removes all cached responses.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Gets the number of lookups served from the cache.
+     *
+     * @return The number of lookups served from the cache, including stale responses.
+     */
+    public long getHitCount() { return hits.get(); }
+
+    /**
+     * Gets the number of lookups that required a request.
+     *
+     * @return The number of lookups that required a request (including revalidations).
+     */
+    public long getMissCount() { return misses.get(); }
+
+    /**
+     * Gets the number of revalidations that were answered with "304 Not
+     * Modified" (in the foreground or in the background).
+     *
+     * @return The number of revalidations answered with "304 Not Modified".
+     */
+    public long getNotModifiedCount() { return revalidations.get(); }
+
+    /**
+     * Gets the number of evicted responses.
+     *
+     * @return The number of responses evicted to keep the cache within its bounds.
+     */
+    public long getEvictionCount() { return evictions.get(); }
+
+    /**
+     * Gets the number of currently cached responses.
+     *
+     * @return The number of currently cached responses.
+     */
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Gets the total size of all currently cached responses.
+     *
+     * @return The total size of all currently cached responses, in characters.
+     */
+    public synchronized long getWeight() { return weight; }
+
+    /**
+     * Gets the maximum number of cached responses.
+     *
+     * @return The maximum number of cached responses.
+     */
+    public int getMaxEntries() { return maxEntries; }
+
+    /**
+     * Gets the maximum total size of all cached responses.
+     *
+     * @return The maximum total size of all cached responses, in characters.
+     */
+    public long getMaxWeight() { return maxWeight; }
+
+    /**
+     * Gets the stale-while-revalidate window.
+     *
+     * @return The stale-while-revalidate window, in milliseconds.
+     */
+    public long getStaleWhileRevalidate() { return staleWhileRevalidate; }
+
+    /**
+     * Normalizes the given URL, for use as a cache key.
+     * <p>
+     * The scheme and host are lower-cased, and the parameters are sorted, so
+     * that e.g. <code>?q=&amp;limit=10</code> and <code>?limit=10&amp;q=</code>
+     * map to the same key. (The original URL is still the one requested.)
+     *
+     * @param url The URL to normalize.
+     * @return The normalized URL.
+     */
+    public static String normalize(String url) {
+        String base = url;
+        String query = null;
+        int q = url.indexOf('?');
+        if (q > -1) {
+            base = url.substring(0, q);
+            query = url.substring(q + 1);
+        }
+        int hostEnd = base.indexOf('/', base.indexOf("//") + 2);
+        if (base.indexOf("//") > -1 && hostEnd > -1) {
+            base = base.substring(0, hostEnd).toLowerCase() + base.substring(hostEnd);
+        }
+        if (query == null || query.isEmpty()) {
+            return base;
+        }
+        String[] params = query.split("&");
+        Arrays.sort(params);
+        StringBuilder s = new StringBuilder(url.length());
+        s.append(base).append('?');
+        for (String param : params) {
+            if (!param.isEmpty()) {
+                s.append(param).append('&');
+            }
+        }
+        s.setLength(s.length() - 1);
+        return s.toString();
+    }
+
+    /**
+     * Gets the cached response for the given key.
+     *
+     * @param key The (normalized) key.
+     * @return The cached response, or <code>null</code> if none.
+     */
+    private synchronized Entry lookup(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores the given response, and evicts the least recently used
+     * responses as needed to stay within the bounds.
+     *
+     * @param key The (normalized) key.
+     * @param entry The response to store.
+     */
+    private synchronized void store(String key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+            weight -= replaced.body.length();
+        }
+        weight += entry.body.length();
+
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && i.hasNext()) {
+            Map.Entry<String, Entry> eldest = i.next();
+            if (eldest.getValue() == entry) {
+                continue;
+            }
+            weight -= eldest.getValue().body.length();
+            i.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the largest response that may be cached.
+     *
+     * @return The largest response that may be cached, in characters.
+     */
+    private long getMaxEntryWeight() {
+        return maxWeight / 4;
+    }
+
+    /**
+     * Revalidates the given cached response in the background, unless a
+     * revalidation for the same URL is already in progress.
+     *
+     * @param url The URL to request.
+     * @param key The (normalized) key.
+     * @param cached The cached (stale) response.
+     * @param transport The transport to use.
+     */
+    private void revalidateInBackground(final String url, final String key, final Entry cached, final HttpTransport transport) {
+        if (revalidating.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            getRevalidator().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HttpResponse response = transport.getConditional(url, cached.etag, cached.lastModified);
+                        if (response.isNotModified()) {
+                            revalidations.incrementAndGet();
+                            store(key, new Entry(cached.body, cached.etag, cached.lastModified, System.currentTimeMillis()));
+                        } else {
+                            // Read it all, storing it when closed
+                            Reader r = new CachingReader(response, key);
+                            try {
+                                char[] buf = new char[8192];
+                                while (r.read(buf) != -1) {
+                                }
+                            } finally {
+                                r.close();
+                            }
+                        }
+                    } catch (Exception e) {
+                        if (LOG.isWarnEnabled()) {
+                            LOG.warn("Background revalidation of '" + url + "' failed.", e);
+                        }
+                    } finally {
+                        revalidating.remove(key);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            revalidating.remove(key);
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Unable to schedule background revalidation of '" + url + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the executor used for background revalidation, creating it if
+     * necessary.
+     * <p>
+     * This is a pool of at most {@link #REVALIDATOR_THREADS} (daemon) threads, 
+     * which are created as needed and stopped when idle. See also 
+     * {@link #shutdown()}.
+     *
+     * @return The executor used for background revalidation.
+     */
+    private ExecutorService getRevalidator() {
+        if (revalidator == null) {
+            synchronized (this) {
+                if (revalidator == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                            REVALIDATOR_THREADS, 
+                            REVALIDATOR_THREADS, 
+                            60, 
+                            TimeUnit.SECONDS, 
+                            new LinkedBlockingQueue<Runnable>(), 
+                            new ThreadFactory() {
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "npolar-api-cache-revalidator");
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            }
+                    );
+                    // Stop idle threads, so an idle cache holds none
+                    executor.allowCoreThreadTimeOut(true);
+                    revalidator = executor;
+                }
+            }
+        }
+        return revalidator;
+    }
+    
+    /**
+     * Shuts down the background revalidation, letting any revalidation in 
+     * progress complete.
+     * <p>
+     * Typically invoked when the application stops (e.g. when a webapp is 
+     * undeployed). Later stale responses start a new background revalidation 
+     * executor, as needed.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (revalidator != null) {
+                revalidator.shutdown();
+                revalidator = null;
+            }
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    private static class Entry {
+        /** The response body. */
+        final String body;
+        /** The ETag response header, if any. */
+        final String etag;
+        /** The Last-Modified response header, if any. */
+        final String lastModified;
+        /** When the response was stored (or last revalidated). */
+        final long storedAt;
+
+        Entry(String body, String etag, String lastModified, long storedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * Reader that copies everything read into a buffer, and stores it in the
+     * cache when closed - provided that the entire response was read
+     * successfully, and that it is not too large to be cached.
+     * <p>
+     * Closing the reader before the end was reached discards the copy, 
+     * without reading any further.
+     */
+    private class CachingReader extends FilterReader {
+        /** The response being read. */
+        private final HttpResponse response;
+        /** The (normalized) key. */
+        private final String key;
+        /** The copy of everything read so far, or <code>null</code> if the response is too large. */
+        private StringBuilder copy = new StringBuilder(1024);
+        /** Flag indicating whether or not the end of the response was reached. */
+        private boolean complete = false;
+        /** Flag indicating whether or not a read has failed. */
+        private boolean broken = false;
+        /** Flag indicating whether or not this reader is closed. */
+        private boolean closed = false;
+
+        CachingReader(HttpResponse response, String key) {
+            super(response.getReader());
+            this.response = response;
+            this.key = key;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int c = super.read();
+                if (c == -1) {
+                    complete = true;
+                } else if (copy != null) {
+                    copy.append((char)c);
+                    checkSize();
+                }
+                return c;
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            try {
+                int n = super.read(cbuf, off, len);
+                if (n == -1) {
+                    complete = true;
+                } else if (copy != null) {
+                    copy.append(cbuf, off, n);
+                    checkSize();
+                }
+                return n;
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                response.close();
+            } finally {
+                if (complete && !broken && copy != null) {
+                    store(key, new Entry(copy.toString(), response.getETag(), response.getLastModified(), System.currentTimeMillis()));
+                }
+                copy = null;
+            }
+        }
+
+        /**
+         * Stops copying if the response has grown too large to be cached.
+         */
+        private void checkSize() {
+            if (copy.length() > getMaxEntryWeight()) {
+                copy = null;
+            }
+        }
+    }
+}
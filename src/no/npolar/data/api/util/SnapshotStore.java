@@ -0,0 +1,374 @@
+package no.npolar.data.api.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Disk-backed store of service responses ("snapshots"), used to keep pages
+ * rendering when the service is slow or unavailable.
+ * <p>
+ * Each snapshot is kept in a file of its own, named by a hash of the
+ * normalized request URL (see {@link ResponseCache#normalize(java.lang.String)}).
+ * Single entries are requested by URLs that end with the entry ID, so they
+ * are covered as well. A snapshot holds the response body, its validators
+ * (ETag / Last-Modified) and the time it was stored.
+ * <p>
+ * Snapshots are written to a temporary file first, and then moved into
+ * place, so a reader never sees a half-written snapshot - not even after a
+ * crash.
+ * <p>
+ * Instances are thread-safe, and are intended to be shared.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @see SnapshotTransport
+ */
+public class SnapshotStore {
+    /** The logger. */
+    private static final Log LOG = LogFactory.getLog(SnapshotStore.class);
+
+    /** The default maximum size of a single snapshot, in characters. */
+    public static final int DEFAULT_MAX_SNAPSHOT_SIZE = 8 * 1024 * 1024;
+
+    /** The file name suffix for snapshot files. */
+    private static final String SUFFIX = ".snapshot";
+    /** Marks the start of a snapshot file (and the format version). */
+    private static final int MAGIC = 0x4e504931;
+    /** The charset used for response bodies. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Hex digits, used when creating file names. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The directory holding the snapshot files. */
+    private final File dir;
+    /** The maximum size of a single snapshot, in characters. */
+    private final int maxSnapshotSize;
+
+    /** Number of snapshots written. */
+    private final AtomicLong writes = new AtomicLong();
+    /** Number of snapshots read. */
+    private final AtomicLong reads = new AtomicLong();
+
+    /**
+     * Creates a new store in the given directory, using the default maximum
+     * snapshot size.
+     *
+     * @param dir The directory to keep the snapshot files in. Created if it does not exist.
+     * @throws IOException If the directory does not exist and cannot be created.
+     * @see #DEFAULT_MAX_SNAPSHOT_SIZE
+     */
+    public SnapshotStore(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_SNAPSHOT_SIZE);
+    }
+
+    /**
+     * Creates a new store in the given directory.
+     *
+     * @param dir The directory to keep the snapshot files in. Created if it does not exist.
+     * @param maxSnapshotSize The maximum size of a single snapshot, in characters. Larger responses are not stored.
+     * @throws IOException If the directory does not exist and cannot be created.
+     */
+    public SnapshotStore(File dir, int maxSnapshotSize) throws IOException {
+        if (maxSnapshotSize < 1) {
+            throw new IllegalArgumentException("The maximum snapshot size must be at least 1 character.");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create snapshot directory '" + dir + "'.");
+        }
+        this.dir = dir;
+        this.maxSnapshotSize = maxSnapshotSize;
+    }
+
+    /**
+     * Stores the given response as the snapshot for the given URL, replacing
+     * any existing snapshot.
+     * <p>
+     * Responses larger than the {@link #getMaxSnapshotSize() maximum size}
+     * are not stored.
+     *
+     * @param url The request URL.
+     * @param body The response body.
+     * @param etag The ETag response header, or <code>null</code> if none.
+     * @param lastModified The Last-Modified response header, or <code>null</code> if none.
+     * @return <code>true</code> if the snapshot was stored, <code>false</code> if it was too large.
+     * @throws IOException If writing fails.
+     */
+    public boolean put(String url, String body, String etag, String lastModified) throws IOException {
+        if (body.length() > maxSnapshotSize) {
+            return false;
+        }
+        String key = ResponseCache.normalize(url);
+        File target = getFile(key);
+        File temp = File.createTempFile("tmp-", SUFFIX + ".part", dir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                byte[] bytes = body.getBytes(UTF_8);
+                out.writeInt(MAGIC);
+                out.writeLong(System.currentTimeMillis());
+                out.writeUTF(key);
+                writeOptional(out, etag);
+                writeOptional(out, lastModified);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete() && LOG.isWarnEnabled()) {
+                LOG.warn("Unable to delete temporary snapshot file '" + temp + "'.");
+            }
+        }
+        writes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gets the snapshot for the given URL.
+     *
+     * @param url The request URL.
+     * @return The snapshot for the given URL, or <code>null</code> if none.
+     * @throws IOException If reading fails, e.g. because the snapshot file is corrupt.
+     */
+    public Snapshot get(String url) throws IOException {
+        return read(url, true);
+    }
+
+    /**
+     * Gets the validators and the storage time of the snapshot for the given
+     * URL, without reading the response body.
+     * <p>
+     * This is a cheap check, e.g. to decide whether or not a response needs
+     * to be stored again.
+     *
+     * @param url The request URL.
+     * @return The snapshot for the given URL, without a body, or <code>null</code> if none.
+     * @throws IOException If reading fails, e.g. because the snapshot file is corrupt.
+     */
+    public Snapshot getInfo(String url) throws IOException {
+        return read(url, false);
+    }
+
+    /**
+     * Reads the snapshot for the given URL.
+     *
+     * @param url The request URL.
+     * @param withBody Whether or not to read the response body.
+     * @return The snapshot for the given URL, or <code>null</code> if none.
+     * @throws IOException If reading fails, e.g. because the snapshot file is corrupt.
+     */
+    private Snapshot read(String url, boolean withBody) throws IOException {
+        String key = ResponseCache.normalize(url);
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(key))));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file, or an unsupported version: '" + getFile(key) + "'.");
+            }
+            long storedAt = in.readLong();
+            if (!key.equals(in.readUTF())) {
+                // Hash collision: this is the snapshot of some other URL
+                return null;
+            }
+            String etag = readOptional(in);
+            String lastModified = readOptional(in);
+            if (!withBody) {
+                return new Snapshot(null, etag, lastModified, storedAt);
+            }
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            reads.incrementAndGet();
+            return new Snapshot(new String(bytes, UTF_8), etag, lastModified, storedAt);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gets a flag indicating whether or not a snapshot exists for the given
+     * URL.
+     * <p>
+     * This is a cheap check, which does not read the snapshot.
+     *
+     * @param url The request URL.
+     * @return <code>true</code> if a snapshot (probably) exists for the given URL, <code>false</code> if not.
+     */
+    public boolean contains(String url) {
+        return getFile(ResponseCache.normalize(url)).isFile();
+    }
+
+    /**
+     * Removes the snapshot (if any) for the given URL.
+     *
+     * @param url The request URL.
+     */
+    public void remove(String url) {
+        File f = getFile(ResponseCache.normalize(url));
+        if (f.exists() && !f.delete() && LOG.isWarnEnabled()) {
+            LOG.warn("Unable to delete snapshot file '" + f + "'.");
+        }
+    }
+
+    /**
+     * Removes all snapshots.
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().endsWith(SUFFIX) && !f.delete() && LOG.isWarnEnabled()) {
+                LOG.warn("Unable to delete snapshot file '" + f + "'.");
+            }
+        }
+    }
+
+    /**
+     * Gets the directory holding the snapshot files.
+     *
+     * @return The directory holding the snapshot files.
+     */
+    public File getDirectory() { return dir; }
+
+    /**
+     * Gets the maximum size of a single snapshot.
+     *
+     * @return The maximum size of a single snapshot, in characters.
+     */
+    public int getMaxSnapshotSize() { return maxSnapshotSize; }
+
+    /**
+     * Gets the number of snapshots written.
+     *
+     * @return The number of snapshots written.
+     */
+    public long getWriteCount() { return writes.get(); }
+
+    /**
+     * Gets the number of snapshots read.
+     *
+     * @return The number of snapshots read.
+     */
+    public long getReadCount() { return reads.get(); }
+
+    /**
+     * Gets the snapshot file for the given key.
+     *
+     * @param key The normalized request URL.
+     * @return The snapshot file for the given key.
+     */
+    private File getFile(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+            char[] name = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                name[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+                name[i * 2 + 1] = HEX[hash[i] & 0xf];
+            }
+            return new File(dir, new String(name) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required on all Java platforms
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the given string, which may be <code>null</code>.
+     *
+     * @param out The stream to write to.
+     * @param s The string, or <code>null</code>.
+     * @throws IOException If writing fails.
+     */
+    private static void writeOptional(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeOptional(java.io.DataOutputStream, java.lang.String)}.
+     *
+     * @param in The stream to read from.
+     * @return The string, or <code>null</code>.
+     * @throws IOException If reading fails.
+     */
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A stored response.
+     */
+    public static class Snapshot {
+        /** The response body. */
+        private final String body;
+        /** The ETag response header, if any. */
+        private final String etag;
+        /** The Last-Modified response header, if any. */
+        private final String lastModified;
+        /** When the response was stored. */
+        private final long storedAt;
+
+        Snapshot(String body, String etag, String lastModified, long storedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        /**
+         * Gets the response body.
+         *
+         * @return The response body, or <code>null</code> if the snapshot was read by {@link SnapshotStore#getInfo(java.lang.String)}.
+         */
+        public String getBody() { return body; }
+
+        /**
+         * Gets the ETag response header.
+         *
+         * @return The ETag response header, or <code>null</code> if none.
+         */
+        public String getETag() { return etag; }
+
+        /**
+         * Gets the Last-Modified response header.
+         *
+         * @return The Last-Modified response header, or <code>null</code> if none.
+         */
+        public String getLastModified() { return lastModified; }
+
+        /**
+         * Gets the time when the response was stored, that is, how fresh the
+         * snapshot is.
+         *
+         * @return The time when the response was stored, in milliseconds since the epoch.
+         */
+        public long getStoredAt() { return storedAt; }
+    }
+}
@@ -0,0 +1,706 @@
+package no.npolar.data.api.util;
+
+import java.io.FileNotFoundException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * HTTP transport that keeps pages rendering when the service is slow or
+ * unavailable, by falling back to {@link SnapshotStore snapshots} of earlier
+ * responses.
+ * <p>
+ * Requests are passed on to another transport (typically a
+ * {@link DefaultHttpTransport}), and responses are streamed to the caller while
+ * they are written through to the snapshot store. A response that has the
+ * same validators (ETag / Last-Modified) as the existing snapshot is not
+ * stored again, unless the snapshot is older than the rewrite interval.
+ * <p>
+ * When a snapshot exists for the requested URL, and the request
+ * <ul>
+ * <li>fails (other than with "404 Not Found", which removes the snapshot), or</li>
+ * <li>the service does not start responding within the latency budget,</li>
+ * </ul>
+ * the snapshot is returned instead. A request that exceeds the latency budget
+ * is left running in the background, so the snapshot is refreshed once the
+ * service responds. (Concurrent identical requests wait for that request.)
+ * At most {@link #MAX_FETCH_THREADS} such requests run at once: Beyond that,
+ * the snapshot is returned immediately.
+ * Once the service has started responding, the response is streamed, so a
+ * failure while reading the response body is <em>not</em> covered by the
+ * snapshot.
+ * <p>
+ * When a response was served from a snapshot, the time the snapshot was
+ * stored is available from {@link #getSnapshotTime(java.lang.String)} (and
+ * {@link no.npolar.data.api.QueryResult#getSnapshotTime()}), so pages can tell
+ * the end user how fresh the content is.
+ * <p>
+ * Typically set up once, at application startup:
+ * <pre>
+ * APIUtil.setHttpTransport(new SnapshotTransport(
+ *         new DefaultHttpTransport(),
+ *         new SnapshotStore(new File("/var/cache/npolar-api")),
+ *         2000));</pre>
+ * <p>
+ * Instances are thread-safe, and are intended to be shared. See also
+ * {@link #shutdown()}.
+ *
+ * @author Paul-Inge Flakstad, Norwegian Polar Institute
+ * @see APIUtil#setHttpTransport(no.npolar.data.api.util.HttpTransport)
+ */
+public class SnapshotTransport implements HttpTransport {
+    /** The logger. */
+    private static final Log LOG = LogFactory.getLog(SnapshotTransport.class);
+
+    /** The size of the character buffer used when reading responses. */
+    private static final int BUFFER_SIZE = 8192;
+    /** The default minimum age of a snapshot before an unchanged response is stored again, in milliseconds. */
+    public static final long DEFAULT_REWRITE_INTERVAL = 15 * 60 * 1000;
+    /** The maximum number of requests with a latency budget that can run at once. */
+    public static final int MAX_FETCH_THREADS = 16;
+
+    /** The transport that issues the actual requests. */
+    private final HttpTransport transport;
+    /** The snapshot store. */
+    private final SnapshotStore store;
+    /** The latency budget, in milliseconds, or 0 if none. */
+    private final long latencyBudget;
+    /** The minimum age of a snapshot before an unchanged response is stored again, in milliseconds. */
+    private final long rewriteInterval;
+
+    /** The requests currently waiting for the service to respond, for URLs that have a snapshot. */
+    private final ConcurrentMap<String, PendingResponse> inFlight = new ConcurrentHashMap<String, PendingResponse>();
+    /** For each URL last served from a snapshot: the time the snapshot was stored. */
+    private final ConcurrentMap<String, Long> snapshotTimes = new ConcurrentHashMap<String, Long>();
+    /** The executor used for requests with a latency budget. Created on demand. */
+    private volatile ExecutorService executor = null;
+
+    /** Number of responses served from a snapshot. */
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * Creates a new transport, without a latency budget: Snapshots are used
+     * only when requests fail (including timeouts in the given transport).
+     *
+     * @param transport The transport that should issue the actual requests.
+     * @param store The snapshot store.
+     */
+    public SnapshotTransport(HttpTransport transport, SnapshotStore store) {
+        this(transport, store, 0);
+    }
+
+    /**
+     * Creates a new transport, using the default rewrite interval.
+     *
+     * @param transport The transport that should issue the actual requests.
+     * @param store The snapshot store.
+     * @param latencyBudget The maximum time, in milliseconds, to wait for the service to respond when a snapshot exists. Use 0 to wait for the given transport to respond or time out.
+     * @see #DEFAULT_REWRITE_INTERVAL
+     */
+    public SnapshotTransport(HttpTransport transport, SnapshotStore store, long latencyBudget) {
+        this(transport, store, latencyBudget, DEFAULT_REWRITE_INTERVAL);
+    }
+
+    /**
+     * Creates a new transport.
+     *
+     * @param transport The transport that should issue the actual requests.
+     * @param store The snapshot store.
+     * @param latencyBudget The maximum time, in milliseconds, to wait for the service to respond when a snapshot exists. Use 0 to wait for the given transport to respond or time out.
+     * @param rewriteInterval The minimum age, in milliseconds, of a snapshot before an unchanged response (same ETag / Last-Modified) is stored again.
+     */
+    public SnapshotTransport(HttpTransport transport, SnapshotStore store, long latencyBudget, long rewriteInterval) {
+        if (transport == null || store == null || latencyBudget < 0 || rewriteInterval < 0) {
+            throw new IllegalArgumentException("A transport and a store are required, and the latency budget and rewrite interval cannot be negative.");
+        }
+        this.transport = transport;
+        this.store = store;
+        this.latencyBudget = latencyBudget;
+        this.rewriteInterval = rewriteInterval;
+    }
+
+    /**
+     * @see HttpTransport#get(java.lang.String)
+     */
+    @Override
+    public String get(String url) throws MalformedURLException, IOException {
+        Reader r = getReader(url);
+        try {
+            return readFully(r);
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * @see HttpTransport#getReader(java.lang.String)
+     */
+    @Override
+    public Reader getReader(String url) throws MalformedURLException, IOException {
+        return getConditional(url, null, null).getReader();
+    }
+
+    /**
+     * @see HttpTransport#getConditional(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public HttpResponse getConditional(String url, String ifNoneMatch, String ifModifiedSince)
+            throws MalformedURLException, IOException {
+        String key = ResponseCache.normalize(url);
+
+        if (!store.contains(url)) {
+            // Nothing to fall back to: stream the response, storing it as it is read
+            HttpResponse response = transport.getConditional(url, ifNoneMatch, ifModifiedSince);
+            snapshotTimes.remove(key);
+            return stream(response, url, false);
+        }
+
+        HttpResponse response;
+        try {
+            response = latencyBudget > 0
+                    ? requestWithinBudget(url, key, ifNoneMatch, ifModifiedSince)
+                    : transport.getConditional(url, ifNoneMatch, ifModifiedSince);
+        } catch (FileNotFoundException e) {
+            // The entry is gone, and so should the snapshot be
+            store.remove(url);
+            snapshotTimes.remove(key);
+            throw e;
+        } catch (MalformedURLException e) {
+            throw e;
+        } catch (IOException e) {
+            return fallback(url, key, e);
+        }
+        snapshotTimes.remove(key);
+        return stream(response, url, true);
+    }
+
+    /**
+     * Gets the time when the snapshot last served for the given URL was
+     * stored.
+     * <p>
+     * Use this to tell the end user how fresh the content is.
+     *
+     * @param url The request URL.
+     * @return The time (in milliseconds since the epoch) when the snapshot was stored, or -1 if the last response for the given URL was not served from a snapshot.
+     */
+    public long getSnapshotTime(String url) {
+        Long storedAt = snapshotTimes.get(ResponseCache.normalize(url));
+        return storedAt == null ? -1 : storedAt;
+    }
+
+    /**
+     * Gets the number of responses served from a snapshot.
+     *
+     * @return The number of responses served from a snapshot.
+     */
+    public long getFallbackCount() { return fallbacks.get(); }
+
+    /**
+     * Gets the snapshot store.
+     *
+     * @return The snapshot store.
+     */
+    public SnapshotStore getStore() { return store; }
+
+    /**
+     * Gets the latency budget.
+     *
+     * @return The latency budget, in milliseconds, or 0 if none.
+     */
+    public long getLatencyBudget() { return latencyBudget; }
+
+    /**
+     * Gets the rewrite interval.
+     *
+     * @return The minimum age, in milliseconds, of a snapshot before an unchanged response is stored again.
+     */
+    public long getRewriteInterval() { return rewriteInterval; }
+
+    /**
+     * Wraps the body of the given response, so that it is written through to
+     * the snapshot store as it is being read - unless it is the same as the
+     * existing snapshot.
+     *
+     * @param response The response.
+     * @param url The request URL.
+     * @param snapshotExists Whether or not a snapshot exists for the given URL.
+     * @return The wrapped response.
+     * @see #isRewriteDue(java.lang.String, no.npolar.data.api.util.HttpResponse)
+     */
+    private HttpResponse stream(HttpResponse response, String url, boolean snapshotExists) {
+        if (response.isNotModified()) {
+            return response;
+        }
+        return new HttpResponse(
+                response.getStatusCode(),
+                response.getETag(),
+                response.getLastModified(),
+                new SnapshotWritingReader(response, url, !snapshotExists || isRewriteDue(url, response))
+        );
+    }
+
+    /**
+     * Determines whether or not the given response should replace the 
+     * existing snapshot for the given URL.
+     * <p>
+     * That is the case if the validators (ETag / Last-Modified) differ, or 
+     * if the snapshot is older than the {@link #getRewriteInterval() rewrite interval}.
+     * Without validators, only the age of the snapshot is considered.
+     *
+     * @param url The request URL.
+     * @param response The response.
+     * @return <code>true</code> if the response should be stored, <code>false</code> if not.
+     */
+    private boolean isRewriteDue(String url, HttpResponse response) {
+        SnapshotStore.Snapshot existing;
+        try {
+            existing = store.getInfo(url);
+        } catch (IOException e) {
+            return true;
+        }
+        if (existing == null || System.currentTimeMillis() - existing.getStoredAt() >= rewriteInterval) {
+            return true;
+        }
+        if (response.getETag() != null || existing.getETag() != null) {
+            return !equal(response.getETag(), existing.getETag());
+        }
+        return !equal(response.getLastModified(), existing.getLastModified());
+    }
+
+    /**
+     * Requests the given URL, waiting at most the latency budget for the
+     * service to respond.
+     * <p>
+     * If an identical request is already in progress, that request is waited
+     * for instead of issuing a new one. Its response body can be read by only
+     * one of the waiting requests, though, so the others issue a new request.
+     *
+     * @param url The request URL.
+     * @param key The (normalized) key.
+     * @param ifNoneMatch The ETag of a cached response, or <code>null</code> if none.
+     * @param ifModifiedSince The Last-Modified value of a cached response, or <code>null</code> if none.
+     * @return The response.
+     * @throws IOException If the request fails, or the latency budget is exceeded.
+     */
+    private HttpResponse requestWithinBudget(String url, String key, String ifNoneMatch, String ifModifiedSince)
+            throws IOException {
+        String requestKey = key + '\n' + ifNoneMatch + '\n' + ifModifiedSince;
+        long deadline = System.currentTimeMillis() + latencyBudget;
+        while (true) {
+            PendingResponse pending = inFlight.get(requestKey);
+            if (pending == null) {
+                PendingResponse created = new PendingResponse(url, requestKey, ifNoneMatch, ifModifiedSince);
+                // If another thread wins the race to register its request, wait for that one
+                pending = inFlight.putIfAbsent(requestKey, created);
+                if (pending == null) {
+                    pending = created;
+                    try {
+                        getExecutor().execute(created);
+                    } catch (RuntimeException e) {
+                        // E.g. all threads busy: Handled as a failed request (falling back to the snapshot)
+                        inFlight.remove(requestKey, created);
+                        IOException failure = new IOException("Unable to request '" + url + "'.", e);
+                        created.fail(failure);
+                        throw failure;
+                    }
+                }
+            }
+            HttpResponse response = pending.await(deadline);
+            if (response != null) {
+                return response;
+            }
+            // Another request got there first
+        }
+    }
+
+    /**
+     * Gets the snapshot for the given URL, as a response, after a failed
+     * request.
+     *
+     * @param url The request URL.
+     * @param key The (normalized) key.
+     * @param cause The reason for falling back to the snapshot.
+     * @return The snapshot, as a response.
+     * @throws IOException The given cause, if there is no (readable) snapshot.
+     */
+    private HttpResponse fallback(String url, String key, IOException cause) throws IOException {
+        SnapshotStore.Snapshot snapshot = null;
+        try {
+            snapshot = store.get(url);
+        } catch (IOException e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Unable to read snapshot of '" + url + "'.", e);
+            }
+        }
+        if (snapshot == null) {
+            throw cause;
+        }
+        fallbacks.incrementAndGet();
+        snapshotTimes.put(key, snapshot.getStoredAt());
+        if (LOG.isWarnEnabled()) {
+            LOG.warn("Serving snapshot of '" + url + "', stored " + new Date(snapshot.getStoredAt())
+                    + ", because the request failed: " + cause.getMessage());
+        }
+        return new HttpResponse(
+                HttpURLConnection.HTTP_OK,
+                snapshot.getETag(),
+                snapshot.getLastModified(),
+                new StringReader(snapshot.getBody())
+        );
+    }
+
+    /**
+     * Writes the given response through to the snapshot store, logging (but
+     * otherwise ignoring) any errors.
+     *
+     * @param url The request URL.
+     * @param body The response body.
+     * @param etag The ETag response header, or <code>null</code> if none.
+     * @param lastModified The Last-Modified response header, or <code>null</code> if none.
+     */
+    private void writeSnapshot(String url, String body, String etag, String lastModified) {
+        try {
+            store.put(url, body, etag, lastModified);
+        } catch (IOException e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Unable to store snapshot of '" + url + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the executor used for requests with a latency budget, creating it
+     * if necessary.
+     * <p>
+     * This is a pool of at most {@link #MAX_FETCH_THREADS} (daemon) threads,
+     * which are created as needed and stopped when idle. Requests are not
+     * queued: When all threads are busy (e.g. because the service hangs), the
+     * request is rejected, and the snapshot is served instead.
+     *
+     * @return The executor used for requests with a latency budget.
+     */
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(
+                            0,
+                            MAX_FETCH_THREADS,
+                            60,
+                            TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(),
+                            new ThreadFactory() {
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "npolar-api-snapshot-fetch");
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            },
+                            // Rejected requests fall back to the snapshot (see requestWithinBudget)
+                            new ThreadPoolExecutor.AbortPolicy()
+                    );
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the executor used for requests with a latency budget,
+     * letting any requests in progress complete.
+     * <p>
+     * Typically invoked when the application stops (e.g. when a webapp is
+     * undeployed). Later requests with a latency budget start a new executor,
+     * as needed.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Reads everything from the given reader.
+     *
+     * @param r The reader.
+     * @return Everything read.
+     * @throws IOException If reading fails.
+     */
+    private static String readFully(Reader r) throws IOException {
+        StringBuilder s = new StringBuilder(BUFFER_SIZE);
+        char[] buf = new char[BUFFER_SIZE];
+        int n;
+        while ((n = r.read(buf)) != -1) {
+            s.append(buf, 0, n);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Compares two strings, either of which may be <code>null</code>.
+     *
+     * @param s1 The first string.
+     * @param s2 The second string.
+     * @return <code>true</code> if the strings are equal, or both <code>null</code>.
+     */
+    private static boolean equal(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    /**
+     * A request issued in the background, that one or more requests are 
+     * waiting for - each at most until its latency budget is spent.
+     * <p>
+     * The first waiting request to see the response takes it. If no request 
+     * is waiting anymore when the response arrives, it is read in the 
+     * background, refreshing the snapshot.
+     */
+    private class PendingResponse implements Runnable {
+        /** The request URL. */
+        private final String url;
+        /** The key in {@link #inFlight}. */
+        private final String requestKey;
+        /** The ETag of a cached response, or <code>null</code> if none. */
+        private final String ifNoneMatch;
+        /** The Last-Modified value of a cached response, or <code>null</code> if none. */
+        private final String ifModifiedSince;
+        /** The response, once it has arrived. Guarded by <code>this</code>. */
+        private HttpResponse response = null;
+        /** The reason the request failed, if it did. Guarded by <code>this</code>. */
+        private IOException failure = null;
+        /** Flag indicating whether or not the request has completed. Guarded by <code>this</code>. */
+        private boolean done = false;
+        /** Flag indicating whether or not the response body has been taken. Guarded by <code>this</code>. */
+        private boolean taken = false;
+        /** The number of requests currently waiting. Guarded by <code>this</code>. */
+        private int waiting = 0;
+
+        PendingResponse(String url, String requestKey, String ifNoneMatch, String ifModifiedSince) {
+            this.url = url;
+            this.requestKey = requestKey;
+            this.ifNoneMatch = ifNoneMatch;
+            this.ifModifiedSince = ifModifiedSince;
+        }
+
+        @Override
+        public void run() {
+            HttpResponse r = null;
+            IOException f = null;
+            try {
+                r = transport.getConditional(url, ifNoneMatch, ifModifiedSince);
+            } catch (IOException e) {
+                f = e;
+            } catch (RuntimeException e) {
+                f = new IOException("Unable to request '" + url + "'.", e);
+            } finally {
+                // New requests should not wait for this one anymore
+                inFlight.remove(requestKey, this);
+            }
+            boolean abandoned;
+            synchronized (this) {
+                response = r;
+                failure = f;
+                done = true;
+                abandoned = waiting == 0;
+                if (abandoned) {
+                    taken = true;
+                }
+                notifyAll();
+            }
+            if (abandoned) {
+                if (f instanceof FileNotFoundException) {
+                    store.remove(url);
+                } else if (r != null) {
+                    refresh(r);
+                }
+            }
+        }
+
+        /**
+         * Completes this request as failed, without it having run, waking up 
+         * any waiting requests.
+         *
+         * @param e The reason.
+         */
+        synchronized void fail(IOException e) {
+            failure = e;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the response.
+         *
+         * @param deadline The time (in milliseconds since the epoch) to wait until, at most.
+         * @return The response, or <code>null</code> if another request has taken it.
+         * @throws IOException If the request failed, or did not complete before the deadline.
+         */
+        synchronized HttpResponse await(long deadline) throws IOException {
+            waiting++;
+            try {
+                long remaining;
+                while (!done && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while requesting '" + url + "'.");
+                    }
+                }
+            } finally {
+                waiting--;
+            }
+            if (!done) {
+                // Leave it running: it will refresh the snapshot when it completes
+                throw new SocketTimeoutException("No response from '" + url + "' within the latency budget of " + latencyBudget + " ms.");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (response.isNotModified()) {
+                // No body, so it can be shared
+                return new HttpResponse(response.getStatusCode(), response.getETag(), response.getLastModified(), null);
+            }
+            if (taken) {
+                return null;
+            }
+            taken = true;
+            return response;
+        }
+
+        /**
+         * Reads the given response to the end, refreshing the snapshot, and 
+         * logging (but otherwise ignoring) any errors.
+         *
+         * @param r The response.
+         */
+        private void refresh(HttpResponse r) {
+            try {
+                Reader body = stream(r, url, true).getReader();
+                if (body == null) {
+                    return;
+                }
+                try {
+                    char[] buf = new char[BUFFER_SIZE];
+                    while (body.read(buf) != -1) {
+                    }
+                } finally {
+                    body.close();
+                }
+            } catch (IOException e) {
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Unable to refresh snapshot of '" + url + "'.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reader that (optionally) copies everything read into a buffer, and 
+     * writes it through to the snapshot store when closed - provided that the 
+     * entire response was read successfully, and that it is not too large.
+     * <p>
+     * Closing the reader before the end was reached discards the copy, 
+     * without reading any further.
+     */
+    private class SnapshotWritingReader extends FilterReader {
+        /** The response being read. */
+        private final HttpResponse response;
+        /** The request URL. */
+        private final String url;
+        /** The copy of everything read so far, or <code>null</code> if not copying (e.g. because the response is too large). */
+        private StringBuilder copy;
+        /** Flag indicating whether or not the end of the response was reached. */
+        private boolean complete = false;
+        /** Flag indicating whether or not a read has failed. */
+        private boolean broken = false;
+        /** Flag indicating whether or not this reader is closed. */
+        private boolean closed = false;
+
+        SnapshotWritingReader(HttpResponse response, String url, boolean write) {
+            super(response.getReader());
+            this.response = response;
+            this.url = url;
+            this.copy = write ? new StringBuilder(1024) : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int c = super.read();
+                if (c == -1) {
+                    complete = true;
+                } else if (copy != null) {
+                    copy.append((char)c);
+                    checkSize();
+                }
+                return c;
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            try {
+                int n = super.read(cbuf, off, len);
+                if (n == -1) {
+                    complete = true;
+                } else if (copy != null) {
+                    copy.append(cbuf, off, n);
+                    checkSize();
+                }
+                return n;
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                response.close();
+            } finally {
+                if (complete && !broken && copy != null) {
+                    writeSnapshot(url, copy.toString(), response.getETag(), response.getLastModified());
+                }
+                copy = null;
+            }
+        }
+
+        /**
+         * Stops copying if the response has grown too large to be stored.
+         */
+        private void checkSize() {
+            if (copy.length() > store.getMaxSnapshotSize()) {
+                copy = null;
+            }
+        }
+    }
+}